@@ -0,0 +1,104 @@
+package org.acme.telemetry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the min/max/sum statistics of one bucket's ambient and device temperatures, as computed
+ * by the legacy engine for every bucket:
+ * - "separate": six scalar loops, one per statistic and column, as before {@link StatisticsKernel}
+ * - "fused": {@link StatisticsKernel#computeScalar}, one scalar loop over both columns
+ * - "vector": {@link VectorStatisticsKernel}, one loop over both columns, min and max of several readings per instruction
+ *
+ * Buckets hold one reading per second: 10s, 1h and 1d. The forked JVM gets the incubator module
+ * explicitly, so "vector" runs regardless of how JMH itself was started.
+ *
+ * Example:
+ * ./mvnw -Pbenchmark test-compile exec:exec@jmh -Djmh.args="StatisticsKernelBenchmark -p readings=86400"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class StatisticsKernelBenchmark {
+
+    /** Readings in the bucket */
+    @Param({"10", "3600", "86400"})
+    public int readings;
+
+    @Param({"separate", "fused", "vector"})
+    public String kernel;
+
+    private double[] ambientTemperatures;
+    private double[] deviceTemperatures;
+    private final double[] statistics = new double[6];
+
+    @Setup
+    public void createBucket() {
+        // Shaped like SyntheticTelemetry: daily ambient cycle, device temperature following it
+        Random random = new Random(42);
+        ambientTemperatures = new double[readings];
+        deviceTemperatures = new double[readings];
+        for (int i = 0; i < readings; i++) {
+            double ambient = 22 + 4 * Math.sin(i / 86400.0 * 2 * Math.PI) + random.nextDouble() - 0.5;
+            ambientTemperatures[i] = ambient;
+            deviceTemperatures[i] = 50.0 + (ambient - 22) * 1.5 + random.nextDouble() - 0.5;
+        }
+    }
+
+    @Benchmark
+    public double[] statistics() {
+        switch (kernel) {
+            case "separate" -> {
+                statistics[StatisticsKernel.MIN_AMBIENT] = min(ambientTemperatures);
+                statistics[StatisticsKernel.MAX_AMBIENT] = max(ambientTemperatures);
+                statistics[StatisticsKernel.SUM_AMBIENT] = sum(ambientTemperatures);
+                statistics[StatisticsKernel.MIN_DEVICE] = min(deviceTemperatures);
+                statistics[StatisticsKernel.MAX_DEVICE] = max(deviceTemperatures);
+                statistics[StatisticsKernel.SUM_DEVICE] = sum(deviceTemperatures);
+            }
+            case "fused" -> StatisticsKernel.computeScalar(ambientTemperatures, deviceTemperatures, 0, readings, statistics);
+            case "vector" -> VectorStatisticsKernel.compute(ambientTemperatures, deviceTemperatures, 0, readings, statistics);
+            default -> throw new IllegalArgumentException("Unknown kernel: " + kernel);
+        }
+        return statistics;
+    }
+
+    private static double min(double[] values) {
+        double min = values[0];
+        for (double value : values) {
+            if (value < min) min = value;
+        }
+        return min;
+    }
+
+    private static double max(double[] values) {
+        double max = values[0];
+        for (double value : values) {
+            if (value > max) max = value;
+        }
+        return max;
+    }
+
+    private static double sum(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+}
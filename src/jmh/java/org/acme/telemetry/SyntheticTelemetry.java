@@ -0,0 +1,84 @@
+package org.acme.telemetry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Random;
+
+/**
+ * Generates telemetry CSV files shaped like the output of generate_telemetry.py:
+ * one reading per device and second, a daily ambient cycle between 18 and 26 °C with
+ * ±0.5 °C noise, and device temperatures following the ambient with rare spikes.
+ * Readings of all devices are interleaved in time order, as a collector would write them.
+ */
+final class SyntheticTelemetry {
+
+    static final Instant START = Instant.parse("2024-02-02T00:00:00Z");
+
+    private SyntheticTelemetry() {
+    }
+
+    /**
+     * Writes a CSV file to the temp directory.
+     *
+     * @param devices Number of devices, named DEVICE_001, DEVICE_002, ...
+     * @param spanHours Time span covered by the file, starting at {@link #START}
+     * @param seed Random seed, so every fork benchmarks the same data
+     * @return Path of the generated file; the caller deletes it
+     * @throws IOException if the file cannot be written
+     */
+    static Path writeCsv(int devices, int spanHours, long seed) throws IOException {
+        Path file = Files.createTempFile("telemetry-" + devices + "x" + spanHours + "h-", ".csv");
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+            write(devices, spanHours, seed, writer);
+        }
+        return file;
+    }
+
+    /**
+     * Writes the CSV rows, header first.
+     *
+     * @param devices Number of devices
+     * @param spanHours Time span covered, starting at {@link #START}
+     * @param seed Random seed
+     * @param writer Target of the CSV text
+     * @throws IOException if writing fails
+     */
+    static void write(int devices, int spanHours, long seed, Writer writer) throws IOException {
+        Random random = new Random(seed);
+        String[] deviceIds = new String[devices];
+        for (int d = 0; d < devices; d++) {
+            deviceIds[d] = String.format("DEVICE_%03d", d + 1);
+        }
+
+        writer.write("DeviceId,Timestamp,AmbientTemperature,DeviceTemperature\n");
+        long startSecond = START.getEpochSecond();
+        for (long second = 0; second < spanHours * 3600L; second++) {
+            Instant time = Instant.ofEpochSecond(startSecond + second);
+            int hour = (int) (second / 3600 % 24);
+            double baseAmbient = 22 + 4 * Math.sin((hour - 4) / 24.0 * 2 * Math.PI);
+            String timestamp = time.toString();
+            for (String deviceId : deviceIds) {
+                double ambient = round2(baseAmbient + random.nextDouble() - 0.5);
+                double spike = random.nextDouble() < 0.001 ? 5 + random.nextDouble() * 10 : 0;
+                double device = round2(50.0 + (ambient - 22) * 1.5 + spike + random.nextDouble() - 0.5);
+                writer.write(deviceId);
+                writer.write(',');
+                writer.write(timestamp);
+                writer.write(',');
+                writer.write(Double.toString(ambient));
+                writer.write(',');
+                writer.write(Double.toString(device));
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static double round2(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,132 @@
+package org.acme.telemetry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TelemetryService#aggregateTelemetry} over the whole span of a synthetic data set
+ * at every supported resolution, for each aggregation path:
+ * - "legacy": {@link TelemetryService#aggregateRecords}, which rescans a device's records per bucket
+ * - "single-pass": one sweep over the in-memory columns
+ * - "rollups": single-pass merging the 10s/1m/1h rollups
+ * - "cache": single-pass through the result cache, answering the same query again
+ * - "compressed": single-pass over the "compressed" storage format, folding whole blocks from their headers
+ *
+ * With percentiles, every bucket also builds a quantile sketch of its device temperatures; the
+ * rollups are then sketched as well, and the cache is bypassed.
+ *
+ * The legacy path grows with records times buckets; restrict it with e.g. -p spanHours=6 on large inputs.
+ *
+ * Example:
+ * ./mvnw -Pbenchmark test-compile exec:exec@jmh -Djmh.args="TelemetryAggregationBenchmark -p path=single-pass,rollups"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class TelemetryAggregationBenchmark {
+
+    @Param({"1", "10"})
+    public int devices;
+
+    @Param({"6", "24"})
+    public int spanHours;
+
+    @Param({"10s", "30s", "1m", "5m", "15m", "30m", "1h", "6h", "12h", "1d"})
+    public String resolution;
+
+    @Param({"legacy", "single-pass", "rollups", "cache", "compressed"})
+    public String path;
+
+    /** Comma-separated percentiles of the device temperature per bucket, or "none" */
+    @Param({"none", "50,95,99"})
+    public String percentiles;
+
+    private TelemetryService service;
+    private AggregationExecutor executor;
+    private Instant from;
+    private Instant to;
+    private Duration resolutionDuration;
+    private Percentiles requestedPercentiles;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        Path csvFile = SyntheticTelemetry.writeCsv(devices, spanHours, 42);
+        TelemetryStore store = new TelemetryStore();
+        try {
+            store.csvFilePath = csvFile.toString();
+            store.loadThreads = Optional.empty();
+            store.rollupResolutions = path.equals("rollups") ? Optional.of(List.of("10s", "1m", "1h")) : Optional.empty();
+            store.rollupSketches = !percentiles.equals("none");
+            store.compressionBlockSize = CompressedSeries.DEFAULT_BLOCK_SIZE;
+            if (path.equals("compressed")) {
+                store.loadCompressedData();
+            } else {
+                store.loadTelemetryData();
+            }
+            store.buildRollups();
+        } finally {
+            Files.deleteIfExists(csvFile);
+        }
+
+        AggregationCache cache = new AggregationCache();
+        cache.telemetryStore = store;
+        cache.maxBuckets = path.equals("cache") ? 10_000_000 : 0;
+
+        executor = new AggregationExecutor();
+        executor.poolSize = Optional.empty();
+        executor.maxParallelism = 4;
+        executor.start();
+
+        TelemetryMetrics metrics = new TelemetryMetrics();
+        metrics.registry = new SimpleMeterRegistry();
+
+        service = new TelemetryService();
+        service.telemetryStore = store;
+        service.telemetryMetrics = metrics;
+        service.aggregationCache = cache;
+        service.aggregationExecutor = executor;
+        service.aggregationEngine = path.equals("legacy") ? TelemetryService.ENGINE_LEGACY : TelemetryService.ENGINE_SINGLE_PASS;
+
+        from = SyntheticTelemetry.START;
+        to = from.plus(Duration.ofHours(spanHours));
+        resolutionDuration = TelemetryValidator.parseResolution(resolution);
+        requestedPercentiles = percentiles.equals("none") ? Percentiles.NONE : Percentiles.parse(List.of(percentiles));
+    }
+
+    @TearDown(Level.Trial)
+    public void stopExecutor() {
+        executor.stop();
+    }
+
+    @Benchmark
+    public List<AggregatedTelemetry> aggregate() {
+        List<AggregatedTelemetry> buckets = new ArrayList<>();
+        service.aggregateTelemetry(from, to, resolutionDuration, DeviceFilter.ALL, requestedPercentiles, buckets::add);
+        return buckets;
+    }
+}
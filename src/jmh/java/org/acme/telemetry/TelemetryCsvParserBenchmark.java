@@ -0,0 +1,81 @@
+package org.acme.telemetry;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the OpenCSV loading loop the service used to run per request with {@link TelemetryCsvParser}.
+ * Both parse the same in-memory copy of a file produced by generate_telemetry.py, so disk I/O is excluded.
+ *
+ * Example:
+ * python3 generate_telemetry.py
+ * ./mvnw -Pbenchmark test-compile exec:exec@jmh -Djmh.args="TelemetryCsvParserBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TelemetryCsvParserBenchmark {
+
+    /** CSV file to parse, e.g. the telemetry.csv written by generate_telemetry.py */
+    @Param("telemetry.csv")
+    public String csvPath;
+
+    private byte[] data;
+
+    @Setup
+    public void readFile() throws IOException {
+        data = Files.readAllBytes(Path.of(csvPath));
+    }
+
+    @Benchmark
+    public void openCsv(Blackhole blackhole) throws IOException, CsvValidationException {
+        try (InputStreamReader isr = new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8);
+             CSVReader reader = new CSVReader(isr)) {
+            reader.readNext();
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                blackhole.consume(new TelemetryRecord(
+                    line[0],
+                    Instant.parse(line[1]),
+                    Double.parseDouble(line[2]),
+                    Double.parseDouble(line[3])));
+            }
+        }
+    }
+
+    @Benchmark
+    public long customParser(Blackhole blackhole) {
+        TelemetryCsvParser parser = new TelemetryCsvParser();
+        return parser.parse(ByteBuffer.wrap(data), true, (deviceIndex, epochMillis, ambient, device) -> {
+            blackhole.consume(deviceIndex);
+            blackhole.consume(epochMillis);
+            blackhole.consume(ambient);
+            blackhole.consume(device);
+        });
+    }
+}
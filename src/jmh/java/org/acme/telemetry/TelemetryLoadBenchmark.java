@@ -0,0 +1,72 @@
+package org.acme.telemetry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TelemetryStore#loadTelemetryData()} on synthetic files of several sizes,
+ * with a single parsing thread and with parallel parsing. The file is generated once per fork
+ * and stays in the OS page cache, so this measures parsing and building the columns, not the disk.
+ *
+ * Example:
+ * ./mvnw -Pbenchmark test-compile exec:exec@jmh -Djmh.args="TelemetryLoadBenchmark -p devices=10"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TelemetryLoadBenchmark {
+
+    /** Number of devices in the generated file */
+    @Param({"1", "10", "50"})
+    public int devices;
+
+    /** Time span of the generated file in hours, one reading per device and second */
+    @Param({"6", "48"})
+    public int spanHours;
+
+    /** Number of parsing threads */
+    @Param({"1", "4"})
+    public int loadThreads;
+
+    private Path csvFile;
+    private TelemetryStore store;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        csvFile = SyntheticTelemetry.writeCsv(devices, spanHours, 42);
+        store = new TelemetryStore();
+        store.csvFilePath = csvFile.toString();
+        store.loadThreads = Optional.of(loadThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(csvFile);
+    }
+
+    @Benchmark
+    public TelemetryStore loadTelemetryData() {
+        store.loadTelemetryData();
+        return store;
+    }
+}
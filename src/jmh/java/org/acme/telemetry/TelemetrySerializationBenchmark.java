@@ -0,0 +1,135 @@
+package org.acme.telemetry;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Jackson serialization of {@link AggregatedTelemetry} results in both response encodings:
+ * JSON configured like the Quarkus ObjectMapper (ISO-8601 instants) and CBOR as written by
+ * {@link TelemetryResource} (epoch-millisecond instants). Each is measured as the materialized list
+ * written in one call, as with a non-streaming response, and as bucket-by-bucket writes through one
+ * generator, as the streaming response does. Output goes to a counting stream that discards the
+ * bytes, so only encoding is measured; the encoded size is printed once per trial.
+ *
+ * Example:
+ * ./mvnw -Pbenchmark test-compile exec:exec@jmh -Djmh.args="TelemetrySerializationBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TelemetrySerializationBenchmark {
+
+    /** Number of buckets in the response; 8640 is one day at 10s for one device */
+    @Param({"100", "8640", "259200"})
+    public int buckets;
+
+    /** Response encoding */
+    @Param({"json", "cbor"})
+    public String format;
+
+    private ObjectMapper objectMapper;
+    private ObjectWriter bucketWriter;
+    private List<AggregatedTelemetry> results;
+
+    @Setup
+    public void createResults() {
+        objectMapper = switch (format) {
+            case "json" -> new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+            case "cbor" -> TelemetryResource.createCborMapper();
+            default -> throw new IllegalArgumentException("Unknown format: " + format);
+        };
+        bucketWriter = objectMapper.writerFor(AggregatedTelemetry.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        Random random = new Random(42);
+        Instant start = SyntheticTelemetry.START;
+        results = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            AggregatedTelemetry aggregated = new AggregatedTelemetry();
+            aggregated.setDeviceId(String.format("DEVICE_%03d", i % 30 + 1));
+            aggregated.setStartTime(start.plusSeconds(i * 10L));
+            aggregated.setEndTime(start.plusSeconds(i * 10L + 10));
+            aggregated.setRecordCount(10);
+            aggregated.setAvgAmbientTemperature(18 + random.nextDouble() * 8);
+            aggregated.setMinAmbientTemperature(18 + random.nextInt(400) / 100.0);
+            aggregated.setMaxAmbientTemperature(22 + random.nextInt(400) / 100.0);
+            aggregated.setAvgDeviceTemperature(45 + random.nextDouble() * 15);
+            aggregated.setMinDeviceTemperature(45 + random.nextInt(700) / 100.0);
+            aggregated.setMaxDeviceTemperature(52 + random.nextInt(800) / 100.0);
+            results.add(aggregated);
+        }
+
+        CountingOutputStream counter = new CountingOutputStream();
+        try {
+            objectMapper.writeValue(counter, results);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.printf("%n%s, %d buckets: %d bytes (%.1f per bucket)%n",
+            format, buckets, counter.bytes, (double) counter.bytes / buckets);
+    }
+
+    @Benchmark
+    public long serializeList() throws IOException {
+        CountingOutputStream output = new CountingOutputStream();
+        objectMapper.writeValue(output, results);
+        return output.bytes;
+    }
+
+    @Benchmark
+    public long serializeStreaming() throws IOException {
+        CountingOutputStream output = new CountingOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {
+            generator.writeStartArray();
+            for (AggregatedTelemetry aggregated : results) {
+                bucketWriter.writeValue(generator, aggregated);
+            }
+            generator.writeEndArray();
+        }
+        return output.bytes;
+    }
+
+    /** Discards everything written to it, counting the bytes */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+}
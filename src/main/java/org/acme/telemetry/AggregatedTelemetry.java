@@ -1,17 +1,22 @@
 package org.acme.telemetry;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import java.time.Instant;
+import java.util.Map;
 
 /**
  * Represents aggregated telemetry statistics for a specific time period.
  * This class contains statistical data (min, max, average) calculated from
  * multiple individual telemetry readings within a time bucket.
+ * Percentiles of the device temperature are only present when a query asks for them,
+ * and the device ID is absent from fleet-wide buckets, which combine the readings of many devices.
  */
 @Schema(name = "AggregatedTelemetry", description = "Aggregated telemetry statistics for a time period")
 public class AggregatedTelemetry {
     
-    @Schema(description = "Device identifier", example = "DEVICE_001")
+    @Schema(description = "Device identifier; absent for buckets of the whole fleet", example = "DEVICE_001")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private String deviceId;
 
     @Schema(description = "Start time of the aggregation period (inclusive)", example = "2024-02-02T00:00:00Z")
@@ -41,6 +46,12 @@ public class AggregatedTelemetry {
     @Schema(description = "Number of telemetry records included in this aggregation", example = "3600")
     private long recordCount;
 
+    @Schema(description = "Requested percentiles of the device temperature in Celsius, keyed by percentile; "
+        + "estimates within 1% of the exact value. Omitted unless requested",
+        example = "{\"p50\": 50.1, \"p95\": 58.7, \"p99\": 63.9}")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, Double> deviceTemperaturePercentiles;
+
     // Getters and setters with property documentation
 
     /** @return The device identifier */
@@ -142,4 +153,14 @@ public class AggregatedTelemetry {
     public void setRecordCount(long recordCount) {
         this.recordCount = recordCount;
     }
+
+    /** @return Requested percentiles of the device temperature, keyed by name (e.g. "p95"), or null if none were requested */
+    public Map<String, Double> getDeviceTemperaturePercentiles() {
+        return deviceTemperaturePercentiles;
+    }
+
+    /** @param deviceTemperaturePercentiles Percentiles of the device temperature to set */
+    public void setDeviceTemperaturePercentiles(Map<String, Double> deviceTemperaturePercentiles) {
+        this.deviceTemperaturePercentiles = deviceTemperaturePercentiles;
+    }
 }
\ No newline at end of file
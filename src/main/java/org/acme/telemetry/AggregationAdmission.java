@@ -0,0 +1,153 @@
+package org.acme.telemetry;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control of aggregations: bounds how many run at once and how many wait for their turn.
+ *
+ * Aggregate requests run on virtual threads, so a burst of requests no longer queues for worker
+ * threads; without a limit, every request would start aggregating at once and all of them would
+ * slow down together. Instead, at most {@code max-concurrent} aggregations run, later ones wait in
+ * arrival order, and once {@code max-queued} are waiting further requests are rejected at once with
+ * a hint when to retry. Waiting parks a virtual thread only, so the queue costs no platform threads.
+ */
+@ApplicationScoped
+public class AggregationAdmission {
+
+    /**
+     * Maximum number of aggregations running at the same time; defaults to the number of available processors.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.aggregation.max-concurrent'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.aggregation.max-concurrent")
+    Optional<Integer> maxConcurrent;
+
+    /**
+     * Maximum number of aggregations waiting for a running one to finish; 0 rejects whenever all are busy.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.aggregation.max-queued'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.aggregation.max-queued", defaultValue = "64")
+    int maxQueued;
+
+    /**
+     * Seconds after which rejected clients are asked to retry, sent in the "Retry-After" header.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.aggregation.retry-after-seconds'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.aggregation.retry-after-seconds", defaultValue = "1")
+    int retryAfterSeconds;
+
+    private Semaphore running;
+    private int limit;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Thrown when an aggregation is not admitted because too many are running and waiting.
+     */
+    static final class RejectedException extends RuntimeException {
+
+        private final int retryAfterSeconds;
+
+        RejectedException(int retryAfterSeconds) {
+            super("Too many concurrent aggregations, retry in " + retryAfterSeconds + "s");
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        /** @return Seconds after which the request should be retried */
+        int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    /**
+     * Slot of one admitted aggregation; closing it admits the next waiting one.
+     * Closing it more than once has no further effect.
+     */
+    final class Permit implements AutoCloseable {
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                running.release();
+            }
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        limit = Math.max(1, maxConcurrent.orElse(Runtime.getRuntime().availableProcessors()));
+        running = new Semaphore(limit, true);
+    }
+
+    /** @return Maximum number of aggregations running at the same time */
+    int getLimit() {
+        return limit;
+    }
+
+    /** @return Number of aggregations currently running */
+    int getRunning() {
+        return limit - running.availablePermits();
+    }
+
+    /** @return Number of aggregations currently waiting to run */
+    int getQueued() {
+        return queued.get();
+    }
+
+    /** @return Number of aggregations rejected since startup */
+    long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Admits an aggregation, waiting for a running one to finish if all slots are taken.
+     * The caller must close the permit once the aggregation is done, also if it failed.
+     *
+     * @return Permit of the admitted aggregation
+     * @throws RejectedException if the queue is full or the thread was interrupted while waiting
+     */
+    Permit admit() {
+        // A timed tryAcquire respects the arrival order of waiting requests, unlike the untimed one
+        if (!tryAcquire(0)) {
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                throw reject();
+            }
+            try {
+                if (!tryAcquire(Long.MAX_VALUE)) {
+                    throw reject();
+                }
+            } finally {
+                queued.decrementAndGet();
+            }
+        }
+        return new Permit();
+    }
+
+    private boolean tryAcquire(long timeoutNanos) {
+        try {
+            return running.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private RejectedException reject() {
+        rejected.incrementAndGet();
+        return new RejectedException(retryAfterSeconds);
+    }
+}
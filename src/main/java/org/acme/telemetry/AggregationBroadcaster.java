@@ -0,0 +1,169 @@
+package org.acme.telemetry;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.operators.multi.processors.BroadcastProcessor;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Pushes aggregated buckets of ingested readings to live subscribers.
+ *
+ * Live buckets are aligned to the epoch, like rollups, since a subscription has no start time
+ * to lay them out from. A device's bucket is closed and pushed once a reading at or after its
+ * end arrives. Readings for a bucket that was already pushed are not pushed again; they are
+ * still part of every later query of {@code /telemetry/aggregate}.
+ *
+ * Per resolution there is one live aggregation, folding every appended reading once, and its
+ * buckets are fanned out to all subscribers of that resolution, each filtering the devices it
+ * asked for. The aggregation starts with the first subscriber and stops with the last one.
+ * A subscriber that falls more than the configured number of buckets behind is disconnected.
+ */
+@ApplicationScoped
+public class AggregationBroadcaster {
+
+    /**
+     * Maximum number of buckets buffered for a subscriber that does not keep up.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.stream.buffer-size'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.stream.buffer-size", defaultValue = "1024")
+    int bufferSize;
+
+    @Inject
+    TelemetryStore telemetryStore;
+
+    /** Running aggregations by resolution in milliseconds */
+    private final Map<Long, LiveAggregation> aggregations = new HashMap<>();
+
+    @PostConstruct
+    void start() {
+        telemetryStore.addAppendListener(this::appended);
+    }
+
+    /**
+     * Subscribes to the buckets closed from now on.
+     *
+     * @param resolution Duration of each time bucket
+     * @param devices Devices to receive buckets of
+     * @return Endless stream of closed buckets, in closing order
+     */
+    Multi<AggregatedTelemetry> subscribe(Duration resolution, DeviceFilter devices) {
+        long resolutionMillis = resolution.toMillis();
+        return Multi.createFrom().deferred(() -> {
+            LiveAggregation aggregation = acquire(resolutionMillis);
+            return aggregation.processor
+                .select().where(bucket -> devices.matches(bucket.getDeviceId()))
+                .onOverflow().buffer(bufferSize)
+                .onTermination().invoke(() -> release(aggregation));
+        });
+    }
+
+    /** @return Number of subscribers over all resolutions */
+    public synchronized int getSubscriberCount() {
+        int subscribers = 0;
+        for (LiveAggregation aggregation : aggregations.values()) {
+            subscribers += aggregation.subscribers;
+        }
+        return subscribers;
+    }
+
+    private synchronized LiveAggregation acquire(long resolutionMillis) {
+        LiveAggregation aggregation = aggregations.computeIfAbsent(resolutionMillis, LiveAggregation::new);
+        aggregation.subscribers++;
+        return aggregation;
+    }
+
+    private synchronized void release(LiveAggregation aggregation) {
+        if (--aggregation.subscribers == 0) {
+            aggregations.remove(aggregation.resolutionMillis, aggregation);
+        }
+    }
+
+    /** Called by the store for every append, one at a time */
+    private void appended(Map<String, DeviceSeries> previous, Map<String, DeviceSeries> current,
+                          List<DeviceSeries> readings) {
+        List<LiveAggregation> running;
+        synchronized (this) {
+            running = List.copyOf(aggregations.values());
+        }
+        for (LiveAggregation aggregation : running) {
+            aggregation.appended(previous, readings);
+        }
+    }
+
+    /** Open buckets of all devices at one resolution, fed by appends only */
+    private static final class LiveAggregation {
+
+        private final long resolutionMillis;
+        private final BroadcastProcessor<AggregatedTelemetry> processor = BroadcastProcessor.create();
+        private final Map<String, OpenBucket> devices = new HashMap<>();
+        private int subscribers;
+
+        LiveAggregation(long resolutionMillis) {
+            this.resolutionMillis = resolutionMillis;
+        }
+
+        void appended(Map<String, DeviceSeries> previous, List<DeviceSeries> readings) {
+            for (DeviceSeries appended : readings) {
+                OpenBucket bucket = devices.get(appended.getDeviceId());
+                if (bucket == null) {
+                    bucket = new OpenBucket(appended.getDeviceId(), resolutionMillis);
+                    devices.put(appended.getDeviceId(), bucket);
+                    // The bucket of the device's last stored reading is still open and already has readings
+                    DeviceSeries stored = previous.get(appended.getDeviceId());
+                    if (stored != null && stored.size() > 0) {
+                        long lastTime = stored.getTimestamps()[stored.size() - 1];
+                        long openStart = Math.floorDiv(lastTime, resolutionMillis) * resolutionMillis;
+                        bucket.addAll(stored, stored.lowerBound(openStart), stored.size(), closed -> { });
+                    }
+                }
+                bucket.addAll(appended, 0, appended.size(), processor::onNext);
+            }
+        }
+    }
+
+    /** Epoch-aligned bucket holding a device's newest readings */
+    private static final class OpenBucket {
+
+        private final String deviceId;
+        private final long resolutionMillis;
+        private final BucketAccumulator accumulator = new BucketAccumulator();
+        private long start;
+
+        OpenBucket(String deviceId, long resolutionMillis) {
+            this.deviceId = deviceId;
+            this.resolutionMillis = resolutionMillis;
+        }
+
+        /** Folds time-sorted readings in, handing every bucket they close to the sink */
+        void addAll(DeviceSeries series, int from, int to, Consumer<AggregatedTelemetry> sink) {
+            long[] timestamps = series.getTimestamps();
+            double[] ambientTemps = series.getAmbientTemperatures();
+            double[] deviceTemps = series.getDeviceTemperatures();
+            for (int i = from; i < to; i++) {
+                long bucketStart = Math.floorDiv(timestamps[i], resolutionMillis) * resolutionMillis;
+                if (!accumulator.isEmpty()) {
+                    if (bucketStart < start) {
+                        // Late reading of a bucket that was pushed already
+                        continue;
+                    }
+                    if (bucketStart > start) {
+                        sink.accept(accumulator.toAggregated(deviceId,
+                            Instant.ofEpochMilli(start), Instant.ofEpochMilli(start + resolutionMillis)));
+                        accumulator.reset();
+                    }
+                }
+                start = bucketStart;
+                accumulator.add(ambientTemps[i], deviceTemps[i]);
+            }
+        }
+    }
+}
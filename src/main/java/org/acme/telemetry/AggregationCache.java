@@ -0,0 +1,254 @@
+package org.acme.telemetry;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bounded cache of aggregated buckets for the in-memory store, shared by all requests.
+ *
+ * A device's buckets are laid out from its first reading in the queried range, so two queries
+ * put the device on the same bucket grid whenever that reading falls on the same offset
+ * within the resolution. Every bucket that lies completely inside a query holds all readings
+ * of its time span and does not depend on the query any more. The cache keeps, per device,
+ * resolution and grid offset, the run of complete buckets computed last; a query reuses the
+ * part of the run it overlaps and only computes the missing edges, plus the incomplete bucket
+ * cut off by the end of the range.
+ *
+ * Runs are evicted in least-recently-used order once the cache holds more than the configured
+ * number of buckets, and all runs are dropped when the store's data version changes. Readings
+ * ingested later only invalidate the runs of their device whose time span they fall into.
+ */
+@ApplicationScoped
+public class AggregationCache {
+
+    /**
+     * Maximum number of buckets held by the cache; 0 disables caching.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.cache.max-buckets'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.cache.max-buckets", defaultValue = "250000")
+    long maxBuckets;
+
+    @Inject
+    TelemetryStore telemetryStore;
+
+    private final Map<RunKey, CachedRun> runs = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBuckets;
+    private long dataVersion = -1;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** @return true if results should be served through the cache */
+    public boolean isEnabled() {
+        return maxBuckets > 0;
+    }
+
+    /** @return Number of buckets served from the cache */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return Number of buckets that had to be computed because they were not cached */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** @return Number of buckets currently held */
+    public synchronized long size() {
+        return cachedBuckets;
+    }
+
+    /**
+     * Aggregates a device within a time range, reusing cached buckets where possible.
+     * Produces the same buckets as {@link TelemetryService#aggregateSeries}.
+     *
+     * @param series Time-sorted readings of the device
+     * @param rollups Rollups used to compute missing buckets, or null to compute them from raw readings
+     * @param fromMillis Start of the time range in epoch milliseconds (inclusive)
+     * @param toMillis End of the time range in epoch milliseconds (exclusive)
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @param sink Receives the non-empty buckets in time order
+     */
+    void aggregate(DeviceSeries series, TelemetryRollups rollups, long fromMillis, long toMillis,
+                   long resolutionMillis, Consumer<AggregatedTelemetry> sink) {
+        int first = series.lowerBound(fromMillis);
+        int end = series.lowerBound(toMillis);
+        if (first == end) {
+            return;
+        }
+        long[] timestamps = series.getTimestamps();
+        long firstTime = timestamps[first];
+        long lastTime = timestamps[end - 1];
+
+        // Buckets ending at or before the range end are complete and can be cached
+        long completeEnd = firstTime + (toMillis - firstTime) / resolutionMillis * resolutionMillis;
+        List<AggregatedTelemetry> complete = completeBuckets(series, rollups, firstTime, completeEnd, resolutionMillis);
+
+        // Matching the legacy engine, no bucket is opened at the last reading
+        int count = complete.size();
+        if (lastTime < completeEnd && count > 0
+                && complete.get(count - 1).getStartTime().toEpochMilli() == lastTime) {
+            count--;
+        }
+        for (int i = 0; i < count; i++) {
+            sink.accept(complete.get(i));
+        }
+        if (completeEnd < lastTime) {
+            DeviceBucketer bucketer = new DeviceBucketer(series.getDeviceId(), resolutionMillis, completeEnd, sink);
+            addReadings(series, series.lowerBound(completeEnd), end, bucketer);
+            bucketer.flush();
+        }
+    }
+
+    /**
+     * Returns the complete buckets of [startMillis, endMillis), reusing the cached run of the same grid.
+     *
+     * @param startMillis Start of the first bucket
+     * @param endMillis End of the last bucket
+     * @return Non-empty buckets in time order
+     */
+    private List<AggregatedTelemetry> completeBuckets(DeviceSeries series, TelemetryRollups rollups,
+                                                      long startMillis, long endMillis, long resolutionMillis) {
+        if (startMillis == endMillis) {
+            return List.of();
+        }
+        RunKey key = new RunKey(series.getDeviceId(), resolutionMillis, Math.floorMod(startMillis, resolutionMillis));
+        CachedRun run = lookup(key);
+        if (run != null && !run.isCurrent(series)) {
+            run = null;
+        }
+
+        List<AggregatedTelemetry> buckets = new ArrayList<>();
+        if (run == null || run.endMillis < startMillis || endMillis < run.startMillis) {
+            computeBuckets(series, rollups, startMillis, endMillis, resolutionMillis, buckets);
+        } else {
+            if (startMillis < run.startMillis) {
+                computeBuckets(series, rollups, startMillis, run.startMillis, resolutionMillis, buckets);
+            }
+            int reusedFrom = run.lowerBound(startMillis);
+            int reusedTo = run.lowerBound(endMillis);
+            for (int i = reusedFrom; i < reusedTo; i++) {
+                buckets.add(run.buckets[i]);
+            }
+            hits.addAndGet(reusedTo - reusedFrom);
+            if (run.endMillis < endMillis) {
+                computeBuckets(series, rollups, run.endMillis, endMillis, resolutionMillis, buckets);
+            }
+        }
+        store(key, new CachedRun(series, startMillis, endMillis, buckets));
+        return buckets;
+    }
+
+    /** Computes the non-empty buckets of [startMillis, endMillis) on the grid starting at startMillis */
+    private void computeBuckets(DeviceSeries series, TelemetryRollups rollups, long startMillis, long endMillis,
+                                long resolutionMillis, List<AggregatedTelemetry> buckets) {
+        int before = buckets.size();
+        DeviceBucketer bucketer = new DeviceBucketer(series.getDeviceId(), resolutionMillis, startMillis, buckets::add);
+        int level = rollups == null ? -1 : rollups.chooseLevel(startMillis, resolutionMillis);
+        RollupSeries rollup = level < 0 ? null : rollups.get(series, level);
+        if (rollup != null) {
+            for (int i = rollup.lowerBound(startMillis), end = rollup.lowerBound(endMillis); i < end; i++) {
+                rollup.foldInto(i, bucketer);
+            }
+        } else {
+            addReadings(series, series.lowerBound(startMillis), series.lowerBound(endMillis), bucketer);
+        }
+        bucketer.flush();
+        misses.addAndGet(buckets.size() - before);
+    }
+
+    private static void addReadings(DeviceSeries series, int from, int to, DeviceBucketer bucketer) {
+        long[] timestamps = series.getTimestamps();
+        double[] ambientTemps = series.getAmbientTemperatures();
+        double[] deviceTemps = series.getDeviceTemperatures();
+        for (int i = from; i < to; i++) {
+            bucketer.add(timestamps[i], ambientTemps[i], deviceTemps[i]);
+        }
+    }
+
+    private synchronized CachedRun lookup(RunKey key) {
+        long version = telemetryStore.getVersion();
+        if (version != dataVersion) {
+            runs.clear();
+            cachedBuckets = 0;
+            dataVersion = version;
+        }
+        return runs.get(key);
+    }
+
+    private synchronized void store(RunKey key, CachedRun run) {
+        if (run.buckets.length > maxBuckets) {
+            return;
+        }
+        CachedRun previous = runs.put(key, run);
+        cachedBuckets += run.buckets.length - (previous == null ? 0 : previous.buckets.length);
+        Iterator<CachedRun> eldest = runs.values().iterator();
+        while (cachedBuckets > maxBuckets && eldest.hasNext()) {
+            cachedBuckets -= eldest.next().buckets.length;
+            eldest.remove();
+        }
+    }
+
+    /** Identifies a bucket grid: device, resolution and offset of the bucket starts within the resolution */
+    private record RunKey(String deviceId, long resolutionMillis, long offsetMillis) {
+    }
+
+    /** Complete, non-empty buckets of one grid covering [startMillis, endMillis) */
+    private static final class CachedRun {
+
+        private final int seriesGeneration;
+        private final int seriesSize;
+        private final long startMillis;
+        private final long endMillis;
+        private final long[] bucketStarts;
+        private final AggregatedTelemetry[] buckets;
+
+        CachedRun(DeviceSeries series, long startMillis, long endMillis, List<AggregatedTelemetry> buckets) {
+            this.seriesGeneration = series.getGeneration();
+            this.seriesSize = series.size();
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.buckets = buckets.toArray(new AggregatedTelemetry[0]);
+            this.bucketStarts = new long[this.buckets.length];
+            for (int i = 0; i < this.buckets.length; i++) {
+                bucketStarts[i] = this.buckets[i].getStartTime().toEpochMilli();
+            }
+        }
+
+        /**
+         * Checks whether the run still holds all readings of its time span. Readings appended to the
+         * series since are sorted, so only the first of them can fall before the end of the run.
+         *
+         * @param series Current series of the device
+         * @return true if the run can be reused for the series
+         */
+        boolean isCurrent(DeviceSeries series) {
+            return series.getGeneration() == seriesGeneration && series.size() >= seriesSize
+                && (series.size() == seriesSize || series.getTimestamps()[seriesSize] >= endMillis);
+        }
+
+        /** @return Index of the first bucket starting at or after the given time */
+        int lowerBound(long epochMillis) {
+            int low = 0;
+            int high = bucketStarts.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (bucketStarts[mid] < epochMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package org.acme.telemetry;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Single-flight execution of aggregate pages: concurrent requests for the same page share one
+ * computation instead of each aggregating it again, e.g. when many dashboards refresh at once.
+ *
+ * Requests are equivalent when they select the same buckets: the same time range after rounding
+ * to the store's milliseconds, resolution, device filter, percentiles, cursor and page size,
+ * regardless of how the parameters were spelled. The first such request computes the page;
+ * requests arriving while it runs wait for it and get the same buckets, or the same exception.
+ * A request only joins a computation started on the store snapshot it sees itself, so it never
+ * misses readings that were appended or reloaded before it arrived. Completed pages are not kept;
+ * repeated queries are served by {@link AggregationCache} instead.
+ *
+ * Streamed requests, which have no page, share a computation the same way: it runs on its own
+ * virtual thread and fans every bucket out to all requests that joined it, each writing them at its
+ * own pace. Buckets are buffered until every joined request has taken them, up to the configured
+ * buffer size; the computation waits for the slowest request beyond that. A request can join as long
+ * as no bucket has been dropped from the buffer yet, so it still gets all of them. The computation
+ * stops early once every joined request has gone away.
+ *
+ * Only computations are subject to {@link AggregationAdmission}; waiting for another request's
+ * computation does not take a slot, so a burst of identical requests is not rejected.
+ */
+@ApplicationScoped
+public class AggregationCoalescer {
+
+    /**
+     * Whether identical concurrent aggregate requests share a single computation.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.aggregation.coalesce'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.aggregation.coalesce", defaultValue = "true")
+    boolean enabled;
+
+    /**
+     * Number of buckets a streamed computation buffers for the requests it is shared with.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.aggregation.coalesce.stream-buffer'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.aggregation.coalesce.stream-buffer", defaultValue = "1024")
+    int streamBuffer;
+
+    @Inject
+    TelemetryService telemetryService;
+
+    @Inject
+    TelemetryStore telemetryStore;
+
+    @Inject
+    AggregationAdmission admission;
+
+    private final ConcurrentHashMap<FlightKey, Flight> flights = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<FlightKey, StreamFlight> streams = new ConcurrentHashMap<>();
+    private final ThreadFactory streamThreads = Thread.ofVirtual().name("telemetry-stream-", 1).factory();
+
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Page of aggregated buckets, shared by all requests of one computation; must not be modified.
+     *
+     * @param buckets Buckets of the page
+     * @param next Cursor of the next page, or null if this is the last page
+     * @param coalesced Whether this request waited for another request's computation
+     */
+    record Page(List<AggregatedTelemetry> buckets, AggregationCursor next, boolean coalesced) {
+    }
+
+    /** Parameters that determine the buckets of a page */
+    private record FlightKey(long fromMillis, long toMillis, long resolutionMillis, DeviceFilter devices,
+                             Percentiles percentiles, String cursor, int limit) {
+    }
+
+    /** One computation of a page and the snapshot it was started on */
+    private record Flight(TelemetryStore.Snapshot snapshot, CompletableFuture<Page> result) {
+    }
+
+    /** @return Number of requests that computed their page */
+    long getExecuted() {
+        return executed.get();
+    }
+
+    /** @return Number of requests that got the page of another request's computation */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Aggregates one page like {@link TelemetryService#aggregatePage}, sharing the computation with
+     * concurrent equivalent requests.
+     *
+     * @param fromTime Start of the time range (inclusive)
+     * @param toTime End of the time range (inclusive)
+     * @param resolution Duration of each time bucket
+     * @param devices Devices to aggregate
+     * @param percentiles Percentiles to add to every bucket, or {@link Percentiles#NONE}
+     * @param cursor Cursor returned for the previous page, or null for the first page
+     * @param limit Maximum number of buckets of the page
+     * @return The page, possibly computed for another request
+     * @throws jakarta.ws.rs.BadRequestException if the cursor was issued for another query
+     * @throws AggregationAdmission.RejectedException if too many aggregations are running and waiting
+     */
+    Page aggregatePage(Instant fromTime, Instant toTime, Duration resolution, DeviceFilter devices,
+                       Percentiles percentiles, AggregationCursor cursor, int limit) {
+        if (!enabled) {
+            executed.incrementAndGet();
+            return compute(fromTime, toTime, resolution, devices, percentiles, cursor, limit);
+        }
+
+        FlightKey key = new FlightKey(TelemetryService.ceilToMillis(fromTime), TelemetryService.endMillis(toTime),
+            resolution.toMillis(), devices, percentiles, cursor == null ? null : cursor.encode(), limit);
+        TelemetryStore.Snapshot snapshot = telemetryStore.getSnapshot();
+        Flight started = new Flight(snapshot, new CompletableFuture<>());
+        Flight flight = flights.compute(key, (ignored, running) ->
+            running != null && running.snapshot() == snapshot ? running : started);
+
+        if (flight != started) {
+            coalesced.incrementAndGet();
+            try {
+                Page page = flight.result().join();
+                return new Page(page.buckets(), page.next(), true);
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        executed.incrementAndGet();
+        try {
+            Page page = compute(fromTime, toTime, resolution, devices, percentiles, cursor, limit);
+            started.result().complete(page);
+            return page;
+        } catch (RuntimeException | Error e) {
+            started.result().completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, started);
+        }
+    }
+
+    /**
+     * Starts streaming all buckets like {@link TelemetryService#aggregateTelemetry}, or joins a concurrent
+     * equivalent stream. A started computation is admitted before this method returns, and a joined one
+     * has been admitted by then too, so a rejection can still be answered before any bucket is sent.
+     * The returned reader must be closed, also if it was never read.
+     *
+     * @param fromTime Start of the time range (inclusive)
+     * @param toTime End of the time range (inclusive)
+     * @param resolution Duration of each time bucket
+     * @param devices Devices to aggregate
+     * @param percentiles Percentiles to add to every bucket, or {@link Percentiles#NONE}
+     * @return Reader of all buckets of the stream, from the first one
+     * @throws AggregationAdmission.RejectedException if too many aggregations are running and waiting
+     */
+    StreamReader stream(Instant fromTime, Instant toTime, Duration resolution, DeviceFilter devices,
+                        Percentiles percentiles) {
+        StreamFlight started = new StreamFlight(telemetryStore.getSnapshot(), Math.max(1, streamBuffer));
+        if (!enabled) {
+            executed.incrementAndGet();
+            StreamReader reader = started.join(false);
+            startStream(started, fromTime, toTime, resolution, devices, percentiles, null);
+            return reader;
+        }
+
+        FlightKey key = new FlightKey(TelemetryService.ceilToMillis(fromTime), TelemetryService.endMillis(toTime),
+            resolution.toMillis(), devices, percentiles, null, 0);
+        // Read before it is published, so a request joining it never finds it without readers
+        StreamReader reader = started.join(false);
+        StreamReader[] joined = new StreamReader[1];
+        StreamFlight flight = streams.compute(key, (ignored, running) -> {
+            if (running != null && running.snapshot == started.snapshot) {
+                joined[0] = running.join(true);
+                if (joined[0] != null) {
+                    return running;
+                }
+            }
+            return started;
+        });
+
+        if (flight != started) {
+            coalesced.incrementAndGet();
+            try {
+                flight.admitted.join();
+                return joined[0];
+            } catch (CompletionException e) {
+                joined[0].close();
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        executed.incrementAndGet();
+        startStream(started, fromTime, toTime, resolution, devices, percentiles, key);
+        return reader;
+    }
+
+    /** Admits a stream's computation and runs it on its own virtual thread, feeding its readers */
+    private void startStream(StreamFlight flight, Instant fromTime, Instant toTime, Duration resolution,
+                             DeviceFilter devices, Percentiles percentiles, FlightKey key) {
+        AggregationAdmission.Permit permit;
+        try {
+            permit = admission.admit();
+        } catch (RuntimeException e) {
+            flight.admitted.completeExceptionally(e);
+            flight.finish(e);
+            if (key != null) {
+                streams.remove(key, flight);
+            }
+            throw e;
+        }
+        flight.admitted.complete(null);
+        streamThreads.newThread(() -> {
+            try (permit) {
+                telemetryService.aggregateTelemetry(fromTime, toTime, resolution, devices, percentiles, flight::publish);
+                flight.finish(null);
+            } catch (RuntimeException | Error e) {
+                // Including the cancellation once every reader went away
+                flight.finish(e);
+            } finally {
+                if (key != null) {
+                    streams.remove(key, flight);
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * One request's view of a streamed computation. Reading does not depend on other readers,
+     * except that the computation waits for the slowest one once its buffer is full.
+     */
+    static final class StreamReader implements AutoCloseable {
+
+        private final StreamFlight flight;
+        private final boolean coalesced;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        /** Position of the next bucket to read, counted from the first bucket of the stream */
+        private long position;
+
+        private StreamReader(StreamFlight flight, boolean coalesced) {
+            this.flight = flight;
+            this.coalesced = coalesced;
+        }
+
+        /** @return Whether this request joined another request's computation */
+        boolean coalesced() {
+            return coalesced;
+        }
+
+        /**
+         * Hands all buckets of the stream to a sink, waiting for those not computed yet.
+         *
+         * @param sink Receives the buckets in stream order
+         * @throws RuntimeException the failure of the computation, after the buckets computed before it
+         */
+        void forEach(Consumer<AggregatedTelemetry> sink) {
+            for (AggregatedTelemetry bucket = flight.next(this); bucket != null; bucket = flight.next(this)) {
+                sink.accept(bucket);
+            }
+        }
+
+        /** Leaves the stream; once all readers left, the computation stops. Closing again has no effect. */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                flight.leave(this);
+            }
+        }
+    }
+
+    /** One streamed computation, buffering its buckets for the readers that have not taken them yet */
+    private static final class StreamFlight {
+
+        private final TelemetryStore.Snapshot snapshot;
+        private final int capacity;
+        private final CompletableFuture<Void> admitted = new CompletableFuture<>();
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final List<AggregatedTelemetry> buckets = new ArrayList<>();
+        private final List<StreamReader> readers = new ArrayList<>();
+        /** Position of the first buffered bucket */
+        private long base;
+        private boolean finished;
+        private Throwable failure;
+
+        StreamFlight(TelemetryStore.Snapshot snapshot, int capacity) {
+            this.snapshot = snapshot;
+            this.capacity = capacity;
+        }
+
+        /** @return A reader starting at the first bucket, or null if that is no longer buffered or nobody reads */
+        StreamReader join(boolean coalesced) {
+            lock.lock();
+            try {
+                if (base > 0 || (coalesced && readers.isEmpty())) {
+                    return null;
+                }
+                StreamReader reader = new StreamReader(this, coalesced);
+                readers.add(reader);
+                return reader;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Buffers a computed bucket, waiting while the buffer is full */
+        void publish(AggregatedTelemetry bucket) {
+            lock.lock();
+            try {
+                while (!readers.isEmpty() && buckets.size() >= capacity && drop() == 0) {
+                    changed.awaitUninterruptibly();
+                }
+                if (readers.isEmpty()) {
+                    throw new CancellationException("No request reads the stream any more");
+                }
+                buckets.add(bucket);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Ends the stream, successfully if the failure is null */
+        void finish(Throwable failure) {
+            lock.lock();
+            try {
+                this.finished = true;
+                this.failure = failure;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** @return The reader's next bucket, or null at the end of the stream */
+        AggregatedTelemetry next(StreamReader reader) {
+            lock.lock();
+            try {
+                while (reader.position - base >= buckets.size() && !finished) {
+                    changed.awaitUninterruptibly();
+                }
+                if (reader.position - base < buckets.size()) {
+                    AggregatedTelemetry bucket = buckets.get((int) (reader.position++ - base));
+                    if (buckets.size() >= capacity) {
+                        // The computation may be waiting for room
+                        changed.signalAll();
+                    }
+                    return bucket;
+                }
+                if (failure instanceof RuntimeException e) {
+                    throw e;
+                }
+                if (failure instanceof Error e) {
+                    throw e;
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void leave(StreamReader reader) {
+            lock.lock();
+            try {
+                readers.remove(reader);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Drops the buckets all readers have taken; must hold the lock. @return Number of buckets dropped */
+        private int drop() {
+            long taken = Long.MAX_VALUE;
+            for (StreamReader reader : readers) {
+                taken = Math.min(taken, reader.position);
+            }
+            int dropped = (int) (taken - base);
+            buckets.subList(0, dropped).clear();
+            base = taken;
+            return dropped;
+        }
+    }
+
+    private Page compute(Instant fromTime, Instant toTime, Duration resolution, DeviceFilter devices,
+                         Percentiles percentiles, AggregationCursor cursor, int limit) {
+        try (AggregationAdmission.Permit permit = admission.admit()) {
+            List<AggregatedTelemetry> buckets = new ArrayList<>();
+            AggregationCursor next = telemetryService.aggregatePage(fromTime, toTime, resolution, devices, percentiles,
+                cursor, limit, buckets::add);
+            return new Page(List.copyOf(buckets), next, false);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.acme.telemetry;
+
+import jakarta.ws.rs.BadRequestException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Position of the next bucket of a paginated aggregation.
+ *
+ * A page ends right before a bucket, so the cursor names that bucket's device and start time.
+ * The start lies on the device's bucket grid, which is laid out from the device's first reading
+ * in the queried range; the next page continues the grid from there instead of aggregating the
+ * earlier buckets again. The cursor also carries a hash of the query it was issued for, so it is
+ * rejected when used with other parameters. Clients treat the encoded token as opaque.
+ */
+final class AggregationCursor {
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private final int queryHash;
+    private final String deviceId;
+    private final long bucketStartMillis;
+
+    /**
+     * @param queryHash Hash of the query, see {@link #queryHash}
+     * @param deviceId Device of the next bucket
+     * @param bucketStartMillis Start of the next bucket in epoch milliseconds
+     */
+    AggregationCursor(int queryHash, String deviceId, long bucketStartMillis) {
+        this.queryHash = queryHash;
+        this.deviceId = deviceId;
+        this.bucketStartMillis = bucketStartMillis;
+    }
+
+    /**
+     * Identifies a query independently of the JVM, so cursors stay valid across restarts.
+     *
+     * @param fromMillis Start of the time range in epoch milliseconds (inclusive)
+     * @param toMillis End of the time range in epoch milliseconds (exclusive)
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @param devices Devices the query is restricted to
+     * @param percentiles Percentiles added to every bucket
+     * @return Hash of the query parameters
+     */
+    static int queryHash(long fromMillis, long toMillis, long resolutionMillis, DeviceFilter devices,
+                         Percentiles percentiles) {
+        return Objects.hash(fromMillis, toMillis, resolutionMillis, devices, percentiles);
+    }
+
+    /** @return Hash of the query the cursor was issued for */
+    int getQueryHash() {
+        return queryHash;
+    }
+
+    /** @return Device of the next bucket */
+    String getDeviceId() {
+        return deviceId;
+    }
+
+    /** @return Start of the next bucket in epoch milliseconds */
+    long getBucketStartMillis() {
+        return bucketStartMillis;
+    }
+
+    /** @return URL-safe token handed to the client */
+    String encode() {
+        byte[] device = deviceId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + Integer.BYTES + Long.BYTES + device.length)
+            .put(FORMAT_VERSION)
+            .putInt(queryHash)
+            .putLong(bucketStartMillis)
+            .put(device);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * @param token Token returned by {@link #encode()}
+     * @return The cursor the token was encoded from
+     * @throws BadRequestException if the token was not issued by this service
+     */
+    static AggregationCursor decode(String token) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(token));
+            if (buffer.get() != FORMAT_VERSION) {
+                throw invalid();
+            }
+            int queryHash = buffer.getInt();
+            long bucketStartMillis = buffer.getLong();
+            byte[] device = new byte[buffer.remaining()];
+            buffer.get(device);
+            if (device.length == 0) {
+                throw invalid();
+            }
+            return new AggregationCursor(queryHash, new String(device, StandardCharsets.UTF_8), bucketStartMillis);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw invalid();
+        }
+    }
+
+    /** @return Error for a cursor that cannot be resumed from */
+    static BadRequestException invalid() {
+        return new BadRequestException("Invalid cursor. Repeat the query without 'cursor' to start from the first page");
+    }
+}
@@ -0,0 +1,114 @@
+package org.acme.telemetry;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Shared worker pool that aggregates independent devices in parallel.
+ *
+ * A request never occupies more than {@code max-parallelism} pool threads: it submits that many
+ * devices, and every time the next device in order has been handed to the request's sink it submits
+ * one more, so one request with thousands of devices queues behind concurrent requests instead of
+ * flooding the pool. Results are handed to the sink in the original device order, each device as
+ * soon as it and all devices before it are complete; since devices are only started while the sink
+ * keeps up, at most {@code max-parallelism} devices' results are buffered ahead of it.
+ */
+@ApplicationScoped
+public class AggregationExecutor {
+
+    /**
+     * Number of threads in the shared aggregation pool; defaults to the number of available processors.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.aggregation.pool-size'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.aggregation.pool-size")
+    Optional<Integer> poolSize;
+
+    /**
+     * Maximum number of pool threads a single request may use; 1 aggregates on the request thread.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.aggregation.max-parallelism'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.aggregation.max-parallelism", defaultValue = "4")
+    int maxParallelism;
+
+    private ExecutorService pool;
+    private int threads;
+
+    @PostConstruct
+    void start() {
+        threads = Math.max(1, poolSize.orElse(Runtime.getRuntime().availableProcessors()));
+        AtomicInteger counter = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "telemetry-aggregation-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Aggregates every item, in parallel where allowed, and emits all results in item order.
+     *
+     * @param items Independent units of work, typically one per device
+     * @param aggregation Aggregates one item into the sink it is given; called concurrently for different items
+     * @param sink Receives the results of all items, grouped by item in list order
+     * @param <T> Type of the items
+     */
+    <T> void forEachOrdered(List<T> items, BiConsumer<T, Consumer<AggregatedTelemetry>> aggregation,
+                            Consumer<AggregatedTelemetry> sink) {
+        int workers = Math.min(Math.min(maxParallelism, threads), items.size());
+        if (workers <= 1) {
+            for (T item : items) {
+                aggregation.accept(item, sink);
+            }
+            return;
+        }
+
+        int count = items.size();
+        List<CompletableFuture<List<AggregatedTelemetry>>> results = new ArrayList<>(count);
+        for (int i = 0; i < workers; i++) {
+            results.add(submit(items.get(i), aggregation));
+        }
+
+        try {
+            for (int i = 0; i < count; i++) {
+                List<AggregatedTelemetry> itemResults = results.get(i).join();
+                // Drop each item's results once emitted and start the next item only now, so at most
+                // `workers` items run or wait ahead of the emitter, however slowly the sink drains
+                results.set(i, null);
+                if (i + workers < count) {
+                    results.add(submit(items.get(i + workers), aggregation));
+                }
+                itemResults.forEach(sink);
+            }
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause());
+        }
+    }
+
+    /** @return Results of one item, aggregated on the pool */
+    private <T> CompletableFuture<List<AggregatedTelemetry>> submit(
+            T item, BiConsumer<T, Consumer<AggregatedTelemetry>> aggregation) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<AggregatedTelemetry> itemResults = new ArrayList<>();
+            aggregation.accept(item, itemResults::add);
+            return itemResults;
+        }, pool);
+    }
+}
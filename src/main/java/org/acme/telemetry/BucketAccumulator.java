@@ -0,0 +1,213 @@
+package org.acme.telemetry;
+
+import java.time.Instant;
+
+/**
+ * Running statistics for a single time bucket.
+ * Readings are folded in one at a time, so a bucket can be aggregated without
+ * first collecting its records into a list or array.
+ *
+ * The min/max comparisons and the summation order mirror the original
+ * array-based calculations, which keeps the resulting averages bit-for-bit
+ * identical when records are added in timestamp order.
+ *
+ * A sketched accumulator also folds every device temperature into a {@link QuantileSketch},
+ * from which requested percentiles are read when the bucket is complete.
+ */
+final class BucketAccumulator {
+
+    private long count;
+
+    private double sumAmbient;
+    private double minAmbient;
+    private double maxAmbient;
+
+    private double sumDevice;
+    private double minDevice;
+    private double maxDevice;
+
+    /** Sketch of the device temperatures, or null if the accumulator is not sketched */
+    private final QuantileSketch sketch;
+
+    BucketAccumulator() {
+        this(false);
+    }
+
+    /**
+     * @param sketched Whether device temperatures are also folded into a quantile sketch
+     */
+    BucketAccumulator(boolean sketched) {
+        this.sketch = sketched ? new QuantileSketch() : null;
+    }
+
+    /**
+     * Adds a single reading to the bucket.
+     *
+     * @param ambientTemperature Ambient temperature in Celsius
+     * @param deviceTemperature Device temperature in Celsius
+     */
+    void add(double ambientTemperature, double deviceTemperature) {
+        if (count == 0) {
+            minAmbient = ambientTemperature;
+            maxAmbient = ambientTemperature;
+            minDevice = deviceTemperature;
+            maxDevice = deviceTemperature;
+        } else {
+            if (ambientTemperature < minAmbient) minAmbient = ambientTemperature;
+            if (ambientTemperature > maxAmbient) maxAmbient = ambientTemperature;
+            if (deviceTemperature < minDevice) minDevice = deviceTemperature;
+            if (deviceTemperature > maxDevice) maxDevice = deviceTemperature;
+        }
+        sumAmbient += ambientTemperature;
+        sumDevice += deviceTemperature;
+        count++;
+        if (sketch != null) {
+            sketch.add(deviceTemperature);
+        }
+    }
+
+    /**
+     * Merges pre-aggregated statistics of a group of readings into the bucket.
+     *
+     * @param count Number of readings in the group
+     * @param sumAmbient Sum of their ambient temperatures
+     * @param minAmbient Lowest ambient temperature
+     * @param maxAmbient Highest ambient temperature
+     * @param sumDevice Sum of their device temperatures
+     * @param minDevice Lowest device temperature
+     * @param maxDevice Highest device temperature
+     * @param sketch Sketch of their device temperatures; required if this accumulator is sketched
+     */
+    void merge(long count, double sumAmbient, double minAmbient, double maxAmbient,
+               double sumDevice, double minDevice, double maxDevice, QuantileSketch sketch) {
+        if (count == 0) {
+            return;
+        }
+        if (this.count == 0) {
+            this.minAmbient = minAmbient;
+            this.maxAmbient = maxAmbient;
+            this.minDevice = minDevice;
+            this.maxDevice = maxDevice;
+        } else {
+            if (minAmbient < this.minAmbient) this.minAmbient = minAmbient;
+            if (maxAmbient > this.maxAmbient) this.maxAmbient = maxAmbient;
+            if (minDevice < this.minDevice) this.minDevice = minDevice;
+            if (maxDevice > this.maxDevice) this.maxDevice = maxDevice;
+        }
+        this.sumAmbient += sumAmbient;
+        this.sumDevice += sumDevice;
+        this.count += count;
+        if (this.sketch != null) {
+            this.sketch.merge(sketch);
+        }
+    }
+
+    /**
+     * Merges the statistics of another bucket into this one.
+     *
+     * @param other Accumulator of a group of readings
+     */
+    void merge(BucketAccumulator other) {
+        merge(other.count, other.sumAmbient, other.minAmbient, other.maxAmbient,
+            other.sumDevice, other.minDevice, other.maxDevice, other.sketch);
+    }
+
+    /** @return true if no readings have been added since the last reset */
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /** @return Whether device temperatures are folded into a sketch */
+    boolean isSketched() {
+        return sketch != null;
+    }
+
+    /** @return Sketch of the device temperatures, or null if the accumulator is not sketched */
+    QuantileSketch getSketch() {
+        return sketch;
+    }
+
+    /** @return Number of readings in the bucket */
+    long getCount() {
+        return count;
+    }
+
+    /** @return Sum of the ambient temperatures */
+    double getSumAmbient() {
+        return sumAmbient;
+    }
+
+    /** @return Lowest ambient temperature; undefined while the bucket is empty */
+    double getMinAmbient() {
+        return minAmbient;
+    }
+
+    /** @return Highest ambient temperature; undefined while the bucket is empty */
+    double getMaxAmbient() {
+        return maxAmbient;
+    }
+
+    /** @return Sum of the device temperatures */
+    double getSumDevice() {
+        return sumDevice;
+    }
+
+    /** @return Lowest device temperature; undefined while the bucket is empty */
+    double getMinDevice() {
+        return minDevice;
+    }
+
+    /** @return Highest device temperature; undefined while the bucket is empty */
+    double getMaxDevice() {
+        return maxDevice;
+    }
+
+    /** Clears all statistics so the accumulator can be reused for the next bucket. */
+    void reset() {
+        count = 0;
+        sumAmbient = 0;
+        sumDevice = 0;
+        if (sketch != null) {
+            sketch.clear();
+        }
+    }
+
+    /**
+     * Builds the aggregation result for the accumulated readings.
+     *
+     * @param deviceId Device the readings belong to
+     * @param startTime Start of the bucket (inclusive)
+     * @param endTime End of the bucket (exclusive)
+     * @return Aggregated statistics for the bucket
+     */
+    AggregatedTelemetry toAggregated(String deviceId, Instant startTime, Instant endTime) {
+        return toAggregated(deviceId, startTime, endTime, Percentiles.NONE);
+    }
+
+    /**
+     * Builds the aggregation result for the accumulated readings, including percentiles.
+     *
+     * @param deviceId Device the readings belong to
+     * @param startTime Start of the bucket (inclusive)
+     * @param endTime End of the bucket (exclusive)
+     * @param percentiles Percentiles to read from the sketch; requires a sketched accumulator unless empty
+     * @return Aggregated statistics for the bucket
+     */
+    AggregatedTelemetry toAggregated(String deviceId, Instant startTime, Instant endTime, Percentiles percentiles) {
+        AggregatedTelemetry aggregated = new AggregatedTelemetry();
+        aggregated.setDeviceId(deviceId);
+        aggregated.setStartTime(startTime);
+        aggregated.setEndTime(endTime);
+        aggregated.setRecordCount(count);
+        aggregated.setAvgAmbientTemperature(sumAmbient / count);
+        aggregated.setMinAmbientTemperature(minAmbient);
+        aggregated.setMaxAmbientTemperature(maxAmbient);
+        aggregated.setAvgDeviceTemperature(sumDevice / count);
+        aggregated.setMinDeviceTemperature(minDevice);
+        aggregated.setMaxDeviceTemperature(maxDevice);
+        if (!percentiles.isEmpty()) {
+            aggregated.setDeviceTemperaturePercentiles(percentiles.evaluate(sketch));
+        }
+        return aggregated;
+    }
+}
@@ -0,0 +1,499 @@
+package org.acme.telemetry;
+
+import java.util.Arrays;
+
+/**
+ * Time-sorted readings of a single device, compressed in fixed-size blocks in the style of Gorilla.
+ *
+ * Every block encodes its readings into one shared bit stream, independently of other blocks:
+ * - Timestamps: the first one as is, then delta-of-deltas, which are 0 for evenly spaced readings
+ *   and cost a single bit
+ * - Temperatures: if all values of the block are decimals with at most {@value #MAX_DECIMALS}
+ *   fraction digits, as CSV files usually hold, they are scaled to integers and stored as deltas
+ *   to the previous value. Otherwise the bits of each value are XORed with the previous value and
+ *   only the bits between the leading and trailing zeros of the result are stored.
+ * Signed numbers are zig-zag encoded into a prefix code of 1, 9, 12, 16 or 68 bits.
+ *
+ * Next to the bit stream every block keeps a header of its first and last timestamp, its
+ * reading count and the min, max and sum of both temperatures. Blocks are binary searched by
+ * time, and a block that falls entirely inside one aggregation bucket is folded from its header
+ * without decoding it, see {@link #fold}. Decoded readings are bit-for-bit the original ones.
+ */
+final class CompressedSeries {
+
+    /** Readings per block unless configured otherwise */
+    static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    /** Most fraction digits of temperatures stored as scaled integers */
+    static final int MAX_DECIMALS = 4;
+
+    /** Scale of a block whose temperatures are XOR-encoded */
+    private static final byte XOR_ENCODED = -1;
+
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4};
+
+    /** Bytes of the header arrays per block */
+    private static final int HEADER_BYTES = 3 * 8 + 4 + 2 + 6 * 8;
+
+    private final String deviceId;
+    private final int size;
+    private final int blockSize;
+    private final long[] bits;
+
+    // Block headers, indexed by block
+    private final long[] bitOffsets;
+    private final long[] firstTimes;
+    private final long[] lastTimes;
+    private final int[] counts;
+    private final byte[] ambientScales;
+    private final byte[] deviceScales;
+    private final double[] minAmbient;
+    private final double[] maxAmbient;
+    private final double[] sumAmbient;
+    private final double[] minDevice;
+    private final double[] maxDevice;
+    private final double[] sumDevice;
+
+    /**
+     * Compresses the readings of a device.
+     *
+     * @param series Time-sorted readings of the device
+     * @param blockSize Readings per block
+     * @return The compressed readings
+     * @throws IllegalArgumentException if the block size is below 2
+     */
+    static CompressedSeries encode(DeviceSeries series, int blockSize) {
+        if (blockSize < 2) {
+            throw new IllegalArgumentException("Compressed blocks need at least 2 readings, got " + blockSize);
+        }
+        return new CompressedSeries(series, blockSize);
+    }
+
+    private CompressedSeries(DeviceSeries series, int blockSize) {
+        this.deviceId = series.getDeviceId();
+        this.size = series.size();
+        this.blockSize = blockSize;
+        int blockCount = (size + blockSize - 1) / blockSize;
+        this.bitOffsets = new long[blockCount];
+        this.firstTimes = new long[blockCount];
+        this.lastTimes = new long[blockCount];
+        this.counts = new int[blockCount];
+        this.ambientScales = new byte[blockCount];
+        this.deviceScales = new byte[blockCount];
+        this.minAmbient = new double[blockCount];
+        this.maxAmbient = new double[blockCount];
+        this.sumAmbient = new double[blockCount];
+        this.minDevice = new double[blockCount];
+        this.maxDevice = new double[blockCount];
+        this.sumDevice = new double[blockCount];
+
+        long[] timestamps = series.getTimestamps();
+        double[] ambientTemps = series.getAmbientTemperatures();
+        double[] deviceTemps = series.getDeviceTemperatures();
+        double[] statistics = new double[6];
+        BitWriter writer = new BitWriter();
+        for (int block = 0; block < blockCount; block++) {
+            int from = block * blockSize;
+            int to = Math.min(size, from + blockSize);
+            bitOffsets[block] = writer.length;
+            firstTimes[block] = timestamps[from];
+            lastTimes[block] = timestamps[to - 1];
+            counts[block] = to - from;
+
+            StatisticsKernel.computeScalar(ambientTemps, deviceTemps, from, to, statistics);
+            minAmbient[block] = statistics[StatisticsKernel.MIN_AMBIENT];
+            maxAmbient[block] = statistics[StatisticsKernel.MAX_AMBIENT];
+            sumAmbient[block] = statistics[StatisticsKernel.SUM_AMBIENT];
+            minDevice[block] = statistics[StatisticsKernel.MIN_DEVICE];
+            maxDevice[block] = statistics[StatisticsKernel.MAX_DEVICE];
+            sumDevice[block] = statistics[StatisticsKernel.SUM_DEVICE];
+
+            long previous = timestamps[from];
+            long previousDelta = 0;
+            writer.write(previous, 64);
+            for (int i = from + 1; i < to; i++) {
+                long delta = timestamps[i] - previous;
+                writer.writeSigned(delta - previousDelta);
+                previous = timestamps[i];
+                previousDelta = delta;
+            }
+            ambientScales[block] = encodeValues(writer, ambientTemps, from, to);
+            deviceScales[block] = encodeValues(writer, deviceTemps, from, to);
+        }
+        this.bits = writer.toArray();
+    }
+
+    /** @return The device identifier */
+    String getDeviceId() {
+        return deviceId;
+    }
+
+    /** @return Number of readings */
+    int size() {
+        return size;
+    }
+
+    /** @return Number of blocks */
+    int getBlockCount() {
+        return counts.length;
+    }
+
+    /** @return Bytes held by the bit stream and the block headers */
+    long getEncodedBytes() {
+        return bits.length * 8L + (long) counts.length * HEADER_BYTES;
+    }
+
+    /**
+     * Counts the readings within a time range, decoding at most the timestamps of the two blocks at its ends.
+     *
+     * @param fromMillis Start of the range in epoch milliseconds (inclusive)
+     * @param toMillis End of the range in epoch milliseconds (exclusive)
+     * @return Number of readings within the range
+     */
+    long countRows(long fromMillis, long toMillis) {
+        long rows = 0;
+        long[] timestamps = null;
+        for (int block = firstBlock(fromMillis); block < counts.length && firstTimes[block] < toMillis; block++) {
+            if (firstTimes[block] >= fromMillis && lastTimes[block] < toMillis) {
+                rows += counts[block];
+                continue;
+            }
+            if (timestamps == null) {
+                timestamps = new long[blockSize];
+            }
+            int count = decodeTimestamps(block, timestamps);
+            for (int i = 0; i < count; i++) {
+                if (timestamps[i] >= fromMillis && timestamps[i] < toMillis) {
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Visits the readings within a time range in timestamp order, decoding only the blocks that overlap it.
+     *
+     * @param fromMillis Start of the range in epoch milliseconds (inclusive)
+     * @param toMillis End of the range in epoch milliseconds (exclusive)
+     * @param deviceIndex Device index handed to the handler
+     * @param handler Receives every reading within the range
+     * @return Number of readings handed to the handler
+     */
+    long scan(long fromMillis, long toMillis, int deviceIndex, TelemetryCsvParser.RowHandler handler) {
+        long visited = 0;
+        Block decoded = null;
+        for (int block = firstBlock(fromMillis); block < counts.length && firstTimes[block] < toMillis; block++) {
+            if (decoded == null) {
+                decoded = new Block(blockSize);
+            }
+            int count = decode(block, decoded);
+            for (int i = 0; i < count; i++) {
+                long timestamp = decoded.timestamps[i];
+                if (timestamp >= fromMillis && timestamp < toMillis) {
+                    handler.onRow(deviceIndex, timestamp, decoded.ambientTemperatures[i], decoded.deviceTemperatures[i]);
+                    visited++;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Adds the readings within a time range to a bucketer. A block that lies entirely inside the
+     * range and inside one bucket is added from its header as a group; other blocks are decoded.
+     * Folded blocks contribute their sums at once, so averages may differ from adding every reading
+     * in the last bits, like buckets merged from rollups.
+     *
+     * @param fromMillis Start of the range in epoch milliseconds (inclusive)
+     * @param toMillis End of the range in epoch milliseconds (exclusive)
+     * @param bucketer Receives the readings within the range in timestamp order
+     * @return Number of readings added
+     */
+    long fold(long fromMillis, long toMillis, DeviceBucketer bucketer) {
+        long folded = 0;
+        Block decoded = null;
+        for (int block = firstBlock(fromMillis); block < counts.length && firstTimes[block] < toMillis; block++) {
+            if (firstTimes[block] >= fromMillis && lastTimes[block] < toMillis
+                    && bucketer.acceptsGroup(firstTimes[block], lastTimes[block])) {
+                bucketer.addFolded(firstTimes[block], lastTimes[block], counts[block],
+                    sumAmbient[block], minAmbient[block], maxAmbient[block],
+                    sumDevice[block], minDevice[block], maxDevice[block], null);
+                folded += counts[block];
+                continue;
+            }
+            if (decoded == null) {
+                decoded = new Block(blockSize);
+            }
+            int count = decode(block, decoded);
+            for (int i = 0; i < count; i++) {
+                long timestamp = decoded.timestamps[i];
+                if (timestamp >= fromMillis && timestamp < toMillis) {
+                    bucketer.add(timestamp, decoded.ambientTemperatures[i], decoded.deviceTemperatures[i]);
+                    folded++;
+                }
+            }
+        }
+        return folded;
+    }
+
+    /** @return Index of the first block whose last reading is at or after the given time */
+    private int firstBlock(long epochMillis) {
+        int low = 0;
+        int high = counts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lastTimes[mid] < epochMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Decodes the timestamps of a block, which come first in its bits; returns the reading count */
+    private int decodeTimestamps(int block, long[] timestamps) {
+        BitReader reader = new BitReader(bits, bitOffsets[block]);
+        readTimestamps(reader, counts[block], timestamps);
+        return counts[block];
+    }
+
+    /** Decodes all readings of a block; returns the reading count */
+    private int decode(int block, Block decoded) {
+        int count = counts[block];
+        BitReader reader = new BitReader(bits, bitOffsets[block]);
+        readTimestamps(reader, count, decoded.timestamps);
+        decodeValues(reader, ambientScales[block], count, decoded.ambientTemperatures);
+        decodeValues(reader, deviceScales[block], count, decoded.deviceTemperatures);
+        return count;
+    }
+
+    private static void readTimestamps(BitReader reader, int count, long[] timestamps) {
+        long previous = reader.read(64);
+        long previousDelta = 0;
+        timestamps[0] = previous;
+        for (int i = 1; i < count; i++) {
+            previousDelta += reader.readSigned();
+            previous += previousDelta;
+            timestamps[i] = previous;
+        }
+    }
+
+    /**
+     * Writes the values of a block as scaled integers if they have few enough fraction digits, XOR-encoded otherwise.
+     *
+     * @return Number of fraction digits the values were scaled by, or {@link #XOR_ENCODED}
+     */
+    private static byte encodeValues(BitWriter writer, double[] values, int from, int to) {
+        int decimals = decimals(values, from, to);
+        if (decimals >= 0) {
+            double scale = POWERS_OF_TEN[decimals];
+            long previous = 0;
+            for (int i = from; i < to; i++) {
+                long scaled = Math.round(values[i] * scale);
+                writer.writeSigned(scaled - previous);
+                previous = scaled;
+            }
+            return (byte) decimals;
+        }
+
+        long previous = Double.doubleToRawLongBits(values[from]);
+        writer.write(previous, 64);
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = from + 1; i < to; i++) {
+            long current = Double.doubleToRawLongBits(values[i]);
+            long xor = current ^ previous;
+            previous = current;
+            if (xor == 0) {
+                writer.write(0, 1);
+                continue;
+            }
+            int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                // The meaningful bits fit into the window of the previous value
+                writer.write(0b10, 2);
+                writer.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int length = 64 - leading - trailing;
+                writer.write(0b11, 2);
+                writer.write(leading, 5);
+                writer.write(length - 1, 6);
+                writer.write(xor >>> trailing, length);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+        return XOR_ENCODED;
+    }
+
+    private static void decodeValues(BitReader reader, byte decimals, int count, double[] values) {
+        if (decimals != XOR_ENCODED) {
+            double scale = POWERS_OF_TEN[decimals];
+            long scaled = 0;
+            for (int i = 0; i < count; i++) {
+                scaled += reader.readSigned();
+                values[i] = scaled / scale;
+            }
+            return;
+        }
+
+        long previous = reader.read(64);
+        values[0] = Double.longBitsToDouble(previous);
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            if (reader.read(1) != 0) {
+                if (reader.read(1) != 0) {
+                    leading = (int) reader.read(5);
+                    int length = (int) reader.read(6) + 1;
+                    trailing = 64 - leading - length;
+                }
+                previous ^= reader.read(64 - leading - trailing) << trailing;
+            }
+            values[i] = Double.longBitsToDouble(previous);
+        }
+    }
+
+    /**
+     * @return Smallest number of fraction digits that all values have when scaled to integers,
+     *         such that dividing by the scale gives back the exact same doubles; -1 if there is none
+     */
+    private static int decimals(double[] values, int from, int to) {
+        int decimals = 0;
+        for (int i = from; i < to; i++) {
+            while (!scalesExactly(values[i], POWERS_OF_TEN[decimals])) {
+                if (++decimals > MAX_DECIMALS) {
+                    return -1;
+                }
+            }
+        }
+        return decimals;
+    }
+
+    private static boolean scalesExactly(double value, double scale) {
+        double scaled = value * scale;
+        // Beyond 2^52 not every integer is a double, and NaN and infinities never scale back
+        if (!(Math.abs(scaled) < 0x1p52)) {
+            return false;
+        }
+        return Double.doubleToRawLongBits(Math.round(scaled) / scale) == Double.doubleToRawLongBits(value);
+    }
+
+    /** Reusable buffers for the readings of one decoded block */
+    private static final class Block {
+
+        final long[] timestamps;
+        final double[] ambientTemperatures;
+        final double[] deviceTemperatures;
+
+        Block(int blockSize) {
+            this.timestamps = new long[blockSize];
+            this.ambientTemperatures = new double[blockSize];
+            this.deviceTemperatures = new double[blockSize];
+        }
+    }
+
+    /** Appends bits to a growing array of longs, most significant bit first */
+    private static final class BitWriter {
+
+        private long[] words = new long[64];
+        private long length;
+
+        /** Writes the lowest {@code count} bits of the value */
+        void write(long value, int count) {
+            if (count == 0) {
+                return;
+            }
+            int index = (int) (length >>> 6);
+            if (index + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            if (count < 64) {
+                value &= (1L << count) - 1;
+            }
+            int free = 64 - (int) (length & 63);
+            if (count <= free) {
+                words[index] |= value << (free - count);
+            } else {
+                int rest = count - free;
+                words[index] |= value >>> rest;
+                words[index + 1] |= value << (64 - rest);
+            }
+            length += count;
+        }
+
+        /**
+         * Writes a signed number zig-zag encoded, so small magnitudes of either sign get short codes:
+         * '0' for zero, then '10', '110', '1110' or '1111' followed by 7, 9, 12 or 64 bits.
+         */
+        void writeSigned(long value) {
+            long zigZag = (value << 1) ^ (value >> 63);
+            if (zigZag == 0) {
+                write(0, 1);
+            } else if (zigZag >>> 7 == 0) {
+                write(0b10, 2);
+                write(zigZag, 7);
+            } else if (zigZag >>> 9 == 0) {
+                write(0b110, 3);
+                write(zigZag, 9);
+            } else if (zigZag >>> 12 == 0) {
+                write(0b1110, 4);
+                write(zigZag, 12);
+            } else {
+                write(0b1111, 4);
+                write(zigZag, 64);
+            }
+        }
+
+        /** @return The written bits, trimmed to whole longs */
+        long[] toArray() {
+            return Arrays.copyOf(words, (int) ((length + 63) >>> 6));
+        }
+    }
+
+    /** Reads bits written by {@link BitWriter} from a given bit position on */
+    private static final class BitReader {
+
+        private final long[] words;
+        private long position;
+
+        BitReader(long[] words, long position) {
+            this.words = words;
+            this.position = position;
+        }
+
+        long read(int count) {
+            if (count == 0) {
+                return 0;
+            }
+            int index = (int) (position >>> 6);
+            int used = (int) (position & 63);
+            int free = 64 - used;
+            long value = (words[index] << used) >>> (64 - count);
+            if (count > free) {
+                value |= words[index + 1] >>> (64 - (count - free));
+            }
+            position += count;
+            return value;
+        }
+
+        long readSigned() {
+            long zigZag;
+            if (read(1) == 0) {
+                return 0;
+            } else if (read(1) == 0) {
+                zigZag = read(7);
+            } else if (read(1) == 0) {
+                zigZag = read(9);
+            } else if (read(1) == 0) {
+                zigZag = read(12);
+            } else {
+                zigZag = read(64);
+            }
+            return (zigZag >>> 1) ^ -(zigZag & 1);
+        }
+    }
+}
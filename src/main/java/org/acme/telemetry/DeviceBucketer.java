@@ -0,0 +1,182 @@
+package org.acme.telemetry;
+
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Single-pass bucketing of one device's readings.
+ * Readings must be added in timestamp order; each one is folded into the running
+ * statistics of the bucket it falls into, so the cost is O(n) regardless of the number of buckets.
+ *
+ * Buckets are laid out from the device's first reading and, matching the legacy engine,
+ * no bucket is opened at the device's last timestamp: when the final bucket starts exactly
+ * at the last reading it is dropped by {@link #finish()}. A bucketer can also be anchored to
+ * a fixed grid origin and drained with {@link #flush()}, which emits every non-empty bucket.
+ * With percentiles, every bucket keeps a sketch of its device temperatures in the same pass.
+ */
+final class DeviceBucketer {
+
+    private final String deviceId;
+    private final long resolutionMillis;
+    private final Percentiles percentiles;
+    private final Consumer<AggregatedTelemetry> sink;
+    private final BucketAccumulator accumulator;
+
+    private boolean started;
+    private boolean anchored;
+    private long originTime;
+    private long lastTime;
+    private long bucketStart;
+    private long bucketEnd;
+
+    /**
+     * @param deviceId Device the readings belong to
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @param sink Receives the non-empty buckets as soon as they are complete, in time order
+     */
+    DeviceBucketer(String deviceId, long resolutionMillis, Consumer<AggregatedTelemetry> sink) {
+        this(deviceId, resolutionMillis, Percentiles.NONE, sink);
+    }
+
+    /**
+     * @param deviceId Device the readings belong to
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @param percentiles Percentiles of the device temperature to add to every bucket
+     * @param sink Receives the non-empty buckets as soon as they are complete, in time order
+     */
+    DeviceBucketer(String deviceId, long resolutionMillis, Percentiles percentiles, Consumer<AggregatedTelemetry> sink) {
+        this.deviceId = deviceId;
+        this.resolutionMillis = resolutionMillis;
+        this.percentiles = percentiles;
+        this.sink = sink;
+        this.accumulator = new BucketAccumulator(!percentiles.isEmpty());
+    }
+
+    /**
+     * @param deviceId Device the readings belong to
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @param originMillis Start of one of the buckets; readings must not be earlier
+     * @param sink Receives the non-empty buckets as soon as they are complete, in time order
+     */
+    DeviceBucketer(String deviceId, long resolutionMillis, long originMillis, Consumer<AggregatedTelemetry> sink) {
+        this(deviceId, resolutionMillis, originMillis, Percentiles.NONE, sink);
+    }
+
+    /**
+     * @param deviceId Device the readings belong to
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @param originMillis Start of one of the buckets; readings must not be earlier
+     * @param percentiles Percentiles of the device temperature to add to every bucket
+     * @param sink Receives the non-empty buckets as soon as they are complete, in time order
+     */
+    DeviceBucketer(String deviceId, long resolutionMillis, long originMillis, Percentiles percentiles,
+                   Consumer<AggregatedTelemetry> sink) {
+        this(deviceId, resolutionMillis, percentiles, sink);
+        this.anchored = true;
+        this.originTime = originMillis;
+    }
+
+    /**
+     * Adds the next reading of the device.
+     *
+     * @param epochMillis Reading time in epoch milliseconds, not before the previous reading
+     * @param ambientTemperature Ambient temperature in Celsius
+     * @param deviceTemperature Device temperature in Celsius
+     */
+    void add(long epochMillis, double ambientTemperature, double deviceTemperature) {
+        if (!started) {
+            start(epochMillis);
+            openBucket(epochMillis);
+        } else if (epochMillis >= bucketEnd) {
+            emit();
+            openBucket(epochMillis);
+        }
+        lastTime = epochMillis;
+        accumulator.add(ambientTemperature, deviceTemperature);
+    }
+
+    /**
+     * Adds a group of readings that was aggregated ahead of time, such as a rollup bucket.
+     * The group must not span a bucket boundary of this bucketer, and must follow the
+     * previously added readings in time.
+     *
+     * @param firstTime Time of the group's first reading in epoch milliseconds
+     * @param lastTime Time of the group's last reading in epoch milliseconds
+     * @param count Number of readings in the group
+     * @param sumAmbient Sum of their ambient temperatures
+     * @param minAmbient Lowest ambient temperature
+     * @param maxAmbient Highest ambient temperature
+     * @param sumDevice Sum of their device temperatures
+     * @param minDevice Lowest device temperature
+     * @param maxDevice Highest device temperature
+     * @param sketch Sketch of their device temperatures; required if percentiles are requested
+     */
+    void addFolded(long firstTime, long lastTime, long count, double sumAmbient, double minAmbient, double maxAmbient,
+                   double sumDevice, double minDevice, double maxDevice, QuantileSketch sketch) {
+        if (!started) {
+            start(firstTime);
+            openBucket(firstTime);
+        } else if (firstTime >= bucketEnd) {
+            emit();
+            openBucket(firstTime);
+        }
+        this.lastTime = lastTime;
+        accumulator.merge(count, sumAmbient, minAmbient, maxAmbient, sumDevice, minDevice, maxDevice, sketch);
+    }
+
+    /**
+     * Tells whether a group of readings without a sketch can be added with {@link #addFolded}:
+     * it must fall into a single bucket, and no percentiles may be requested.
+     *
+     * @param firstTime Time of the group's first reading in epoch milliseconds, not before the previous reading
+     * @param lastTime Time of the group's last reading in epoch milliseconds
+     * @return true if the group can be added as a whole, false if its readings must be added one by one
+     */
+    boolean acceptsGroup(long firstTime, long lastTime) {
+        if (!percentiles.isEmpty()) {
+            return false;
+        }
+        long origin = started || anchored ? originTime : firstTime;
+        long groupBucketStart = origin + (firstTime - origin) / resolutionMillis * resolutionMillis;
+        return lastTime < groupBucketStart + resolutionMillis;
+    }
+
+    /**
+     * Emits the final bucket. Must be called once after the last reading was added.
+     */
+    void finish() {
+        if (started && bucketStart < lastTime) {
+            emit();
+        }
+        accumulator.reset();
+    }
+
+    /**
+     * Emits the final bucket even if it starts at the last reading.
+     * Used for grids whose buckets are complete, instead of {@link #finish()}.
+     */
+    void flush() {
+        if (started && !accumulator.isEmpty()) {
+            emit();
+        }
+    }
+
+    private void start(long firstTime) {
+        started = true;
+        if (!anchored) {
+            originTime = firstTime;
+        }
+    }
+
+    /** Jumps straight to the bucket containing the reading, skipping empty ones */
+    private void openBucket(long epochMillis) {
+        bucketStart = originTime + (epochMillis - originTime) / resolutionMillis * resolutionMillis;
+        bucketEnd = bucketStart + resolutionMillis;
+    }
+
+    private void emit() {
+        sink.accept(accumulator.toAggregated(deviceId,
+            Instant.ofEpochMilli(bucketStart), Instant.ofEpochMilli(bucketEnd), percentiles));
+        accumulator.reset();
+    }
+}
@@ -0,0 +1,111 @@
+package org.acme.telemetry;
+
+import jakarta.ws.rs.BadRequestException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Selects the devices a query is restricted to.
+ * Every value of the repeatable {@code device} query parameter is either an exact device ID or,
+ * when it ends with '*', a prefix (e.g. "DEVICE_00*"). A device is selected if any value matches.
+ * The filter is applied before readings are read, so rows of other devices are never materialized.
+ */
+final class DeviceFilter {
+
+    /** Filter selecting every device */
+    static final DeviceFilter ALL = new DeviceFilter(Set.of(), List.of());
+
+    private final Set<String> deviceIds;
+    private final List<String> prefixes;
+
+    private DeviceFilter(Set<String> deviceIds, List<String> prefixes) {
+        this.deviceIds = deviceIds;
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * Parses the values of the {@code device} query parameter.
+     *
+     * @param values Device IDs or prefixes ending with '*'; null or empty for all devices
+     * @return Filter selecting the devices matching any of the values
+     * @throws BadRequestException if a value is blank or contains '*' anywhere but at its end
+     */
+    static DeviceFilter parse(List<String> values) {
+        if (values == null || values.isEmpty()) {
+            return ALL;
+        }
+        Set<String> deviceIds = new HashSet<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String value : values) {
+            if (value == null || value.isBlank()) {
+                throw new BadRequestException("Device filter must not be empty");
+            }
+            int wildcard = value.indexOf('*');
+            if (wildcard < 0) {
+                deviceIds.add(value);
+            } else if (wildcard == value.length() - 1) {
+                if (wildcard == 0) {
+                    return ALL;
+                }
+                prefixes.add(value.substring(0, wildcard));
+            } else {
+                throw new BadRequestException("Invalid device filter '" + value
+                    + "'. Use a device ID or a prefix ending with '*' (e.g., DEVICE_00*)");
+            }
+        }
+        return new DeviceFilter(Set.copyOf(deviceIds), List.copyOf(prefixes));
+    }
+
+    /** @return Whether every device is selected */
+    boolean isAll() {
+        return deviceIds.isEmpty() && prefixes.isEmpty();
+    }
+
+    /**
+     * @param deviceId Device identifier to test
+     * @return Whether the device is selected
+     */
+    boolean matches(String deviceId) {
+        if (isAll() || deviceIds.contains(deviceId)) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (deviceId.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof DeviceFilter filter
+            && deviceIds.equals(filter.deviceIds) && prefixes.equals(filter.prefixes);
+    }
+
+    @Override
+    public int hashCode() {
+        // Set and List hash codes are specified, so the hash is the same in every JVM
+        return 31 * deviceIds.hashCode() + prefixes.hashCode();
+    }
+
+    /**
+     * Resolves the filter against a device dictionary once, so a scan only tests an array
+     * element per row instead of the device ID.
+     *
+     * @param deviceCount Number of devices in the dictionary
+     * @param deviceIds Device identifier of each dense device index
+     * @return Whether each device index is selected
+     */
+    boolean[] select(int deviceCount, IntFunction<String> deviceIds) {
+        boolean[] selected = new boolean[deviceCount];
+        for (int i = 0; i < deviceCount; i++) {
+            selected[i] = matches(deviceIds.apply(i));
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,262 @@
+package org.acme.telemetry;
+
+import java.util.Arrays;
+
+/**
+ * Columnar, time-sorted telemetry readings of a single device.
+ * Readings are held in parallel primitive arrays instead of one
+ * {@link TelemetryRecord} per row, so a series costs 24 bytes per reading
+ * and a time range can be located with a binary search.
+ *
+ * A series never changes once it is visible to readers. Ingested readings are
+ * appended by {@link #append(DeviceSeries)}, which writes them behind the last
+ * reading, into spare capacity of the same arrays where possible, and returns a
+ * new, longer series; readers holding the previous one only ever look at its
+ * first {@link #size()} entries, which stay untouched.
+ */
+final class DeviceSeries {
+
+    private final String deviceId;
+    private final long[] timestamps;
+    private final double[] ambientTemperatures;
+    private final double[] deviceTemperatures;
+    private final int size;
+    private final int generation;
+
+    /**
+     * Creates a series from already sorted columns. The arrays are not copied.
+     *
+     * @param deviceId Identifier of the device
+     * @param timestamps Reading times in epoch milliseconds, in ascending order
+     * @param ambientTemperatures Ambient temperatures in Celsius
+     * @param deviceTemperatures Device temperatures in Celsius
+     */
+    DeviceSeries(String deviceId, long[] timestamps, double[] ambientTemperatures, double[] deviceTemperatures) {
+        this(deviceId, timestamps, ambientTemperatures, deviceTemperatures, timestamps.length, 0);
+    }
+
+    private DeviceSeries(String deviceId, long[] timestamps, double[] ambientTemperatures, double[] deviceTemperatures,
+                         int size, int generation) {
+        this.deviceId = deviceId;
+        this.timestamps = timestamps;
+        this.ambientTemperatures = ambientTemperatures;
+        this.deviceTemperatures = deviceTemperatures;
+        this.size = size;
+        this.generation = generation;
+    }
+
+    /** @return The device identifier */
+    String getDeviceId() {
+        return deviceId;
+    }
+
+    /** @return Reading times in epoch milliseconds, ascending; only the first {@link #size()} entries belong to the series */
+    long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /** @return Ambient temperatures in Celsius, aligned with the timestamps */
+    double[] getAmbientTemperatures() {
+        return ambientTemperatures;
+    }
+
+    /** @return Device temperatures in Celsius, aligned with the timestamps */
+    double[] getDeviceTemperatures() {
+        return deviceTemperatures;
+    }
+
+    /** @return Number of readings in the series */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return Number of times readings were inserted before the end of the series rather than appended,
+     *         or the series was replaced by a new read of the data file. Two series of the same device with
+     *         the same generation agree on all readings the shorter one holds.
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Marks this series as the successor of another series of the same device that may disagree
+     * with it, e.g. because the data file was read again.
+     *
+     * @param replaced Newest series of the device published before
+     * @return This series' readings, with a generation neither the replaced series nor its predecessors had
+     */
+    DeviceSeries replacing(DeviceSeries replaced) {
+        return new DeviceSeries(deviceId, timestamps, ambientTemperatures, deviceTemperatures, size,
+            replaced.generation + 1);
+    }
+
+    /**
+     * Finds the first reading taken at or after the given time.
+     *
+     * @param epochMillis Time in epoch milliseconds
+     * @return Index of the first reading with a timestamp &gt;= epochMillis, or {@link #size()} if there is none
+     */
+    int lowerBound(long epochMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < epochMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns a series holding this series' readings followed by the given ones.
+     * Readings that do not come before the current last reading are copied behind it, into the
+     * spare capacity of this series' arrays if there is enough; otherwise both are merged into
+     * new arrays, and readings sharing a timestamp keep their arrival order. Only the newest
+     * series of a device may be appended to, since its spare capacity is shared with the result.
+     *
+     * @param readings Time-sorted readings of the same device
+     * @return The combined series, or this series if there are no readings
+     */
+    DeviceSeries append(DeviceSeries readings) {
+        int count = readings.size;
+        if (count == 0) {
+            return this;
+        }
+        int required = Math.addExact(size, count);
+        // Growing by half keeps appends amortized O(1) without doubling large loaded series
+        int capacity = Math.max(required, size + (size >> 1));
+
+        if (size == 0 || readings.timestamps[0] >= timestamps[size - 1]) {
+            long[] appendedTimestamps = timestamps;
+            double[] appendedAmbient = ambientTemperatures;
+            double[] appendedDevice = deviceTemperatures;
+            if (required > timestamps.length) {
+                appendedTimestamps = Arrays.copyOf(timestamps, capacity);
+                appendedAmbient = Arrays.copyOf(ambientTemperatures, capacity);
+                appendedDevice = Arrays.copyOf(deviceTemperatures, capacity);
+            }
+            System.arraycopy(readings.timestamps, 0, appendedTimestamps, size, count);
+            System.arraycopy(readings.ambientTemperatures, 0, appendedAmbient, size, count);
+            System.arraycopy(readings.deviceTemperatures, 0, appendedDevice, size, count);
+            return new DeviceSeries(deviceId, appendedTimestamps, appendedAmbient, appendedDevice, required, generation);
+        }
+
+        long[] mergedTimestamps = new long[capacity];
+        double[] mergedAmbient = new double[capacity];
+        double[] mergedDevice = new double[capacity];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < required; k++) {
+            if (j == count || (i < size && timestamps[i] <= readings.timestamps[j])) {
+                mergedTimestamps[k] = timestamps[i];
+                mergedAmbient[k] = ambientTemperatures[i];
+                mergedDevice[k] = deviceTemperatures[i];
+                i++;
+            } else {
+                mergedTimestamps[k] = readings.timestamps[j];
+                mergedAmbient[k] = readings.ambientTemperatures[j];
+                mergedDevice[k] = readings.deviceTemperatures[j];
+                j++;
+            }
+        }
+        return new DeviceSeries(deviceId, mergedTimestamps, mergedAmbient, mergedDevice, required, generation + 1);
+    }
+
+    /**
+     * Collects readings of one device in arrival order and turns them into a sorted series.
+     */
+    static final class Builder {
+
+        private final String deviceId;
+        private long[] timestamps = new long[64];
+        private double[] ambientTemperatures = new double[64];
+        private double[] deviceTemperatures = new double[64];
+        private int size;
+        private boolean sorted = true;
+
+        Builder(String deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        /**
+         * Appends a reading.
+         *
+         * @param epochMillis Reading time in epoch milliseconds
+         * @param ambientTemperature Ambient temperature in Celsius
+         * @param deviceTemperature Device temperature in Celsius
+         */
+        void add(long epochMillis, double ambientTemperature, double deviceTemperature) {
+            if (size == timestamps.length) {
+                int capacity = size * 2;
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                ambientTemperatures = Arrays.copyOf(ambientTemperatures, capacity);
+                deviceTemperatures = Arrays.copyOf(deviceTemperatures, capacity);
+            }
+            if (size > 0 && epochMillis < timestamps[size - 1]) {
+                sorted = false;
+            }
+            timestamps[size] = epochMillis;
+            ambientTemperatures[size] = ambientTemperature;
+            deviceTemperatures[size] = deviceTemperature;
+            size++;
+        }
+
+        /**
+         * Appends all readings collected by another builder of the same device, keeping their order.
+         *
+         * @param other Builder whose readings follow the readings added so far
+         */
+        void addAll(Builder other) {
+            int required = size + other.size;
+            if (required > timestamps.length) {
+                int capacity = Math.max(required, size * 2);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                ambientTemperatures = Arrays.copyOf(ambientTemperatures, capacity);
+                deviceTemperatures = Arrays.copyOf(deviceTemperatures, capacity);
+            }
+            if (!other.sorted || (size > 0 && other.size > 0 && other.timestamps[0] < timestamps[size - 1])) {
+                sorted = false;
+            }
+            System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+            System.arraycopy(other.ambientTemperatures, 0, ambientTemperatures, size, other.size);
+            System.arraycopy(other.deviceTemperatures, 0, deviceTemperatures, size, other.size);
+            size = required;
+        }
+
+        /**
+         * Builds the series, sorting readings by time if they did not arrive in order.
+         * The sort is stable, so readings sharing a timestamp keep their arrival order.
+         *
+         * @return Time-sorted series trimmed to the number of readings
+         */
+        DeviceSeries build() {
+            if (sorted) {
+                return new DeviceSeries(deviceId,
+                    Arrays.copyOf(timestamps, size),
+                    Arrays.copyOf(ambientTemperatures, size),
+                    Arrays.copyOf(deviceTemperatures, size));
+            }
+
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(timestamps[a], timestamps[b]));
+
+            long[] sortedTimestamps = new long[size];
+            double[] sortedAmbient = new double[size];
+            double[] sortedDevice = new double[size];
+            for (int i = 0; i < size; i++) {
+                int source = order[i];
+                sortedTimestamps[i] = timestamps[source];
+                sortedAmbient[i] = ambientTemperatures[source];
+                sortedDevice[i] = deviceTemperatures[source];
+            }
+            return new DeviceSeries(deviceId, sortedTimestamps, sortedAmbient, sortedDevice);
+        }
+    }
+}
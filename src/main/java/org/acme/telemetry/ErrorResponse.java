@@ -23,11 +23,15 @@ public class ErrorResponse {
      * - INVALID_PARAMETERS: Request parameters are invalid
      * - INVALID_DATE_FORMAT: Date format is incorrect
      * - MISSING_PARAMETERS: Required parameters are missing
+     * - INVALID_RECORDS: Ingested records are malformed
+     * - INGESTION_UNSUPPORTED: The storage format does not accept ingested records
+     * - TOO_MANY_REQUESTS: Too many aggregations are running; retry after the "Retry-After" header
      * - INTERNAL_ERROR: Unexpected server error
      */
     @Schema(description = "Machine-readable error code", 
             example = "INVALID_PARAMETERS",
-            enumeration = {"INVALID_PARAMETERS", "INVALID_DATE_FORMAT", "MISSING_PARAMETERS", "INTERNAL_ERROR"})
+            enumeration = {"INVALID_PARAMETERS", "INVALID_DATE_FORMAT", "MISSING_PARAMETERS",
+                "INVALID_RECORDS", "INGESTION_UNSUPPORTED", "TOO_MANY_REQUESTS", "INTERNAL_ERROR"})
     private String code;
     
     /**
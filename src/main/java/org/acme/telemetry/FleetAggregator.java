@@ -0,0 +1,228 @@
+package org.acme.telemetry;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Aggregations across devices, whose results do not grow with the number of devices:
+ * - Top devices: every device's readings over the whole range are folded into one bucket, which is
+ *   offered to a heap bounded to the requested number of devices, so at most k+1 device results are
+ *   held at any time no matter how large the fleet is
+ * - Fleet rollup: the readings of all devices are folded into one shared bucket per time slot,
+ *   so the result has one bucket per slot instead of one per device and slot
+ *
+ * Both read the readings in a single scan of the store. Buckets are accumulated as mergeable partial
+ * statistics (count, sums, min, max and optionally a {@link QuantileSketch}), so folding the readings
+ * of another device into a bucket is the same operation as folding another reading; averages and
+ * percentiles are only derived when the bucket is emitted. Unlike per-device aggregation, buckets
+ * are laid out from the start of the queried range, so the slots of all devices line up.
+ */
+@ApplicationScoped
+public class FleetAggregator {
+
+    /** Maximum number of devices returned by one top query */
+    static final int MAX_TOP = 1000;
+
+    @Inject
+    TelemetryStore telemetryStore;
+
+    /**
+     * Ranks devices by a statistic of their readings within a time range.
+     *
+     * @param fromTime Start of the time range (inclusive)
+     * @param toTime End of the time range (inclusive)
+     * @param devices Devices to rank
+     * @param metric Statistic to rank by
+     * @param descending Whether the highest value ranks first
+     * @param k Number of devices to return
+     * @return Up to k devices with readings in the range, best-ranked first, each with one bucket spanning the range
+     */
+    List<AggregatedTelemetry> topDevices(Instant fromTime, Instant toTime, DeviceFilter devices, RankingMetric metric,
+                                         boolean descending, int k) {
+        return topDevices(telemetryStore.getSnapshot(), TelemetryService.ceilToMillis(fromTime),
+            TelemetryService.endMillis(toTime), devices, metric, descending, k);
+    }
+
+    /**
+     * Ranks the devices of some store data, see {@link #topDevices(Instant, Instant, DeviceFilter, RankingMetric, boolean, int)}.
+     *
+     * @param data Store data to read
+     * @param fromMillis Start of the time range in epoch milliseconds (inclusive)
+     * @param toMillis End of the time range in epoch milliseconds (exclusive)
+     * @param devices Devices to rank
+     * @param metric Statistic to rank by
+     * @param descending Whether the highest value ranks first
+     * @param k Number of devices to return
+     * @return Up to k devices with readings in the range, best-ranked first, each ending at toMillis - 1
+     */
+    List<AggregatedTelemetry> topDevices(TelemetryStore.Snapshot data, long fromMillis, long toMillis,
+                                         DeviceFilter devices, RankingMetric metric, boolean descending, int k) {
+        if (toMillis <= fromMillis) {
+            return List.of();
+        }
+        // One bucket per device, anchored at the start of the range and as long as the range
+        long rangeMillis = toMillis - fromMillis;
+        TopHeap top = new TopHeap(metric.ranking(descending), k);
+
+        TelemetryRows segment = data.segment();
+        if (segment != null) {
+            int deviceCount = segment.getDeviceCount();
+            DeviceBucketer[] bucketers = new DeviceBucketer[deviceCount];
+            segment.fold(fromMillis, toMillis, devices.select(deviceCount, segment::getDeviceId), deviceIndex -> {
+                if (bucketers[deviceIndex] == null) {
+                    bucketers[deviceIndex] = new DeviceBucketer(segment.getDeviceId(deviceIndex), rangeMillis,
+                        fromMillis, top);
+                }
+                return bucketers[deviceIndex];
+            });
+            for (DeviceBucketer bucketer : bucketers) {
+                if (bucketer != null) {
+                    bucketer.flush();
+                }
+            }
+        } else {
+            for (DeviceSeries series : data.devices().values()) {
+                if (!devices.matches(series.getDeviceId())) {
+                    continue;
+                }
+                long[] timestamps = series.getTimestamps();
+                double[] ambientTemps = series.getAmbientTemperatures();
+                double[] deviceTemps = series.getDeviceTemperatures();
+                DeviceBucketer bucketer = new DeviceBucketer(series.getDeviceId(), rangeMillis, fromMillis, top);
+                for (int i = series.lowerBound(fromMillis), end = series.lowerBound(toMillis); i < end; i++) {
+                    bucketer.add(timestamps[i], ambientTemps[i], deviceTemps[i]);
+                }
+                bucketer.flush();
+            }
+        }
+        // The bucket ends at the last millisecond of the range, i.e. at the requested end
+        List<AggregatedTelemetry> ranked = top.ranked();
+        ranked.forEach(device -> device.setEndTime(Instant.ofEpochMilli(toMillis - 1)));
+        return ranked;
+    }
+
+    /**
+     * Aggregates the readings of all selected devices together into time buckets laid out from the
+     * start of the range. Emitted buckets carry no device ID.
+     *
+     * @param fromTime Start of the time range (inclusive)
+     * @param toTime End of the time range (inclusive)
+     * @param resolution Duration of each time bucket
+     * @param devices Devices whose readings are included
+     * @param percentiles Percentiles of the device temperature to add to every bucket, or {@link Percentiles#NONE}
+     * @param sink Receives the non-empty buckets in time order
+     */
+    void aggregateFleet(Instant fromTime, Instant toTime, Duration resolution, DeviceFilter devices,
+                        Percentiles percentiles, Consumer<AggregatedTelemetry> sink) {
+        aggregateFleet(telemetryStore.getSnapshot(), TelemetryService.ceilToMillis(fromTime),
+            TelemetryService.endMillis(toTime), resolution.toMillis(), devices, percentiles, sink);
+    }
+
+    /**
+     * Aggregates the readings of some store data across devices,
+     * see {@link #aggregateFleet(Instant, Instant, Duration, DeviceFilter, Percentiles, Consumer)}.
+     *
+     * @param data Store data to read
+     * @param fromMillis Start of the time range in epoch milliseconds (inclusive)
+     * @param toMillis End of the time range in epoch milliseconds (exclusive)
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @param devices Devices whose readings are included
+     * @param percentiles Percentiles of the device temperature to add to every bucket, or {@link Percentiles#NONE}
+     * @param sink Receives the non-empty buckets in time order
+     */
+    void aggregateFleet(TelemetryStore.Snapshot data, long fromMillis, long toMillis, long resolutionMillis,
+                        DeviceFilter devices, Percentiles percentiles, Consumer<AggregatedTelemetry> sink) {
+        if (toMillis <= fromMillis) {
+            return;
+        }
+        BucketAccumulator[] buckets = new BucketAccumulator[Math.toIntExact(bucketCount(fromMillis, toMillis, resolutionMillis))];
+        boolean sketched = !percentiles.isEmpty();
+
+        TelemetryRows segment = data.segment();
+        if (segment != null) {
+            segment.scan(fromMillis, toMillis, devices.select(segment.getDeviceCount(), segment::getDeviceId),
+                (deviceIndex, epochMillis, ambientTemperature, deviceTemperature) ->
+                    bucket(buckets, (int) ((epochMillis - fromMillis) / resolutionMillis), sketched)
+                        .add(ambientTemperature, deviceTemperature));
+        } else {
+            for (DeviceSeries series : data.devices().values()) {
+                if (!devices.matches(series.getDeviceId())) {
+                    continue;
+                }
+                long[] timestamps = series.getTimestamps();
+                double[] ambientTemps = series.getAmbientTemperatures();
+                double[] deviceTemps = series.getDeviceTemperatures();
+                for (int i = series.lowerBound(fromMillis), end = series.lowerBound(toMillis); i < end; i++) {
+                    bucket(buckets, (int) ((timestamps[i] - fromMillis) / resolutionMillis), sketched)
+                        .add(ambientTemps[i], deviceTemps[i]);
+                }
+            }
+        }
+
+        for (int b = 0; b < buckets.length; b++) {
+            if (buckets[b] != null) {
+                long bucketStart = fromMillis + b * resolutionMillis;
+                sink.accept(buckets[b].toAggregated(null, Instant.ofEpochMilli(bucketStart),
+                    Instant.ofEpochMilli(bucketStart + resolutionMillis), percentiles));
+                buckets[b] = null;
+            }
+        }
+    }
+
+    /**
+     * @param fromMillis Start of the time range in epoch milliseconds (inclusive)
+     * @param toMillis End of the time range in epoch milliseconds (exclusive)
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @return Number of time buckets a fleet rollup of the range is laid out in, the last one possibly partial
+     */
+    static long bucketCount(long fromMillis, long toMillis, long resolutionMillis) {
+        return toMillis <= fromMillis ? 0 : (toMillis - fromMillis + resolutionMillis - 1) / resolutionMillis;
+    }
+
+    /** @return The bucket at an index, created on the first reading that falls into it */
+    private static BucketAccumulator bucket(BucketAccumulator[] buckets, int index, boolean sketched) {
+        BucketAccumulator bucket = buckets[index];
+        if (bucket == null) {
+            bucket = new BucketAccumulator(sketched);
+            buckets[index] = bucket;
+        }
+        return bucket;
+    }
+
+    /** Keeps the k best-ranked device results offered to it; the worst-ranked one is on top of the heap */
+    private static final class TopHeap implements Consumer<AggregatedTelemetry> {
+
+        private final Comparator<AggregatedTelemetry> ranking;
+        private final int k;
+        private final PriorityQueue<AggregatedTelemetry> heap;
+
+        TopHeap(Comparator<AggregatedTelemetry> ranking, int k) {
+            this.ranking = ranking;
+            this.k = k;
+            this.heap = new PriorityQueue<>(k + 1, ranking.reversed());
+        }
+
+        @Override
+        public void accept(AggregatedTelemetry device) {
+            heap.add(device);
+            if (heap.size() > k) {
+                heap.poll();
+            }
+        }
+
+        /** @return The kept results, best-ranked first */
+        List<AggregatedTelemetry> ranked() {
+            List<AggregatedTelemetry> ranked = new ArrayList<>(heap);
+            ranked.sort(ranking);
+            return ranked;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.acme.telemetry;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+/**
+ * Represents the result of ingesting a batch of telemetry records.
+ * All records of the batch are included in aggregations started after the response was sent.
+ */
+@Schema(name = "IngestionResponse", description = "Summary of an ingested batch of telemetry records")
+public class IngestionResponse {
+
+    /**
+     * Number of records appended to the store
+     */
+    @Schema(description = "Number of records appended", example = "1000")
+    private long recordCount;
+
+    /**
+     * Number of distinct devices the records belong to
+     */
+    @Schema(description = "Number of distinct devices in the batch", example = "10")
+    private int deviceCount;
+
+    /**
+     * Creates a new ingestion response.
+     *
+     * @param recordCount Number of records appended
+     * @param deviceCount Number of distinct devices in the batch
+     */
+    public IngestionResponse(long recordCount, int deviceCount) {
+        this.recordCount = recordCount;
+        this.deviceCount = deviceCount;
+    }
+
+    /** @return The number of records appended */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /** @param recordCount The number of records appended to set */
+    public void setRecordCount(long recordCount) {
+        this.recordCount = recordCount;
+    }
+
+    /** @return The number of distinct devices in the batch */
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    /** @param deviceCount The number of distinct devices to set */
+    public void setDeviceCount(int deviceCount) {
+        this.deviceCount = deviceCount;
+    }
+}
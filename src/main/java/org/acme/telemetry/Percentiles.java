@@ -0,0 +1,104 @@
+package org.acme.telemetry;
+
+import jakarta.ws.rs.BadRequestException;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Percentiles of the device temperature a query asks for in every bucket.
+ * Values of the repeatable {@code percentile} query parameter are numbers between 0 and 100,
+ * optionally prefixed with 'p' and comma-separated (e.g. "50,95,99" or "p99.9").
+ * Buckets of a query with percentiles carry a {@link QuantileSketch} of their device temperatures,
+ * from which the percentiles are read when the bucket is complete.
+ */
+final class Percentiles {
+
+    /** No percentiles; buckets are aggregated without sketches */
+    static final Percentiles NONE = new Percentiles(new double[0]);
+
+    /** Maximum number of distinct percentiles per query */
+    static final int MAX_PERCENTILES = 10;
+
+    /** Requested percentiles between 0 and 100, ascending */
+    private final double[] values;
+    private final String[] names;
+
+    private Percentiles(double[] values) {
+        this.values = values;
+        this.names = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            names[i] = "p" + BigDecimal.valueOf(values[i]).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    /**
+     * Parses the values of the {@code percentile} query parameter.
+     *
+     * @param values Percentiles such as "95" or "p99.9", each possibly a comma-separated list; null or empty for none
+     * @return The distinct requested percentiles
+     * @throws BadRequestException if a value is not a number between 0 and 100, or too many are requested
+     */
+    static Percentiles parse(List<String> values) {
+        if (values == null || values.isEmpty()) {
+            return NONE;
+        }
+        TreeSet<Double> percentiles = new TreeSet<>();
+        for (String value : values) {
+            for (String part : value == null ? new String[] {""} : value.split(",", -1)) {
+                String number = part.trim();
+                if (number.startsWith("p") || number.startsWith("P")) {
+                    number = number.substring(1);
+                }
+                double percentile;
+                try {
+                    percentile = Double.parseDouble(number);
+                } catch (NumberFormatException e) {
+                    percentile = Double.NaN;
+                }
+                if (!(percentile >= 0 && percentile <= 100)) {
+                    throw new BadRequestException("Invalid percentile '" + part.trim()
+                        + "'. Use a number between 0 and 100 (e.g., 50, 95, 99.9)");
+                }
+                percentiles.add(percentile);
+            }
+        }
+        if (percentiles.size() > MAX_PERCENTILES) {
+            throw new BadRequestException("At most " + MAX_PERCENTILES + " percentiles can be requested");
+        }
+        return new Percentiles(percentiles.stream().mapToDouble(Double::doubleValue).toArray());
+    }
+
+    /** @return Whether no percentiles are requested */
+    boolean isEmpty() {
+        return values.length == 0;
+    }
+
+    /**
+     * Reads the requested percentiles from a bucket's sketch.
+     *
+     * @param sketch Sketch of the bucket's device temperatures
+     * @return Estimate of every percentile, keyed by its name (e.g. "p95"), in ascending order
+     */
+    Map<String, Double> evaluate(QuantileSketch sketch) {
+        Map<String, Double> estimates = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            estimates.put(names[i], sketch.quantile(values[i] / 100));
+        }
+        return estimates;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Percentiles percentiles && Arrays.equals(values, percentiles.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+}
@@ -0,0 +1,267 @@
+package org.acme.telemetry;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch with relative error guarantees, following DDSketch.
+ *
+ * A value v &gt; 0 is counted in the bin with index ceil(log(v) / log(gamma)), where
+ * gamma = (1 + a) / (1 - a) for the relative accuracy a. Every value of a bin lies within a
+ * relative distance of a from the bin's representative, so a quantile read from the bins is
+ * off by at most {@value #RELATIVE_ACCURACY} times its value. Negative values are counted in a
+ * mirrored set of bins, values close to zero in a single zero bin.
+ *
+ * Bins are plain counts, so merging two sketches adds their counts and gives exactly the sketch
+ * of all their values, independent of the order in which they were added or merged. Each set of
+ * bins spans at most {@value #MAX_BINS} consecutive indexes; beyond that the bins closest to zero
+ * are collapsed into one, which keeps the memory of a sketch fixed without touching the upper
+ * quantiles. Temperatures fit into about a hundred bins, so collapsing does not happen in practice.
+ */
+final class QuantileSketch {
+
+    /** Relative accuracy of every quantile */
+    static final double RELATIVE_ACCURACY = 0.01;
+
+    /** Maximum number of consecutive bins of each sign */
+    static final int MAX_BINS = 2048;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    /** Values closer to zero than this are counted in the zero bin */
+    private static final double MIN_INDEXABLE = 1e-6;
+
+    private final Bins positive;
+    private final Bins negative;
+    private long zeroCount;
+    private long count;
+    private double min;
+    private double max;
+
+    QuantileSketch() {
+        this.positive = new Bins();
+        this.negative = new Bins();
+    }
+
+    private QuantileSketch(QuantileSketch other) {
+        this.positive = other.positive.copy();
+        this.negative = other.negative.copy();
+        this.zeroCount = other.zeroCount;
+        this.count = other.count;
+        this.min = other.min;
+        this.max = other.max;
+    }
+
+    /**
+     * Adds a single value.
+     *
+     * @param value Value to count
+     */
+    void add(double value) {
+        if (value >= MIN_INDEXABLE) {
+            positive.add(index(value), 1);
+        } else if (value <= -MIN_INDEXABLE) {
+            negative.add(index(-value), 1);
+        } else {
+            zeroCount++;
+        }
+        if (count == 0) {
+            min = value;
+            max = value;
+        } else {
+            if (value < min) min = value;
+            if (value > max) max = value;
+        }
+        count++;
+    }
+
+    /**
+     * Adds all values of another sketch, which is left unchanged.
+     *
+     * @param other Sketch of another group of values
+     */
+    void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            if (other.min < min) min = other.min;
+            if (other.max > max) max = other.max;
+        }
+        count += other.count;
+    }
+
+    /** @return Independent sketch of the same values, with bins trimmed to the occupied range */
+    QuantileSketch copy() {
+        return new QuantileSketch(this);
+    }
+
+    /** Removes all values; the bins are kept for reuse */
+    void clear() {
+        positive.clear();
+        negative.clear();
+        zeroCount = 0;
+        count = 0;
+    }
+
+    /** @return Number of values added */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Estimates a quantile: the value of rank q * (n - 1) among the n values in ascending order.
+     * The minimum and maximum are tracked exactly, so q = 0 and q = 1 are exact, and every other
+     * estimate is clamped to them.
+     *
+     * @param q Quantile between 0 and 1
+     * @return Estimated value, or NaN if the sketch is empty
+     */
+    double quantile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (q <= 0) {
+            return min;
+        }
+        if (q >= 1) {
+            return max;
+        }
+        double rank = q * (count - 1);
+        long seen = 0;
+        double estimate = max;
+        boolean found = false;
+        // Most negative values first: the negative bins from the highest index down
+        for (int i = negative.highest; negative.total > 0 && i >= negative.lowest; i--) {
+            seen += negative.count(i);
+            if (seen > rank) {
+                estimate = -value(i);
+                found = true;
+                break;
+            }
+        }
+        if (!found) {
+            seen += zeroCount;
+            if (seen > rank) {
+                estimate = 0;
+                found = true;
+            }
+        }
+        for (int i = positive.lowest; !found && positive.total > 0 && i <= positive.highest; i++) {
+            seen += positive.count(i);
+            if (seen > rank) {
+                estimate = value(i);
+                found = true;
+            }
+        }
+        return Math.max(min, Math.min(max, estimate));
+    }
+
+    private static int index(double value) {
+        return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    }
+
+    /** @return Representative of the bin (gamma^(i-1), gamma^i], within the relative accuracy of all its values */
+    private static double value(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    /**
+     * Counts per bin index, held in an array covering a window of consecutive indexes
+     * that grows as values outside it arrive.
+     */
+    private static final class Bins {
+
+        private static final long[] EMPTY = new long[0];
+        private static final int INITIAL_CAPACITY = 64;
+
+        private long[] counts;
+        /** Bin index of counts[0] */
+        private int offset;
+        /** Lowest and highest index with a count; undefined while total is 0 */
+        private int lowest;
+        private int highest;
+        private long total;
+
+        Bins() {
+            this.counts = EMPTY;
+        }
+
+        private Bins(long[] counts, int offset, int lowest, int highest, long total) {
+            this.counts = counts;
+            this.offset = offset;
+            this.lowest = lowest;
+            this.highest = highest;
+            this.total = total;
+        }
+
+        long count(int index) {
+            return counts[index - offset];
+        }
+
+        void add(int index, long n) {
+            if (total == 0) {
+                if (counts.length == 0) {
+                    counts = new long[INITIAL_CAPACITY];
+                }
+                offset = index - counts.length / 2;
+                lowest = index;
+                highest = index;
+            } else {
+                int high = Math.max(highest, index);
+                int low = Math.max(Math.min(lowest, index), high - MAX_BINS + 1);
+                if (low < offset || high >= offset + counts.length) {
+                    resize(low, high);
+                }
+                index = Math.max(index, low);
+                lowest = low;
+                highest = high;
+            }
+            counts[index - offset] += n;
+            total += n;
+        }
+
+        /** Reallocates the array to cover [low, high]; counts below low are collapsed into it */
+        private void resize(int low, int high) {
+            int span = high - low + 1;
+            int capacity = Math.min(MAX_BINS, Math.max(span, counts.length * 2));
+            int resizedOffset = low - (capacity - span) / 2;
+            long[] resized = new long[capacity];
+            for (int i = lowest; i <= highest; i++) {
+                resized[Math.max(i, low) - resizedOffset] += counts[i - offset];
+            }
+            counts = resized;
+            offset = resizedOffset;
+        }
+
+        void merge(Bins other) {
+            for (int i = other.lowest; other.total > 0 && i <= other.highest; i++) {
+                long n = other.count(i);
+                if (n > 0) {
+                    add(i, n);
+                }
+            }
+        }
+
+        Bins copy() {
+            if (total == 0) {
+                return new Bins();
+            }
+            return new Bins(Arrays.copyOfRange(counts, lowest - offset, highest - offset + 1),
+                lowest, lowest, highest, total);
+        }
+
+        void clear() {
+            if (total > 0) {
+                Arrays.fill(counts, lowest - offset, highest - offset + 1, 0);
+            }
+            total = 0;
+        }
+    }
+}
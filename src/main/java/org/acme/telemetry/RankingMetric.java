@@ -0,0 +1,64 @@
+package org.acme.telemetry;
+
+import jakarta.ws.rs.BadRequestException;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Statistic of a device's readings over a time range by which {@code /telemetry/top} ranks devices.
+ * Every metric is named like the {@link AggregatedTelemetry} property holding it.
+ */
+enum RankingMetric {
+
+    MAX_DEVICE_TEMPERATURE("maxDeviceTemperature", AggregatedTelemetry::getMaxDeviceTemperature),
+    MIN_DEVICE_TEMPERATURE("minDeviceTemperature", AggregatedTelemetry::getMinDeviceTemperature),
+    AVG_DEVICE_TEMPERATURE("avgDeviceTemperature", AggregatedTelemetry::getAvgDeviceTemperature),
+    MAX_AMBIENT_TEMPERATURE("maxAmbientTemperature", AggregatedTelemetry::getMaxAmbientTemperature),
+    MIN_AMBIENT_TEMPERATURE("minAmbientTemperature", AggregatedTelemetry::getMinAmbientTemperature),
+    AVG_AMBIENT_TEMPERATURE("avgAmbientTemperature", AggregatedTelemetry::getAvgAmbientTemperature),
+    RECORD_COUNT("recordCount", AggregatedTelemetry::getRecordCount);
+
+    private final String property;
+    private final ToDoubleFunction<AggregatedTelemetry> value;
+
+    RankingMetric(String property, ToDoubleFunction<AggregatedTelemetry> value) {
+        this.property = property;
+        this.value = value;
+    }
+
+    /**
+     * Parses the value of the {@code metric} query parameter.
+     *
+     * @param metric Property name of the metric (e.g. "maxDeviceTemperature")
+     * @return The metric
+     * @throws BadRequestException if the value does not name a metric
+     */
+    static RankingMetric parse(String metric) {
+        for (RankingMetric candidate : values()) {
+            if (candidate.property.equals(metric)) {
+                return candidate;
+            }
+        }
+        throw new BadRequestException("Invalid metric '" + metric + "'. Supported values: "
+            + Arrays.stream(values()).map(RankingMetric::getProperty).collect(Collectors.joining(", ")));
+    }
+
+    /** @return Name of the {@link AggregatedTelemetry} property holding the metric */
+    String getProperty() {
+        return property;
+    }
+
+    /**
+     * Orders devices by the metric, ties broken by device ID so rankings are reproducible.
+     *
+     * @param descending Whether the highest value ranks first
+     * @return Comparator putting the higher-ranked device first
+     */
+    Comparator<AggregatedTelemetry> ranking(boolean descending) {
+        Comparator<AggregatedTelemetry> byValue = Comparator.comparingDouble(value);
+        return (descending ? byValue.reversed() : byValue).thenComparing(AggregatedTelemetry::getDeviceId);
+    }
+}
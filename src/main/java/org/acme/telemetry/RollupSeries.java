@@ -0,0 +1,296 @@
+package org.acme.telemetry;
+
+import java.util.Arrays;
+
+/**
+ * Pre-aggregated readings of one device at a fixed, epoch-aligned resolution.
+ * Every non-empty bucket keeps min/max/sum/count of both temperatures plus the times of
+ * its first and last reading, which is all a coarser bucket needs to be merged from it.
+ *
+ * The bucket holding the device's last reading is open: readings appended later may still
+ * fall into it. All buckets before it are sealed and stored in arrays that later series of
+ * the same device share and extend, so {@link #append(DeviceSeries)} costs O(1) per reading.
+ * A series never changes once built; appending returns a new one.
+ *
+ * A sketched rollup also keeps a {@link QuantileSketch} of every bucket's device temperatures,
+ * so percentiles of coarser buckets can be merged from it as well.
+ */
+final class RollupSeries {
+
+    private final long resolutionMillis;
+    private final long readingCount;
+
+    /** Number of sealed buckets; the arrays may be longer, entries behind it belong to newer series */
+    private final int sealed;
+    private final long[] bucketStarts;
+    private final long[] firstTimes;
+    private final long[] lastTimes;
+    private final long[] counts;
+    private final double[] sumAmbient;
+    private final double[] minAmbient;
+    private final double[] maxAmbient;
+    private final double[] sumDevice;
+    private final double[] minDevice;
+    private final double[] maxDevice;
+    /** Sketches of the sealed buckets, or null if the rollup is not sketched */
+    private final QuantileSketch[] sketches;
+
+    /** Statistics of the open bucket, empty if the series has no readings; never modified */
+    private final BucketAccumulator open;
+    private final long openStart;
+    private final long openFirst;
+    private final long openLast;
+
+    private RollupSeries(Builder builder) {
+        this.resolutionMillis = builder.resolutionMillis;
+        this.readingCount = builder.readingCount;
+        this.sealed = builder.size;
+        this.bucketStarts = builder.bucketStarts;
+        this.firstTimes = builder.firstTimes;
+        this.lastTimes = builder.lastTimes;
+        this.counts = builder.counts;
+        this.sumAmbient = builder.sumAmbient;
+        this.minAmbient = builder.minAmbient;
+        this.maxAmbient = builder.maxAmbient;
+        this.sumDevice = builder.sumDevice;
+        this.minDevice = builder.minDevice;
+        this.maxDevice = builder.maxDevice;
+        this.sketches = builder.sketches;
+        this.open = new BucketAccumulator(builder.accumulator.isSketched());
+        this.open.merge(builder.accumulator);
+        this.openStart = builder.currentStart;
+        this.openFirst = builder.currentFirst;
+        this.openLast = builder.currentLast;
+    }
+
+    /** @return Bucket size in milliseconds */
+    long getResolutionMillis() {
+        return resolutionMillis;
+    }
+
+    /** @return Whether every bucket keeps a sketch of its device temperatures */
+    boolean isSketched() {
+        return sketches != null;
+    }
+
+    /** @return Number of readings folded into the buckets */
+    long getReadingCount() {
+        return readingCount;
+    }
+
+    /** @return Number of non-empty buckets, including the open one */
+    int size() {
+        return open.isEmpty() ? sealed : sealed + 1;
+    }
+
+    /** @return Start of the bucket at the given index in epoch milliseconds */
+    long getBucketStart(int index) {
+        return index < sealed ? bucketStarts[index] : openStart;
+    }
+
+    /** @return Time of the first reading in the bucket at the given index */
+    long getFirstTime(int index) {
+        return index < sealed ? firstTimes[index] : openFirst;
+    }
+
+    /**
+     * Finds the first bucket starting at or after the given time.
+     *
+     * @param epochMillis Time in epoch milliseconds
+     * @return Index of the first bucket with a start &gt;= epochMillis, or {@link #size()} if there is none
+     */
+    int lowerBound(long epochMillis) {
+        int low = 0;
+        int high = sealed;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (bucketStarts[mid] < epochMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == sealed && !open.isEmpty() && openStart < epochMillis) {
+            low++;
+        }
+        return low;
+    }
+
+    /**
+     * Feeds the bucket at the given index into a bucketer as one pre-aggregated group.
+     *
+     * @param index Index of the bucket
+     * @param bucketer Bucketer whose buckets are whole multiples of this resolution
+     */
+    void foldInto(int index, DeviceBucketer bucketer) {
+        if (index == sealed) {
+            bucketer.addFolded(openFirst, openLast, open.getCount(),
+                open.getSumAmbient(), open.getMinAmbient(), open.getMaxAmbient(),
+                open.getSumDevice(), open.getMinDevice(), open.getMaxDevice(), open.getSketch());
+            return;
+        }
+        bucketer.addFolded(firstTimes[index], lastTimes[index], counts[index],
+            sumAmbient[index], minAmbient[index], maxAmbient[index],
+            sumDevice[index], minDevice[index], maxDevice[index], sketches == null ? null : sketches[index]);
+    }
+
+    /**
+     * Returns a rollup that also covers readings appended behind the device's last reading.
+     * Each reading updates the open bucket, or seals it and opens the bucket the reading falls into.
+     * Only the newest rollup of a device may be appended to, since its arrays are shared with the result.
+     *
+     * @param readings Time-sorted readings, none of them before the last reading folded so far
+     * @return The extended rollup, or this rollup if there are no readings
+     */
+    RollupSeries append(DeviceSeries readings) {
+        if (readings.size() == 0) {
+            return this;
+        }
+        Builder builder = new Builder(this);
+        long[] timestamps = readings.getTimestamps();
+        double[] ambientTemps = readings.getAmbientTemperatures();
+        double[] deviceTemps = readings.getDeviceTemperatures();
+        for (int i = 0; i < readings.size(); i++) {
+            builder.add(timestamps[i], ambientTemps[i], deviceTemps[i]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Folds time-ordered readings of one device into epoch-aligned buckets.
+     */
+    static final class Builder {
+
+        private final long resolutionMillis;
+        private final BucketAccumulator accumulator;
+        private long currentStart;
+        private long currentFirst;
+        private long currentLast;
+        private long readingCount;
+
+        private int size;
+        private long[] bucketStarts;
+        private long[] firstTimes;
+        private long[] lastTimes;
+        private long[] counts;
+        private double[] sumAmbient;
+        private double[] minAmbient;
+        private double[] maxAmbient;
+        private double[] sumDevice;
+        private double[] minDevice;
+        private double[] maxDevice;
+        private QuantileSketch[] sketches;
+
+        Builder(long resolutionMillis) {
+            this(resolutionMillis, false);
+        }
+
+        /**
+         * @param resolutionMillis Bucket size in milliseconds
+         * @param sketched Whether every bucket keeps a sketch of its device temperatures
+         */
+        Builder(long resolutionMillis, boolean sketched) {
+            this.resolutionMillis = resolutionMillis;
+            this.accumulator = new BucketAccumulator(sketched);
+            this.bucketStarts = new long[16];
+            this.firstTimes = new long[16];
+            this.lastTimes = new long[16];
+            this.counts = new long[16];
+            this.sumAmbient = new double[16];
+            this.minAmbient = new double[16];
+            this.maxAmbient = new double[16];
+            this.sumDevice = new double[16];
+            this.minDevice = new double[16];
+            this.maxDevice = new double[16];
+            this.sketches = sketched ? new QuantileSketch[16] : null;
+        }
+
+        /**
+         * Continues a rollup: sealed buckets are shared, the open bucket is copied and stays open.
+         *
+         * @param series The newest rollup of the device
+         */
+        private Builder(RollupSeries series) {
+            this.resolutionMillis = series.resolutionMillis;
+            this.readingCount = series.readingCount;
+            this.size = series.sealed;
+            this.bucketStarts = series.bucketStarts;
+            this.firstTimes = series.firstTimes;
+            this.lastTimes = series.lastTimes;
+            this.counts = series.counts;
+            this.sumAmbient = series.sumAmbient;
+            this.minAmbient = series.minAmbient;
+            this.maxAmbient = series.maxAmbient;
+            this.sumDevice = series.sumDevice;
+            this.minDevice = series.minDevice;
+            this.maxDevice = series.maxDevice;
+            this.sketches = series.sketches;
+            this.accumulator = new BucketAccumulator(series.isSketched());
+            this.accumulator.merge(series.open);
+            this.currentStart = series.openStart;
+            this.currentFirst = series.openFirst;
+            this.currentLast = series.openLast;
+        }
+
+        /**
+         * Adds the next reading of the device.
+         *
+         * @param epochMillis Reading time in epoch milliseconds, not before the previous reading
+         * @param ambientTemperature Ambient temperature in Celsius
+         * @param deviceTemperature Device temperature in Celsius
+         */
+        void add(long epochMillis, double ambientTemperature, double deviceTemperature) {
+            long bucketStart = Math.floorDiv(epochMillis, resolutionMillis) * resolutionMillis;
+            if (accumulator.isEmpty() || bucketStart != currentStart) {
+                seal();
+                currentStart = bucketStart;
+                currentFirst = epochMillis;
+            }
+            currentLast = epochMillis;
+            accumulator.add(ambientTemperature, deviceTemperature);
+            readingCount++;
+        }
+
+        /** @return The rollup of all readings added so far, with the bucket of the last reading left open */
+        RollupSeries build() {
+            return new RollupSeries(this);
+        }
+
+        private void seal() {
+            if (accumulator.isEmpty()) {
+                return;
+            }
+            if (size == bucketStarts.length) {
+                int capacity = size * 2;
+                bucketStarts = Arrays.copyOf(bucketStarts, capacity);
+                firstTimes = Arrays.copyOf(firstTimes, capacity);
+                lastTimes = Arrays.copyOf(lastTimes, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+                sumAmbient = Arrays.copyOf(sumAmbient, capacity);
+                minAmbient = Arrays.copyOf(minAmbient, capacity);
+                maxAmbient = Arrays.copyOf(maxAmbient, capacity);
+                sumDevice = Arrays.copyOf(sumDevice, capacity);
+                minDevice = Arrays.copyOf(minDevice, capacity);
+                maxDevice = Arrays.copyOf(maxDevice, capacity);
+                if (sketches != null) {
+                    sketches = Arrays.copyOf(sketches, capacity);
+                }
+            }
+            bucketStarts[size] = currentStart;
+            firstTimes[size] = currentFirst;
+            lastTimes[size] = currentLast;
+            counts[size] = accumulator.getCount();
+            sumAmbient[size] = accumulator.getSumAmbient();
+            minAmbient[size] = accumulator.getMinAmbient();
+            maxAmbient[size] = accumulator.getMaxAmbient();
+            sumDevice[size] = accumulator.getSumDevice();
+            minDevice[size] = accumulator.getMinDevice();
+            maxDevice[size] = accumulator.getMaxDevice();
+            if (sketches != null) {
+                sketches[size] = accumulator.getSketch().copy();
+            }
+            size++;
+            accumulator.reset();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.acme.telemetry;
+
+import org.jboss.logging.Logger;
+
+import java.util.Arrays;
+
+/**
+ * Min, max and sum of both temperature columns of a bucket in one pass over its readings.
+ *
+ * Large buckets are processed by {@link VectorStatisticsKernel} with the incubating Java Vector API,
+ * several readings per instruction, when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}. Otherwise, and for buckets below
+ * {@value #VECTOR_THRESHOLD} readings where setting up the vectors does not pay off, a fused
+ * scalar loop is used. Both kernels return bit-for-bit the results of separate min, max and sum
+ * loops: both skip NaN readings after the first one and keep the first of equal readings, and sums
+ * are added up in reading order by either kernel.
+ */
+final class StatisticsKernel {
+
+    private static final Logger LOG = Logger.getLogger(StatisticsKernel.class);
+
+    /** Indexes of the statistics in the array returned by {@link #compute} */
+    static final int MIN_AMBIENT = 0;
+    static final int MAX_AMBIENT = 1;
+    static final int SUM_AMBIENT = 2;
+    static final int MIN_DEVICE = 3;
+    static final int MAX_DEVICE = 4;
+    static final int SUM_DEVICE = 5;
+
+    /** Minimum number of readings processed by the vector kernel */
+    static final int VECTOR_THRESHOLD = 64;
+
+    private static final boolean VECTORIZED = vectorAvailable();
+
+    private StatisticsKernel() {
+    }
+
+    /** @return Whether large buckets are processed by the vector kernel */
+    static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    /**
+     * Computes the statistics of a bucket's readings.
+     *
+     * @param ambientTemperatures Ambient temperatures of the readings
+     * @param deviceTemperatures Device temperatures of the readings, as many as ambient temperatures
+     * @return Statistics indexed by the constants of this class; all 0 if there are no readings
+     */
+    static double[] compute(double[] ambientTemperatures, double[] deviceTemperatures) {
+        double[] statistics = new double[6];
+        int length = ambientTemperatures.length;
+        if (VECTORIZED && length >= VECTOR_THRESHOLD) {
+            VectorStatisticsKernel.compute(ambientTemperatures, deviceTemperatures, 0, length, statistics);
+        } else {
+            computeScalar(ambientTemperatures, deviceTemperatures, 0, length, statistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * Computes the statistics of a range of readings one reading at a time.
+     * Comparisons and summation order match separate loops over each column.
+     *
+     * @param ambientTemperatures Ambient temperatures of the readings
+     * @param deviceTemperatures Device temperatures of the readings
+     * @param from Index of the first reading (inclusive)
+     * @param to Index of the last reading (exclusive)
+     * @param statistics Receives the statistics, indexed by the constants of this class; all 0 if the range is empty
+     */
+    static void computeScalar(double[] ambientTemperatures, double[] deviceTemperatures, int from, int to,
+                              double[] statistics) {
+        if (from == to) {
+            Arrays.fill(statistics, 0);
+            return;
+        }
+        double minAmbient = ambientTemperatures[from];
+        double maxAmbient = ambientTemperatures[from];
+        double sumAmbient = 0;
+        double minDevice = deviceTemperatures[from];
+        double maxDevice = deviceTemperatures[from];
+        double sumDevice = 0;
+        for (int i = from; i < to; i++) {
+            double ambient = ambientTemperatures[i];
+            double device = deviceTemperatures[i];
+            if (ambient < minAmbient) minAmbient = ambient;
+            if (ambient > maxAmbient) maxAmbient = ambient;
+            sumAmbient += ambient;
+            if (device < minDevice) minDevice = device;
+            if (device > maxDevice) maxDevice = device;
+            sumDevice += device;
+        }
+        statistics[MIN_AMBIENT] = minAmbient;
+        statistics[MAX_AMBIENT] = maxAmbient;
+        statistics[SUM_AMBIENT] = sumAmbient;
+        statistics[MIN_DEVICE] = minDevice;
+        statistics[MAX_DEVICE] = maxDevice;
+        statistics[SUM_DEVICE] = sumDevice;
+    }
+
+    /**
+     * The vector kernel is only loaded when the incubator module is part of the boot layer,
+     * so a JVM without it never touches a class that references the Vector API.
+     */
+    private static boolean vectorAvailable() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            LOG.debug("jdk.incubator.vector is not enabled, bucket statistics use the scalar kernel");
+            return false;
+        }
+        try {
+            VectorStatisticsKernel.compute(new double[1], new double[1], 0, 1, new double[6]);
+            LOG.debugf("Bucket statistics use the vector kernel with %d lanes", VectorStatisticsKernel.lanes());
+            return true;
+        } catch (LinkageError e) {
+            LOG.warnf("jdk.incubator.vector cannot be used, bucket statistics use the scalar kernel: %s", e);
+            return false;
+        }
+    }
+}
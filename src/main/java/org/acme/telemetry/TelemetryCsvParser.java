@@ -0,0 +1,330 @@
+package org.acme.telemetry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Parser for the fixed {@code DeviceId,Timestamp,AmbientTemperature,DeviceTemperature} CSV layout.
+ * Works directly on the bytes of a buffer without creating a String per line or field:
+ * - Timestamps of the shape {@code yyyy-MM-ddTHH:mm:ss[.fraction]Z} are decoded straight to epoch millis
+ * - Plain decimal temperatures are decoded straight to doubles
+ * - Device IDs are mapped to dense indexes through a dictionary, creating one String per device
+ *
+ * Values outside the fast paths (offsets, exponents, surrounding whitespace, ...) fall back to
+ * {@link Instant#parse} and {@link Double#parseDouble}, so results always match the JDK parsers.
+ * Fields must not be quoted.
+ */
+final class TelemetryCsvParser {
+
+    /**
+     * Receives the decoded rows of a buffer in file order.
+     */
+    interface RowHandler {
+        /**
+         * @param deviceIndex Dense index of the device, see {@link #getDeviceId(int)}
+         * @param epochMillis Reading time in epoch milliseconds
+         * @param ambientTemperature Ambient temperature in Celsius
+         * @param deviceTemperature Device temperature in Celsius
+         */
+        void onRow(int deviceIndex, long epochMillis, double ambientTemperature, double deviceTemperature);
+    }
+
+    /** Powers of ten that are exactly representable as doubles */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Largest mantissa a double holds exactly */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    // Device dictionary: open-addressing hash table of (index + 1), 0 marks a free slot
+    private int[] slots = new int[64];
+    private byte[][] deviceKeys = new byte[16][];
+    private String[] deviceIds = new String[16];
+    private int deviceCount;
+
+    /** @return Number of distinct devices seen so far */
+    int getDeviceCount() {
+        return deviceCount;
+    }
+
+    /**
+     * @param deviceIndex Dense index handed to {@link RowHandler#onRow}
+     * @return The device identifier for that index
+     */
+    String getDeviceId(int deviceIndex) {
+        return deviceIds[deviceIndex];
+    }
+
+    /**
+     * Parses all complete and trailing lines between the buffer's position and limit.
+     * The buffer's position is not modified. A parser instance can be fed several buffers
+     * in a row; device indexes stay stable across them.
+     *
+     * @param buffer Bytes of the CSV file, or a line-aligned part of it
+     * @param skipHeader Whether the first line is a header row to ignore
+     * @param handler Receives every decoded row
+     * @return Number of rows parsed
+     * @throws IllegalArgumentException if a row does not have the expected layout
+     */
+    long parse(ByteBuffer buffer, boolean skipHeader, RowHandler handler) {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        if (skipHeader) {
+            position = nextLine(buffer, position, limit);
+        }
+
+        long rows = 0;
+        while (position < limit) {
+            int lineStart = position;
+            int lineEnd = indexOf(buffer, (byte) '\n', lineStart, limit);
+            position = lineEnd < limit ? lineEnd + 1 : limit;
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd == lineStart) {
+                continue; // blank line
+            }
+
+            int deviceEnd = indexOf(buffer, (byte) ',', lineStart, lineEnd);
+            int timestampEnd = indexOf(buffer, (byte) ',', deviceEnd + 1, lineEnd);
+            int ambientEnd = indexOf(buffer, (byte) ',', timestampEnd + 1, lineEnd);
+            if (ambientEnd >= lineEnd) {
+                throw new IllegalArgumentException("Malformed telemetry row at byte offset " + lineStart
+                    + ": expected DeviceId,Timestamp,AmbientTemperature,DeviceTemperature");
+            }
+
+            int deviceIndex;
+            long epochMillis;
+            double ambientTemperature;
+            double deviceTemperature;
+            try {
+                deviceIndex = deviceIndex(buffer, lineStart, deviceEnd);
+                epochMillis = parseTimestamp(buffer, deviceEnd + 1, timestampEnd);
+                ambientTemperature = parseDouble(buffer, timestampEnd + 1, ambientEnd);
+                deviceTemperature = parseDouble(buffer, ambientEnd + 1, lineEnd);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Malformed telemetry row at byte offset " + lineStart, e);
+            }
+            handler.onRow(deviceIndex, epochMillis, ambientTemperature, deviceTemperature);
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Looks up or assigns the dense index of the device ID stored in the given byte range.
+     */
+    private int deviceIndex(ByteBuffer buffer, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        int mask = slots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] != 0) {
+            int candidate = slots[slot] - 1;
+            if (bytesEqual(buffer, start, end, deviceKeys[candidate])) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // First occurrence of this device: the only place a String is created
+        byte[] key = new byte[end - start];
+        buffer.get(start, key);
+        if (deviceCount == deviceIds.length) {
+            deviceIds = Arrays.copyOf(deviceIds, deviceCount * 2);
+            deviceKeys = Arrays.copyOf(deviceKeys, deviceCount * 2);
+        }
+        int index = deviceCount++;
+        deviceKeys[index] = key;
+        deviceIds[index] = new String(key, StandardCharsets.UTF_8);
+        slots[slot] = index + 1;
+        if (deviceCount * 2 > slots.length) {
+            rehash();
+        }
+        return index;
+    }
+
+    private void rehash() {
+        int[] grown = new int[slots.length * 2];
+        int mask = grown.length - 1;
+        for (int index = 0; index < deviceCount; index++) {
+            int hash = 0;
+            for (byte b : deviceKeys[index]) {
+                hash = 31 * hash + b;
+            }
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = index + 1;
+        }
+        slots = grown;
+    }
+
+    /**
+     * Decodes an ISO-8601 UTC timestamp to epoch milliseconds.
+     * Fractional seconds beyond milliseconds are truncated, like {@link Instant#toEpochMilli()}.
+     */
+    static long parseTimestamp(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (length >= 20
+                && buffer.get(start + 4) == '-' && buffer.get(start + 7) == '-' && buffer.get(start + 10) == 'T'
+                && buffer.get(start + 13) == ':' && buffer.get(start + 16) == ':' && buffer.get(end - 1) == 'Z') {
+            int year = digits(buffer, start, 4);
+            int month = digits(buffer, start + 5, 2);
+            int day = digits(buffer, start + 8, 2);
+            int hour = digits(buffer, start + 11, 2);
+            int minute = digits(buffer, start + 14, 2);
+            int second = digits(buffer, start + 17, 2);
+            int millis = fractionMillis(buffer, start + 19, end - 1);
+
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= lengthOfMonth(year, month)
+                    && hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0 && second <= 59
+                    && millis >= 0) {
+                long epochDay = epochDay(year, month, day);
+                return ((epochDay * 24 + hour) * 60 + minute) * 60_000L + second * 1000L + millis;
+            }
+        }
+        return Instant.parse(ascii(buffer, start, end)).toEpochMilli();
+    }
+
+    /**
+     * Decodes a decimal number to a double.
+     * For plain decimals whose digits fit into a 53-bit mantissa, mantissa / 10^fractionDigits
+     * is a division of two exact doubles and therefore yields the same correctly rounded value
+     * as {@link Double#parseDouble}; everything else is delegated to it.
+     */
+    static double parseDouble(ByteBuffer buffer, int start, int end) {
+        int position = start;
+        boolean negative = false;
+        if (position < end) {
+            byte sign = buffer.get(position);
+            if (sign == '-' || sign == '+') {
+                negative = sign == '-';
+                position++;
+            }
+        }
+
+        long mantissa = 0;
+        int digitCount = 0;
+        int fractionDigits = 0;
+        boolean seenPoint = false;
+        boolean fastPath = position < end;
+        for (; position < end && fastPath; position++) {
+            byte c = buffer.get(position);
+            if (c >= '0' && c <= '9') {
+                if (++digitCount > 18) {
+                    fastPath = false;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenPoint) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                fastPath = false;
+            }
+        }
+
+        if (fastPath && digitCount > 0 && mantissa <= MAX_EXACT_MANTISSA && fractionDigits < POWERS_OF_TEN.length) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(ascii(buffer, start, end));
+    }
+
+    /** @return Value of a fixed number of decimal digits, or -1 if any byte is not a digit */
+    private static int digits(ByteBuffer buffer, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /** @return Milliseconds of an optional ".fraction" part, or -1 if it is malformed */
+    private static int fractionMillis(ByteBuffer buffer, int start, int end) {
+        if (start == end) {
+            return 0;
+        }
+        if (buffer.get(start) != '.' || end - start < 2 || end - start > 10) {
+            return -1;
+        }
+        int millis = 0;
+        for (int i = start + 1; i < start + 4; i++) {
+            int digit = i < end ? buffer.get(i) - '0' : 0;
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            millis = millis * 10 + digit;
+        }
+        for (int i = start + 4; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+        }
+        return millis;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    /** Days since 1970-01-01 for a proleptic Gregorian date (non-negative years) */
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int nextLine(ByteBuffer buffer, int start, int limit) {
+        int lineEnd = indexOf(buffer, (byte) '\n', start, limit);
+        return lineEnd < limit ? lineEnd + 1 : limit;
+    }
+
+    private static boolean bytesEqual(ByteBuffer buffer, int start, int end, byte[] key) {
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String ascii(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,6 +1,7 @@
 package org.acme.telemetry;
 
 import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.ext.ExceptionMapper;
 import jakarta.ws.rs.ext.Provider;
@@ -14,6 +15,7 @@ public class TelemetryExceptionMapper implements ExceptionMapper<Exception> {
             return Response
                 .status(Response.Status.BAD_REQUEST)
                 .entity(new ErrorResponse(exception.getMessage(), "INVALID_PARAMETERS"))
+                .type(MediaType.APPLICATION_JSON)
                 .build();
         }
         
@@ -22,6 +24,7 @@ public class TelemetryExceptionMapper implements ExceptionMapper<Exception> {
             return Response
                 .status(Response.Status.BAD_REQUEST)
                 .entity(new ErrorResponse("Invalid date format or parameters", "INVALID_FORMAT"))
+                .type(MediaType.APPLICATION_JSON)
                 .build();
         }
         
@@ -29,6 +32,7 @@ public class TelemetryExceptionMapper implements ExceptionMapper<Exception> {
         return Response
             .status(Response.Status.INTERNAL_SERVER_ERROR)
             .entity(new ErrorResponse("An internal error occurred", "INTERNAL_ERROR"))
+            .type(MediaType.APPLICATION_JSON)
             .build();
     }
 }
\ No newline at end of file
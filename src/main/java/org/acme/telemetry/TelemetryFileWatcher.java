@@ -0,0 +1,112 @@
+package org.acme.telemetry;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.Priority;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.interceptor.Interceptor;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the data file the store was loaded from and reloads the store when it changes,
+ * so new data is picked up without a restart.
+ *
+ * The file's directory is watched with a {@link WatchService} on a background thread, which also
+ * performs the reload; queries keep reading the previously published data meanwhile. A writer
+ * rarely finishes with a single event, so the reload waits until no event arrived for the quiet
+ * period. For the "segment" and "partitioned" formats the segment file or catalog should be replaced
+ * by renaming a complete new file over it, since a mapped file must not be truncated in place.
+ */
+@ApplicationScoped
+public class TelemetryFileWatcher {
+
+    private static final Logger LOG = Logger.getLogger(TelemetryFileWatcher.class);
+
+    /**
+     * Whether changes of the data file are picked up while running.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.reload.enabled'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.reload.enabled", defaultValue = "false")
+    boolean enabled;
+
+    /**
+     * Milliseconds without further change events before a changed file is read.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.reload.quiet-period-ms'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.reload.quiet-period-ms", defaultValue = "500")
+    long quietPeriodMillis;
+
+    @Inject
+    TelemetryStore telemetryStore;
+
+    private WatchService watchService;
+
+    /** Starts watching once the store has loaded its data */
+    void onStart(@Observes @Priority(Interceptor.Priority.LIBRARY_AFTER) StartupEvent event) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Path file = telemetryStore.getDataPath();
+        if (file == null) {
+            LOG.warn("Telemetry reload is enabled, but the data is not read from a file on disk");
+            return;
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(() -> watch(file.getFileName()), "telemetry-reload");
+        thread.setDaemon(true);
+        thread.start();
+        LOG.infof("Watching %s for changes", file);
+    }
+
+    void onStop(@Observes ShutdownEvent event) throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private void watch(Path fileName) {
+        try {
+            while (true) {
+                if (!changed(watchService.take(), fileName)) {
+                    continue;
+                }
+                WatchKey more;
+                while ((more = watchService.poll(quietPeriodMillis, TimeUnit.MILLISECONDS)) != null) {
+                    changed(more, fileName);
+                }
+                try {
+                    telemetryStore.reload();
+                } catch (RuntimeException e) {
+                    LOG.errorf(e, "Reloading telemetry data failed, still serving the previous data");
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Shutting down
+        }
+    }
+
+    /** @return Whether the key signalled a change of the watched file; the key is reset either way */
+    private static boolean changed(WatchKey key, Path fileName) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context());
+        }
+        key.reset();
+        return changed;
+    }
+}
@@ -0,0 +1,215 @@
+package org.acme.telemetry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the aggregation pipeline, exposed in Prometheus format on /q/metrics.
+ *
+ * Request meters are tagged with the query's resolution and its range size, rounded up to one of
+ * a few fixed spans, so the number of time series stays bounded. The time filter's selectivity,
+ * i.e. the share of stored rows that fall into the queried range, shows whether queries would
+ * benefit from pruning data by time before it is read.
+ */
+@ApplicationScoped
+public class TelemetryMetrics {
+
+    /** Stage of an aggregate request validating and parsing its parameters */
+    static final String STAGE_VALIDATE = "validate";
+
+    /** Stage of an aggregate request computing the buckets */
+    static final String STAGE_AGGREGATE = "aggregate";
+
+    /** Stage of an aggregate request encoding the computed buckets */
+    static final String STAGE_SERIALIZE = "serialize";
+
+    /** Stage of a streamed aggregate request, which computes and encodes buckets interleaved */
+    static final String STAGE_STREAM = "stream";
+
+    /** Upper bounds of the range tag in milliseconds, with their tag values */
+    private static final long[] RANGE_BOUNDS = {3_600_000L, 21_600_000L, 86_400_000L, 604_800_000L, 2_592_000_000L};
+    private static final String[] RANGE_TAGS = {"1h", "6h", "1d", "7d", "30d"};
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    TelemetryStore telemetryStore;
+
+    @Inject
+    AggregationAdmission aggregationAdmission;
+
+    @Inject
+    AggregationCache aggregationCache;
+
+    void onStart(@Observes StartupEvent event) {
+        Gauge.builder("telemetry.load.open.duration", telemetryStore, store -> store.getLoadOpenNanos() / 1e9)
+            .description("Time the last CSV load spent opening or mapping the file")
+            .baseUnit("seconds")
+            .register(registry);
+        Gauge.builder("telemetry.load.duration", telemetryStore, store -> store.getLoadNanos() / 1e9)
+            .description("Time the last CSV load took in total")
+            .baseUnit("seconds")
+            .register(registry);
+        Gauge.builder("telemetry.load.rows.per.second", telemetryStore, TelemetryStore::getLoadRowsPerSecond)
+            .description("Rows parsed per second by the last CSV load")
+            .register(registry);
+        Gauge.builder("telemetry.store.rows", telemetryStore, store -> store.getSnapshot().rowCount())
+            .description("Rows of all devices in the store")
+            .register(registry);
+        Gauge.builder("telemetry.aggregate.running", aggregationAdmission, AggregationAdmission::getRunning)
+            .description("Aggregations currently running")
+            .register(registry);
+        Gauge.builder("telemetry.aggregate.queued", aggregationAdmission, AggregationAdmission::getQueued)
+            .description("Aggregations currently waiting for a running one to finish")
+            .register(registry);
+        FunctionCounter.builder("telemetry.aggregate.rejected", aggregationAdmission, AggregationAdmission::getRejected)
+            .description("Aggregations rejected because too many were running and waiting")
+            .register(registry);
+        FunctionCounter.builder("telemetry.aggregate.cache.hits", aggregationCache, AggregationCache::getHits)
+            .description("Buckets served from the aggregation cache")
+            .register(registry);
+        FunctionCounter.builder("telemetry.aggregate.cache.misses", aggregationCache, AggregationCache::getMisses)
+            .description("Buckets computed because they were not in the aggregation cache")
+            .register(registry);
+    }
+
+    /**
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @param fromMillis Start of the time range in epoch milliseconds (inclusive)
+     * @param toMillis End of the time range in epoch milliseconds (exclusive)
+     * @return Resolution and range tags of a query
+     */
+    static Tags queryTags(long resolutionMillis, long fromMillis, long toMillis) {
+        return Tags.of("resolution", resolutionTag(resolutionMillis), "range", rangeTag(toMillis - fromMillis));
+    }
+
+    /** @return Resolution in the largest whole unit, e.g. "10s", "15m", "1d" */
+    static String resolutionTag(long resolutionMillis) {
+        if (resolutionMillis % 86_400_000L == 0) {
+            return resolutionMillis / 86_400_000L + "d";
+        }
+        if (resolutionMillis % 3_600_000L == 0) {
+            return resolutionMillis / 3_600_000L + "h";
+        }
+        if (resolutionMillis % 60_000L == 0) {
+            return resolutionMillis / 60_000L + "m";
+        }
+        return resolutionMillis / 1_000L + "s";
+    }
+
+    /** @return Smallest of the fixed spans covering the range, or "longer" */
+    static String rangeTag(long rangeMillis) {
+        for (int i = 0; i < RANGE_BOUNDS.length; i++) {
+            if (rangeMillis <= RANGE_BOUNDS[i]) {
+                return RANGE_TAGS[i];
+            }
+        }
+        return "longer";
+    }
+
+    /**
+     * Records the duration of one stage of an aggregate request.
+     *
+     * @param stage One of the STAGE_ constants
+     * @param tags Query tags, see {@link #queryTags}
+     * @param nanos Duration of the stage
+     */
+    void recordStage(String stage, Tags tags, long nanos) {
+        Timer.builder("telemetry.aggregate.stage")
+            .description("Time spent in each stage of /telemetry/aggregate")
+            .tags(tags.and("stage", stage))
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records how many stored rows the time filter of a query was applied to and how many it kept.
+     *
+     * @param tags Query tags, see {@link #queryTags}
+     * @param storedRows Rows of all devices in the store
+     * @param rowsInRange Rows of all devices within the queried time range
+     */
+    void recordTimeFilter(Tags tags, long storedRows, long rowsInRange) {
+        Counter.builder("telemetry.aggregate.rows.stored")
+            .description("Stored rows the time filter of aggregate queries was applied to")
+            .tags(tags)
+            .register(registry)
+            .increment(storedRows);
+        Counter.builder("telemetry.aggregate.rows.in.range")
+            .description("Stored rows within the time range of aggregate queries")
+            .tags(tags)
+            .register(registry)
+            .increment(rowsInRange);
+        DistributionSummary.builder("telemetry.aggregate.time.selectivity")
+            .description("Share of stored rows within the time range of an aggregate query")
+            .tags(tags)
+            .serviceLevelObjectives(0.001, 0.01, 0.1, 0.5, 1.0)
+            .register(registry)
+            .record(storedRows == 0 ? 0 : (double) rowsInRange / storedRows);
+    }
+
+    /**
+     * Counts an aggregate request by whether it computed its buckets or shared the computation
+     * of an identical concurrent request, see {@link AggregationCoalescer}.
+     *
+     * @param tags Query tags, see {@link #queryTags}
+     * @param coalesced Whether the request waited for another request's computation
+     */
+    void recordExecution(Tags tags, boolean coalesced) {
+        Counter.builder("telemetry.aggregate.requests")
+            .description("Aggregate requests that computed their buckets or were coalesced with a concurrent one")
+            .tags(tags.and("execution", coalesced ? "coalesced" : "executed"))
+            .register(registry)
+            .increment();
+    }
+
+    /**
+     * @param tags Query tags, see {@link #queryTags}
+     * @param buckets Number of buckets a query returned
+     */
+    void recordBuckets(Tags tags, long buckets) {
+        DistributionSummary.builder("telemetry.aggregate.buckets")
+            .description("Buckets returned per aggregate query")
+            .tags(tags)
+            .register(registry)
+            .record(buckets);
+    }
+
+    /**
+     * @param engine Aggregation engine, see {@link TelemetryService}
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @return Timer of the aggregation of a single device's readings
+     */
+    Timer deviceTimer(String engine, long resolutionMillis) {
+        return Timer.builder("telemetry.aggregate.device")
+            .description("Time spent aggregating the readings of a single device")
+            .tags("engine", engine, "resolution", resolutionTag(resolutionMillis))
+            .register(registry);
+    }
+
+    /**
+     * @param tags Query tags, see {@link #queryTags}
+     * @param format Response encoding, "json" or "cbor"
+     * @param bytes Size of the response body
+     */
+    void recordResponseBytes(Tags tags, String format, long bytes) {
+        DistributionSummary.builder("telemetry.aggregate.response.size")
+            .description("Size of aggregate response bodies")
+            .baseUnit("bytes")
+            .tags(tags.and("format", format))
+            .register(registry)
+            .record(bytes);
+    }
+}
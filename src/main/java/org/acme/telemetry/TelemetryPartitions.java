@@ -0,0 +1,306 @@
+package org.acme.telemetry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Directory of time-partitioned segment files, one per fixed time window (e.g. one per day).
+ *
+ * A catalog file ({@value #CATALOG_FILE}) lists every partition with the time range it covers,
+ * its minimum and maximum timestamp and its number of rows per device, plus the device dictionary
+ * shared by all partitions. Only the catalog is read when the directory is opened; a partition's
+ * segment is mapped the first time a scan needs it. A scan skips every partition whose timestamps
+ * lie outside the scanned range or that has no rows of the scanned devices, without opening it.
+ *
+ * Partitions never overlap in time and are visited in time order, so a scan across them returns
+ * the same rows in the same order as a single segment of all readings.
+ */
+final class TelemetryPartitions implements TelemetryRows {
+
+    static final String CATALOG_FILE = "catalog.json";
+    static final int CATALOG_VERSION = 1;
+
+    private static final ObjectMapper CATALOG_MAPPER = new ObjectMapper()
+        .enable(SerializationFeature.INDENT_OUTPUT);
+
+    private static final DateTimeFormatter FILE_TIME =
+        DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    /** Catalog file contents */
+    record Catalog(int version, List<String> deviceIds, List<Partition> partitions) {
+    }
+
+    /**
+     * Catalog entry of one partition.
+     *
+     * @param file Segment file name, relative to the directory
+     * @param startMillis Start of the partition's time window (inclusive)
+     * @param endMillis End of the partition's time window (exclusive)
+     * @param minTimestamp Earliest reading in the partition
+     * @param maxTimestamp Latest reading in the partition
+     * @param rowCount Number of readings in the partition
+     * @param deviceRowCounts Number of readings per device, indexed like the catalog's dictionary
+     */
+    record Partition(String file, long startMillis, long endMillis, long minTimestamp, long maxTimestamp,
+                     long rowCount, long[] deviceRowCounts) {
+    }
+
+    private final Path directory;
+    private final String[] deviceIds;
+    private final List<Partition> partitions;
+    private final long rowCount;
+
+    /** Mapped segments and their device index translations, by partition; null until first scanned */
+    private final TelemetrySegment[] segments;
+    private final int[][] deviceIndexes;
+
+    private TelemetryPartitions(Path directory, Catalog catalog) {
+        this.directory = directory;
+        this.deviceIds = catalog.deviceIds().toArray(String[]::new);
+        this.partitions = List.copyOf(catalog.partitions());
+        this.segments = new TelemetrySegment[partitions.size()];
+        this.deviceIndexes = new int[partitions.size()][];
+        long rows = 0;
+        for (Partition partition : partitions) {
+            rows += partition.rowCount();
+        }
+        this.rowCount = rows;
+    }
+
+    /**
+     * Opens a partitioned directory by reading its catalog; no segment is mapped yet.
+     *
+     * @param directory Directory written by {@link #writeDirectory}
+     * @return The partitioned readings
+     * @throws IOException if the catalog cannot be read or has an unsupported version
+     */
+    static TelemetryPartitions open(Path directory) throws IOException {
+        Catalog catalog = CATALOG_MAPPER.readValue(directory.resolve(CATALOG_FILE).toFile(), Catalog.class);
+        if (catalog.version() != CATALOG_VERSION) {
+            throw new IOException("Unsupported telemetry catalog version " + catalog.version() + ": " + directory);
+        }
+        for (Partition partition : catalog.partitions()) {
+            if (partition.deviceRowCounts().length != catalog.deviceIds().size()) {
+                throw new IOException("Catalog entry " + partition.file() + " does not match the device dictionary");
+            }
+        }
+        return new TelemetryPartitions(directory, catalog);
+    }
+
+    /**
+     * Writes devices to a directory of partitions covering consecutive, epoch-aligned time windows.
+     * Every window with readings becomes one segment file named after its time range; the catalog
+     * is written last, replacing any previous one, so a directory is only opened once complete.
+     *
+     * @param devices Time-sorted series; their list position becomes the catalog's device index
+     * @param directory Directory to create the partitions in
+     * @param partitionMillis Duration of each partition's time window in milliseconds
+     * @param indexInterval Number of rows between two time index entries of each segment
+     * @return Number of rows written
+     * @throws IOException if a file cannot be written
+     */
+    static long writeDirectory(List<DeviceSeries> devices, Path directory, long partitionMillis, int indexInterval)
+            throws IOException {
+        Files.createDirectories(directory);
+
+        // Time range of all readings, which the epoch-aligned windows cover
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (DeviceSeries series : devices) {
+            if (series.size() > 0) {
+                first = Math.min(first, series.getTimestamps()[0]);
+                last = Math.max(last, series.getTimestamps()[series.size() - 1]);
+            }
+        }
+
+        List<Partition> partitions = new ArrayList<>();
+        long rowCount = 0;
+        if (first <= last) {
+            for (long start = Math.floorDiv(first, partitionMillis) * partitionMillis; start <= last;
+                 start += partitionMillis) {
+                long end = start + partitionMillis;
+                List<DeviceSeries> slices = new ArrayList<>(devices.size());
+                long[] deviceRowCounts = new long[devices.size()];
+                long rows = 0;
+                long minTimestamp = Long.MAX_VALUE;
+                long maxTimestamp = Long.MIN_VALUE;
+                for (int d = 0; d < devices.size(); d++) {
+                    DeviceSeries series = devices.get(d);
+                    int from = series.lowerBound(start);
+                    int to = series.lowerBound(end);
+                    slices.add(new DeviceSeries(series.getDeviceId(),
+                        Arrays.copyOfRange(series.getTimestamps(), from, to),
+                        Arrays.copyOfRange(series.getAmbientTemperatures(), from, to),
+                        Arrays.copyOfRange(series.getDeviceTemperatures(), from, to)));
+                    deviceRowCounts[d] = to - from;
+                    rows += to - from;
+                    if (from < to) {
+                        minTimestamp = Math.min(minTimestamp, series.getTimestamps()[from]);
+                        maxTimestamp = Math.max(maxTimestamp, series.getTimestamps()[to - 1]);
+                    }
+                }
+                if (rows == 0) {
+                    continue;
+                }
+                String file = FILE_TIME.format(Instant.ofEpochMilli(start)) + "_"
+                    + FILE_TIME.format(Instant.ofEpochMilli(end)) + ".seg";
+                TelemetrySegment.writeFile(slices, directory.resolve(file), indexInterval);
+                partitions.add(new Partition(file, start, end, minTimestamp, maxTimestamp, rows, deviceRowCounts));
+                rowCount += rows;
+            }
+        }
+
+        List<String> deviceIds = new ArrayList<>(devices.size());
+        for (DeviceSeries series : devices) {
+            deviceIds.add(series.getDeviceId());
+        }
+        Path temporary = Files.createTempFile(directory, CATALOG_FILE, ".tmp");
+        try {
+            CATALOG_MAPPER.writeValue(temporary.toFile(), new Catalog(CATALOG_VERSION, deviceIds, partitions));
+            Files.move(temporary, directory.resolve(CATALOG_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return rowCount;
+    }
+
+    @Override
+    public int getDeviceCount() {
+        return deviceIds.length;
+    }
+
+    @Override
+    public String getDeviceId(int deviceIndex) {
+        return deviceIds[deviceIndex];
+    }
+
+    @Override
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /** @return Number of partitions in the catalog */
+    int getPartitionCount() {
+        return partitions.size();
+    }
+
+    /** @return Number of partitions whose segment has been mapped so far */
+    synchronized int getOpenedPartitionCount() {
+        int opened = 0;
+        for (TelemetrySegment segment : segments) {
+            if (segment != null) {
+                opened++;
+            }
+        }
+        return opened;
+    }
+
+    /**
+     * Visits the rows of some devices within a time range in timestamp order, partition by partition.
+     * Partitions outside the range or without rows of the visited devices are skipped by their catalog
+     * entry alone.
+     *
+     * @throws UncheckedIOException if a partition's segment cannot be mapped
+     */
+    @Override
+    public long scan(long fromMillis, long toMillis, boolean[] devices, TelemetryCsvParser.RowHandler handler) {
+        long visited = 0;
+        for (int p = 0; p < partitions.size(); p++) {
+            Partition partition = partitions.get(p);
+            if (partition.maxTimestamp() < fromMillis || partition.minTimestamp() >= toMillis
+                    || !hasRows(partition, devices)) {
+                continue;
+            }
+            TelemetrySegment segment = segment(p);
+            int[] toCatalog = deviceIndexes[p];
+            boolean[] local = null;
+            if (devices != null) {
+                local = new boolean[toCatalog.length];
+                for (int i = 0; i < toCatalog.length; i++) {
+                    local[i] = devices[toCatalog[i]];
+                }
+            }
+            visited += segment.scan(fromMillis, toMillis, local,
+                (deviceIndex, epochMillis, ambientTemperature, deviceTemperature) ->
+                    handler.onRow(toCatalog[deviceIndex], epochMillis, ambientTemperature, deviceTemperature));
+        }
+        return visited;
+    }
+
+    /**
+     * Counts the rows within a time range. Partitions lying completely inside the range are
+     * counted from the catalog; only those the range cuts through are mapped.
+     */
+    @Override
+    public long countRows(long fromMillis, long toMillis) {
+        long count = 0;
+        for (int p = 0; p < partitions.size(); p++) {
+            Partition partition = partitions.get(p);
+            if (partition.maxTimestamp() < fromMillis || partition.minTimestamp() >= toMillis) {
+                continue;
+            }
+            count += partition.minTimestamp() >= fromMillis && partition.maxTimestamp() < toMillis
+                ? partition.rowCount()
+                : segment(p).countRows(fromMillis, toMillis);
+        }
+        return count;
+    }
+
+    /** @return Whether the partition has rows of any visited device */
+    private static boolean hasRows(Partition partition, boolean[] devices) {
+        if (devices == null) {
+            return partition.rowCount() > 0;
+        }
+        long[] counts = partition.deviceRowCounts();
+        for (int d = 0; d < counts.length; d++) {
+            if (devices[d] && counts[d] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Maps a partition's segment on first use and translates its dictionary to the catalog's */
+    private synchronized TelemetrySegment segment(int p) {
+        if (segments[p] == null) {
+            Path file = directory.resolve(partitions.get(p).file());
+            TelemetrySegment segment;
+            try {
+                segment = TelemetrySegment.open(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error opening telemetry partition " + file, e);
+            }
+            Map<String, Integer> catalogIndexes = new HashMap<>();
+            for (int i = 0; i < deviceIds.length; i++) {
+                catalogIndexes.put(deviceIds[i], i);
+            }
+            int[] toCatalog = new int[segment.getDeviceCount()];
+            for (int i = 0; i < toCatalog.length; i++) {
+                Integer index = catalogIndexes.get(segment.getDeviceId(i));
+                if (index == null) {
+                    throw new IllegalStateException("Partition " + file + " has device " + segment.getDeviceId(i)
+                        + " missing from the catalog");
+                }
+                toCatalog[i] = index;
+            }
+            deviceIndexes[p] = toCatalog;
+            segments[p] = segment;
+        }
+        return segments[p];
+    }
+}
@@ -0,0 +1,103 @@
+package org.acme.telemetry;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import jakarta.ws.rs.BadRequestException;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a batch of posted telemetry records straight into per-device columns.
+ * The batch is either a JSON array of {@link TelemetryRecord} objects or newline-delimited
+ * JSON with one record object per line. Records are streamed token by token, so no
+ * {@link TelemetryRecord} object is created and the batch is held once, as primitive columns.
+ */
+final class TelemetryRecordReader {
+
+    private TelemetryRecordReader() {
+    }
+
+    /**
+     * Reads all records of a batch.
+     *
+     * @param parser Parser positioned before the first token of the request body
+     * @return Time-sorted readings per device, in order of first appearance in the batch
+     * @throws BadRequestException if a record is not an object or misses or has an invalid field
+     * @throws IOException if the body cannot be read or is not well-formed JSON
+     */
+    static List<DeviceSeries> read(JsonParser parser) throws IOException {
+        Map<String, DeviceSeries.Builder> builders = new LinkedHashMap<>();
+        JsonToken token = parser.nextToken();
+        boolean array = token == JsonToken.START_ARRAY;
+        if (array) {
+            token = parser.nextToken();
+        }
+
+        long record = 0;
+        while (token != null && token != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                throw new BadRequestException("Record " + record + " is not a JSON object");
+            }
+            readRecord(parser, record, builders);
+            record++;
+            token = parser.nextToken();
+        }
+        if (array && (token == null || parser.nextToken() != null)) {
+            throw new BadRequestException("Records must be a single JSON array or one JSON object per line");
+        }
+
+        List<DeviceSeries> readings = new ArrayList<>(builders.size());
+        for (DeviceSeries.Builder builder : builders.values()) {
+            readings.add(builder.build());
+        }
+        return readings;
+    }
+
+    /** Reads the fields of one record object and adds it to the builder of its device */
+    private static void readRecord(JsonParser parser, long record, Map<String, DeviceSeries.Builder> builders)
+            throws IOException {
+        String deviceId = null;
+        String timestamp = null;
+        double ambientTemperature = Double.NaN;
+        double deviceTemperature = Double.NaN;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "deviceId" -> deviceId = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                case "timestamp" -> timestamp = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                case "ambientTemperature" -> ambientTemperature = value.isNumeric() ? parser.getDoubleValue() : Double.NaN;
+                case "deviceTemperature" -> deviceTemperature = value.isNumeric() ? parser.getDoubleValue() : Double.NaN;
+                default -> parser.skipChildren();
+            }
+        }
+
+        if (deviceId == null || deviceId.isEmpty()) {
+            throw new BadRequestException("Record " + record + " has no deviceId");
+        }
+        if (Double.isNaN(ambientTemperature) || Double.isNaN(deviceTemperature)) {
+            throw new BadRequestException("Record " + record + " needs numeric ambientTemperature and deviceTemperature");
+        }
+        builders.computeIfAbsent(deviceId, DeviceSeries.Builder::new)
+            .add(parseTimestamp(timestamp, record), ambientTemperature, deviceTemperature);
+    }
+
+    /** @return Epoch milliseconds of an ISO-8601 timestamp, truncated like the CSV parser does */
+    private static long parseTimestamp(String timestamp, long record) {
+        if (timestamp != null) {
+            try {
+                return Instant.parse(timestamp).toEpochMilli();
+            } catch (DateTimeParseException | ArithmeticException e) {
+                // Reported below like a missing timestamp
+            }
+        }
+        throw new BadRequestException("Record " + record + " needs an ISO-8601 timestamp (e.g., 2024-02-02T00:00:00Z)");
+    }
+}
@@ -1,28 +1,59 @@
 package org.acme.telemetry;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.Tags;
+import io.smallrye.common.annotation.RunOnVirtualThread;
+import io.smallrye.mutiny.Multi;
+import io.vertx.ext.web.RoutingContext;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.core.UriInfo;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.headers.Header;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+import org.jboss.resteasy.reactive.RestStreamElementType;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * REST endpoint for accessing device telemetry data.
- * Provides APIs to retrieve and aggregate temperature readings from devices.
+ * Provides APIs to retrieve and aggregate temperature readings from devices and to ingest new ones.
  * 
  * Example usage:
  * GET /telemetry/aggregate?from=2024-02-02T00:00:00Z&to=2024-02-03T00:00:00Z&resolution=1h
+ * GET /telemetry/aggregate?from=2024-02-02T00:00:00Z&to=2024-02-03T00:00:00Z&resolution=1h&device=DEVICE_00*
+ * GET /telemetry/aggregate/stream?resolution=10s&device=DEVICE_001
+ * GET /telemetry/top?from=2024-02-02T00:00:00Z&to=2024-02-03T00:00:00Z&metric=maxDeviceTemperature&k=10
+ * GET /telemetry/fleet?from=2024-02-02T00:00:00Z&to=2024-02-03T00:00:00Z&resolution=1h
+ * POST /telemetry/records
  */
 @Path("/telemetry")
 @Produces(MediaType.APPLICATION_JSON)
@@ -30,18 +61,80 @@ import java.util.List;
 @Tag(name = "Telemetry", description = "Operations for device telemetry data aggregation")
 public class TelemetryResource {
 
+    /** Media type of newline-delimited JSON, one record object per line */
+    static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    /** Media type of CBOR (RFC 8949), the binary encoding offered for aggregation results */
+    static final String APPLICATION_CBOR = "application/cbor";
+
     @Inject
     TelemetryService telemetryService;
     
     @Inject
     TelemetryValidator validator;
 
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    TelemetryMetrics telemetryMetrics;
+
+    @Inject
+    AggregationBroadcaster aggregationBroadcaster;
+
+    @Inject
+    AggregationCoalescer aggregationCoalescer;
+
+    @Inject
+    AggregationAdmission aggregationAdmission;
+
+    @Inject
+    FleetAggregator fleetAggregator;
+
+    /** Writes aggregation results as CBOR */
+    private final ObjectMapper cborMapper = createCborMapper();
+
+    /**
+     * Whether aggregation results of requests without a limit are serialized while they are being computed.
+     * When disabled, such requests get pages of at most the configured maximum, built before they are written.
+     * Requests with a limit or cursor are always paged.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.response.streaming'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.response.streaming", defaultValue = "true")
+    boolean streamingResponse;
+
+    /**
+     * Maximum number of buckets returned by one paged aggregation response; 0 for no maximum.
+     * Larger results are split into pages, linked by a cursor in the "Link" response header.
+     * Streamed responses are not limited, as they never hold more than one bucket in memory.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.response.max-buckets'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.response.max-buckets", defaultValue = "100000")
+    int maxBuckets;
+
     /**
      * Retrieves aggregated telemetry data for a specified time range and resolution.
      * 
      * This endpoint aggregates temperature readings into time buckets and calculates
      * statistics (min, max, average) for each bucket. The data can be aggregated at
-     * different resolutions, from 10 seconds to 1 day.
+     * different resolutions, from 10 seconds to 1 day. The query can be restricted to some
+     * devices, by ID or by ID prefix; readings of other devices are not read at all.
+     * Percentiles of the device temperature (e.g. p50, p95, p99) are added to every bucket on request;
+     * they are estimated from a quantile sketch within 1% of the exact value.
+     * 
+     * Without a {@code limit}, all buckets are written while they are computed. With one, results are
+     * split into pages of at most {@code limit} buckets, and never more than the configured
+     * maximum. When there are more buckets, the "Link" header holds the URL of the next page with
+     * rel="next"; its opaque {@code cursor} parameter resumes the aggregation where the page ended.
+     * Identical requests arriving while the same page or stream is computed share that computation
+     * and get its buckets, instead of aggregating them again.
+     * 
+     * Requests run on virtual threads, so reading and aggregating block neither the event loop nor
+     * a worker thread. Only a limited number of aggregations run at once and a limited number wait
+     * for them; beyond that the request is rejected with 429 and a "Retry-After" header.
+     * 
+     * Results are JSON by default. Clients accepting "application/cbor" get the same buckets as CBOR
+     * instead, with start and end times as epoch milliseconds; errors are always JSON.
      * 
      * Example Request:
      * GET /telemetry/aggregate?from=2024-02-02T00:00:00Z&to=2024-02-03T00:00:00Z&resolution=1h
@@ -49,10 +142,18 @@ public class TelemetryResource {
      * @param fromTime Start time in ISO-8601 format (e.g., "2024-02-02T00:00:00Z")
      * @param toTime End time in ISO-8601 format
      * @param resolution Time bucket size (e.g., "10s", "1m", "1h", "1d")
+     * @param devices Device IDs or prefixes ending with '*' (e.g., "DEVICE_00*"); all devices if omitted
+     * @param percentiles Percentiles of the device temperature to add to every bucket (e.g., "50", "99.9"); none if omitted
+     * @param limit Maximum number of buckets in the response; the configured maximum if omitted
+     * @param cursor Cursor of the page to return, taken from the "Link" header of the previous page
+     * @param uriInfo Request URI, from which the link to the next page is built
+     * @param headers Request headers, whose "Accept" header selects JSON or CBOR
      * @return Response containing list of aggregated statistics or error details
      */
     @GET
     @Path("/aggregate")
+    @Produces({MediaType.APPLICATION_JSON, APPLICATION_CBOR})
+    @RunOnVirtualThread
     @Operation(
         summary = "Aggregate telemetry data",
         description = "Retrieves aggregated temperature data for devices within a specified time range and resolution"
@@ -61,8 +162,14 @@ public class TelemetryResource {
         @APIResponse(
             responseCode = "200",
             description = "Successfully retrieved aggregated data",
-            content = @Content(mediaType = "application/json",
-                schema = @Schema(implementation = AggregatedTelemetry.class))
+            headers = @Header(name = "Link",
+                description = "URL of the next page with rel=\"next\", if there are more buckets"),
+            content = {
+                @Content(mediaType = "application/json",
+                    schema = @Schema(implementation = AggregatedTelemetry.class)),
+                @Content(mediaType = APPLICATION_CBOR,
+                    schema = @Schema(implementation = AggregatedTelemetry.class))
+            }
         ),
         @APIResponse(
             responseCode = "400",
@@ -70,6 +177,13 @@ public class TelemetryResource {
             content = @Content(mediaType = "application/json",
                 schema = @Schema(implementation = ErrorResponse.class))
         ),
+        @APIResponse(
+            responseCode = "429",
+            description = "Too many concurrent aggregations",
+            headers = @Header(name = "Retry-After", description = "Seconds after which the request may be retried"),
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ErrorResponse.class))
+        ),
         @APIResponse(
             responseCode = "500",
             description = "Internal server error",
@@ -91,13 +205,37 @@ public class TelemetryResource {
             @Parameter(description = "Time resolution (10s, 30s, 1m, 5m, 15m, 30m, 1h, 6h, 12h, 1d)", 
                       example = "1h",
                       required = true)
-            @QueryParam("resolution") String resolution) {
+            @QueryParam("resolution") String resolution,
+
+            @Parameter(description = "Device ID, or prefix ending with '*'; repeat for several devices, omit for all",
+                      example = "DEVICE_001")
+            @QueryParam("device") List<String> devices,
+
+            @Parameter(description = "Percentile of the device temperature between 0 and 100, or a comma-separated list; "
+                      + "repeat for several percentiles, omit for none",
+                      example = "95")
+            @QueryParam("percentile") List<String> percentiles,
+
+            @Parameter(description = "Maximum number of buckets per page (capped by the server maximum)",
+                      example = "1000")
+            @QueryParam("limit") String limit,
+
+            @Parameter(description = "Opaque cursor of the next page, from the 'Link' header of the previous page")
+            @QueryParam("cursor") String cursor,
+
+            @Context UriInfo uriInfo,
+
+            @Context HttpHeaders headers,
+
+            @Context RoutingContext routingContext) {
         
+        long started = System.nanoTime();
         try {
             // Step 1: Validate parameter presence
             if (fromTime == null || toTime == null || resolution == null) {
                 return Response.status(Response.Status.BAD_REQUEST)
                     .entity(new ErrorResponse("Missing required parameters", "MISSING_PARAMETERS"))
+                    .type(MediaType.APPLICATION_JSON)
                     .build();
             }
 
@@ -108,52 +246,610 @@ public class TelemetryResource {
             
             // Step 3: Validate and parse resolution
             validator.validateResolution(resolution);
-            Duration resolutionDuration = parseDuration(resolution);
-            
-            // Step 4: Retrieve aggregated data
-            List<AggregatedTelemetry> result = telemetryService.aggregateTelemetry(from, to, resolutionDuration);
-            return Response.ok(result).build();
+            Duration resolutionDuration = TelemetryValidator.parseResolution(resolution);
+
+            // Step 4: Parse the device filter, percentiles and page parameters
+            DeviceFilter deviceFilter = DeviceFilter.parse(devices);
+            Percentiles requestedPercentiles = Percentiles.parse(percentiles);
+            int pageSize = TelemetryValidator.parsePageSize(limit, maxBuckets);
+            AggregationCursor resumeAt = cursor == null ? null : AggregationCursor.decode(cursor);
+            boolean cbor = acceptsCbor(headers);
+            Tags tags = TelemetryMetrics.queryTags(resolutionDuration.toMillis(), from.toEpochMilli(), to.toEpochMilli());
+            telemetryMetrics.recordStage(TelemetryMetrics.STAGE_VALIDATE, tags, System.nanoTime() - started);
             
+            // Step 5: Without a limit, write all buckets while they are computed; memory stays bounded without pages
+            if (streamingResponse && limit == null && resumeAt == null) {
+                // Admitted before the response is committed, so a rejection can still be sent as 429;
+                // identical concurrent requests share one computation
+                AggregationCoalescer.StreamReader stream = aggregationCoalescer.stream(from, to, resolutionDuration,
+                    deviceFilter, requestedPercentiles);
+                telemetryMetrics.recordExecution(tags, stream.coalesced());
+                // The body may never be written (HEAD requests, failed responses): then leave the stream when the
+                // response ends. Once writing has started, only the writer leaves, since the computation keeps
+                // running until its next bucket cannot be written even if the client disconnects.
+                AtomicBoolean writing = new AtomicBoolean();
+                routingContext.addEndHandler(ended -> {
+                    if (writing.compareAndSet(false, true)) {
+                        stream.close();
+                    }
+                });
+                return Response.ok(streamAggregation(cbor, stream, tags, writing),
+                    cbor ? APPLICATION_CBOR : MediaType.APPLICATION_JSON).build();
+            }
+
+            // Step 6: Retrieve one page of aggregated data, linking to the next one
+            long aggregating = System.nanoTime();
+            AggregationCoalescer.Page page = aggregationCoalescer.aggregatePage(from, to, resolutionDuration,
+                deviceFilter, requestedPercentiles, resumeAt, pageSize > 0 ? pageSize : Integer.MAX_VALUE);
+            telemetryMetrics.recordStage(TelemetryMetrics.STAGE_AGGREGATE, tags, System.nanoTime() - aggregating);
+            telemetryMetrics.recordExecution(tags, page.coalesced());
+            telemetryMetrics.recordBuckets(tags, page.buckets().size());
+            Response.ResponseBuilder response = Response.ok(writeBuckets(cbor, page.buckets(), tags),
+                cbor ? APPLICATION_CBOR : MediaType.APPLICATION_JSON);
+            if (page.next() != null) {
+                response.link(uriInfo.getRequestUriBuilder().replaceQueryParam("cursor", page.next().encode()).build(),
+                    "next");
+            }
+            return response.build();
+
         } catch (DateTimeParseException e) {
             // Handle invalid date format
             return Response.status(Response.Status.BAD_REQUEST)
                 .entity(new ErrorResponse(
                     "Invalid date format. Use ISO-8601 format (e.g., 2024-02-02T00:00:00Z)", 
                     "INVALID_DATE_FORMAT"))
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+        } catch (BadRequestException e) {
+            // Handle validation errors
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(new ErrorResponse(e.getMessage(), "INVALID_PARAMETERS"))
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+        } catch (AggregationAdmission.RejectedException e) {
+            // Handle overload
+            return Response.status(Response.Status.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, e.getRetryAfterSeconds())
+                .entity(new ErrorResponse(e.getMessage(), "TOO_MANY_REQUESTS"))
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+        } catch (Exception e) {
+            // Handle unexpected errors
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(new ErrorResponse("Internal server error", "INTERNAL_ERROR"))
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+        }
+    }
+
+    /**
+     * Ranks devices by a statistic of their readings within a time range, e.g. the hottest devices of a day.
+     * 
+     * Every device's readings in the range are aggregated into a single bucket spanning the range, and
+     * only the k best-ranked buckets are kept while the devices are scanned, so the response holds k
+     * buckets however many devices there are. Devices without readings in the range are not ranked;
+     * ties are broken by device ID.
+     * 
+     * Example Request:
+     * GET /telemetry/top?from=2024-02-02T00:00:00Z&to=2024-02-03T00:00:00Z&metric=maxDeviceTemperature&k=10
+     * 
+     * @param fromTime Start time in ISO-8601 format (e.g., "2024-02-02T00:00:00Z")
+     * @param toTime End time in ISO-8601 format
+     * @param metric Property of the aggregated statistics to rank by (e.g., "maxDeviceTemperature")
+     * @param k Number of devices to return; 10 if omitted
+     * @param order "desc" to rank the highest values first, "asc" for the lowest; "desc" if omitted
+     * @param devices Device IDs or prefixes ending with '*' to rank; all devices if omitted
+     * @return Response containing the statistics of the top devices, best-ranked first, or error details
+     */
+    @GET
+    @Path("/top")
+    @RunOnVirtualThread
+    @Operation(
+        summary = "Rank devices",
+        description = "Returns the devices with the highest (or lowest) value of a statistic within a time range"
+    )
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "Statistics of the top devices over the whole range, best-ranked first",
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = AggregatedTelemetry.class))
+        ),
+        @APIResponse(
+            responseCode = "400",
+            description = "Invalid parameters provided",
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ErrorResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "429",
+            description = "Too many concurrent aggregations",
+            headers = @Header(name = "Retry-After", description = "Seconds after which the request may be retried"),
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ErrorResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "500",
+            description = "Internal server error",
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ErrorResponse.class))
+        )
+    })
+    public Response topDevices(
+            @Parameter(description = "Start time (ISO-8601 format)",
+                      example = "2024-02-02T00:00:00Z",
+                      required = true)
+            @QueryParam("from") String fromTime,
+
+            @Parameter(description = "End time (ISO-8601 format)",
+                      example = "2024-02-03T00:00:00Z",
+                      required = true)
+            @QueryParam("to") String toTime,
+
+            @Parameter(description = "Statistic to rank by (maxDeviceTemperature, minDeviceTemperature, avgDeviceTemperature, "
+                      + "maxAmbientTemperature, minAmbientTemperature, avgAmbientTemperature, recordCount)",
+                      example = "maxDeviceTemperature",
+                      required = true)
+            @QueryParam("metric") String metric,
+
+            @Parameter(description = "Number of devices to return (1 to " + FleetAggregator.MAX_TOP + ", default 10)",
+                      example = "10")
+            @QueryParam("k") String k,
+
+            @Parameter(description = "'desc' to rank the highest values first (default), 'asc' for the lowest",
+                      example = "desc")
+            @QueryParam("order") String order,
+
+            @Parameter(description = "Device ID, or prefix ending with '*'; repeat for several devices, omit for all",
+                      example = "DEVICE_00*")
+            @QueryParam("device") List<String> devices) {
+
+        try {
+            // Step 1: Validate parameter presence
+            if (fromTime == null || toTime == null || metric == null) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(new ErrorResponse("Missing required parameters", "MISSING_PARAMETERS"))
+                    .type(MediaType.APPLICATION_JSON)
+                    .build();
+            }
+
+            // Step 2: Parse and validate the parameters
+            Instant from = Instant.parse(fromTime);
+            Instant to = Instant.parse(toTime);
+            validator.validateTimeRange(from, to);
+            RankingMetric rankingMetric = RankingMetric.parse(metric);
+            int count = TelemetryValidator.parseTopCount(k);
+            boolean descending = TelemetryValidator.parseDescending(order);
+            DeviceFilter deviceFilter = DeviceFilter.parse(devices);
+
+            // Step 3: Rank the devices in one scan
+            try (AggregationAdmission.Permit permit = aggregationAdmission.admit()) {
+                return Response.ok(fleetAggregator.topDevices(from, to, deviceFilter, rankingMetric, descending, count))
+                    .build();
+            }
+
+        } catch (DateTimeParseException e) {
+            // Handle invalid date format
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(new ErrorResponse(
+                    "Invalid date format. Use ISO-8601 format (e.g., 2024-02-02T00:00:00Z)",
+                    "INVALID_DATE_FORMAT"))
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+        } catch (BadRequestException e) {
+            // Handle validation errors
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(new ErrorResponse(e.getMessage(), "INVALID_PARAMETERS"))
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+        } catch (AggregationAdmission.RejectedException e) {
+            // Handle overload
+            return Response.status(Response.Status.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, e.getRetryAfterSeconds())
+                .entity(new ErrorResponse(e.getMessage(), "TOO_MANY_REQUESTS"))
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+        } catch (Exception e) {
+            // Handle unexpected errors
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(new ErrorResponse("Internal server error", "INTERNAL_ERROR"))
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+        }
+    }
+
+    /**
+     * Aggregates the readings of all devices together into time buckets, e.g. the fleet's average
+     * device temperature per hour.
+     * 
+     * Every bucket combines the readings of all selected devices, so the response has one bucket per
+     * time slot however many devices there are, and carries no device ID. Unlike per-device
+     * aggregation, buckets are laid out from {@code from}, so the slots of all devices line up.
+     * Percentiles are merged from the devices' readings into one sketch per bucket.
+     * 
+     * Example Request:
+     * GET /telemetry/fleet?from=2024-02-02T00:00:00Z&to=2024-02-03T00:00:00Z&resolution=1h&percentile=99
+     * 
+     * @param fromTime Start time in ISO-8601 format (e.g., "2024-02-02T00:00:00Z")
+     * @param toTime End time in ISO-8601 format
+     * @param resolution Time bucket size (e.g., "10s", "1m", "1h", "1d")
+     * @param devices Device IDs or prefixes ending with '*' to include; all devices if omitted
+     * @param percentiles Percentiles of the device temperature to add to every bucket; none if omitted
+     * @return Response containing the fleet-wide statistics per bucket or error details
+     */
+    @GET
+    @Path("/fleet")
+    @RunOnVirtualThread
+    @Operation(
+        summary = "Aggregate telemetry across devices",
+        description = "Retrieves temperature statistics of all devices together per time bucket"
+    )
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "Successfully retrieved fleet-wide aggregated data",
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = AggregatedTelemetry.class))
+        ),
+        @APIResponse(
+            responseCode = "400",
+            description = "Invalid parameters provided, or more buckets than the configured maximum",
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ErrorResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "429",
+            description = "Too many concurrent aggregations",
+            headers = @Header(name = "Retry-After", description = "Seconds after which the request may be retried"),
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ErrorResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "500",
+            description = "Internal server error",
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ErrorResponse.class))
+        )
+    })
+    public Response aggregateFleet(
+            @Parameter(description = "Start time (ISO-8601 format)",
+                      example = "2024-02-02T00:00:00Z",
+                      required = true)
+            @QueryParam("from") String fromTime,
+
+            @Parameter(description = "End time (ISO-8601 format)",
+                      example = "2024-02-03T00:00:00Z",
+                      required = true)
+            @QueryParam("to") String toTime,
+
+            @Parameter(description = "Time resolution (10s, 30s, 1m, 5m, 15m, 30m, 1h, 6h, 12h, 1d)",
+                      example = "1h",
+                      required = true)
+            @QueryParam("resolution") String resolution,
+
+            @Parameter(description = "Device ID, or prefix ending with '*'; repeat for several devices, omit for all",
+                      example = "DEVICE_00*")
+            @QueryParam("device") List<String> devices,
+
+            @Parameter(description = "Percentile of the device temperature between 0 and 100, or a comma-separated list; "
+                      + "repeat for several percentiles, omit for none",
+                      example = "95")
+            @QueryParam("percentile") List<String> percentiles) {
+
+        try {
+            // Step 1: Validate parameter presence
+            if (fromTime == null || toTime == null || resolution == null) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(new ErrorResponse("Missing required parameters", "MISSING_PARAMETERS"))
+                    .type(MediaType.APPLICATION_JSON)
+                    .build();
+            }
+
+            // Step 2: Parse and validate the parameters
+            Instant from = Instant.parse(fromTime);
+            Instant to = Instant.parse(toTime);
+            validator.validateTimeRange(from, to);
+            validator.validateResolution(resolution);
+            Duration resolutionDuration = TelemetryValidator.parseResolution(resolution);
+            DeviceFilter deviceFilter = DeviceFilter.parse(devices);
+            Percentiles requestedPercentiles = Percentiles.parse(percentiles);
+            long bucketCount = FleetAggregator.bucketCount(TelemetryService.ceilToMillis(from),
+                TelemetryService.endMillis(to), resolutionDuration.toMillis());
+            if (maxBuckets > 0 && bucketCount > maxBuckets) {
+                throw new BadRequestException("The fleet rollup would have " + bucketCount
+                    + " buckets, more than the maximum of " + maxBuckets + ". Use a coarser resolution or a shorter range");
+            }
+
+            // Step 3: Aggregate all devices in one scan
+            try (AggregationAdmission.Permit permit = aggregationAdmission.admit()) {
+                List<AggregatedTelemetry> buckets = new ArrayList<>();
+                fleetAggregator.aggregateFleet(from, to, resolutionDuration, deviceFilter, requestedPercentiles,
+                    buckets::add);
+                return Response.ok(buckets).build();
+            }
+
+        } catch (DateTimeParseException e) {
+            // Handle invalid date format
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(new ErrorResponse(
+                    "Invalid date format. Use ISO-8601 format (e.g., 2024-02-02T00:00:00Z)",
+                    "INVALID_DATE_FORMAT"))
+                .type(MediaType.APPLICATION_JSON)
                 .build();
         } catch (BadRequestException e) {
             // Handle validation errors
             return Response.status(Response.Status.BAD_REQUEST)
                 .entity(new ErrorResponse(e.getMessage(), "INVALID_PARAMETERS"))
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+        } catch (AggregationAdmission.RejectedException e) {
+            // Handle overload
+            return Response.status(Response.Status.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, e.getRetryAfterSeconds())
+                .entity(new ErrorResponse(e.getMessage(), "TOO_MANY_REQUESTS"))
+                .type(MediaType.APPLICATION_JSON)
                 .build();
         } catch (Exception e) {
             // Handle unexpected errors
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                 .entity(new ErrorResponse("Internal server error", "INTERNAL_ERROR"))
+                .type(MediaType.APPLICATION_JSON)
                 .build();
         }
     }
 
     /**
-     * Converts a string resolution value to a Duration object.
+     * Subscribes to aggregated telemetry of ingested records as Server-Sent Events.
+     * 
+     * Every event carries one bucket as JSON and is sent once the bucket is closed, i.e. once the
+     * device reports a reading at or after the bucket's end. Buckets are aligned to the epoch.
+     * All subscribers of a resolution share one aggregation, so each reading is folded only once.
+     * 
+     * Example Request:
+     * GET /telemetry/aggregate/stream?resolution=10s&device=DEVICE_001&device=DEVICE_002
+     * 
+     * @param resolution Time bucket size (e.g., "10s", "1m", "1h", "1d")
+     * @param devices Device IDs or prefixes ending with '*' to receive buckets of; all devices if omitted
+     * @return Endless stream of closed buckets
+     */
+    @GET
+    @Path("/aggregate/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @Operation(
+        summary = "Stream live aggregated telemetry",
+        description = "Pushes every bucket of ingested telemetry as a Server-Sent Event once the bucket is closed"
+    )
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "Stream of closed buckets",
+            content = @Content(mediaType = "text/event-stream",
+                schema = @Schema(implementation = AggregatedTelemetry.class))
+        ),
+        @APIResponse(
+            responseCode = "400",
+            description = "Invalid parameters provided",
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ErrorResponse.class))
+        )
+    })
+    public Multi<AggregatedTelemetry> streamAggregates(
+            @Parameter(description = "Time resolution (10s, 30s, 1m, 5m, 15m, 30m, 1h, 6h, 12h, 1d)",
+                      example = "10s",
+                      required = true)
+            @QueryParam("resolution") String resolution,
+
+            @Parameter(description = "Device ID, or prefix ending with '*'; repeat for several devices, omit for all",
+                      example = "DEVICE_001")
+            @QueryParam("device") List<String> devices) {
+
+        // Errors are mapped by TelemetryExceptionMapper, as the response is a stream
+        validator.validateResolution(resolution);
+        Duration resolutionDuration = TelemetryValidator.parseResolution(resolution);
+        return aggregationBroadcaster.subscribe(resolutionDuration, DeviceFilter.parse(devices));
+    }
+
+    /**
+     * Ingests a batch of telemetry records.
      * 
-     * @param resolution String value like "10s", "1m", "1h", "1d"
-     * @return Corresponding Duration object
-     * @throws BadRequestException if resolution format is invalid
+     * The records are appended to the in-memory store and are included in every aggregation
+     * started after the response was sent. Records do not have to arrive in time order.
+     * 
+     * Example Request:
+     * POST /telemetry/records
+     * [{"deviceId":"DEVICE_001","timestamp":"2024-02-02T00:00:00Z","ambientTemperature":20.5,"deviceTemperature":50.75}]
+     * 
+     * @param body JSON array of records, or newline-delimited JSON with one record per line
+     * @return Response containing the number of ingested records or error details
      */
-    private Duration parseDuration(String resolution) {
-        return switch (resolution.toLowerCase()) {
-            case "10s" -> Duration.ofSeconds(10);
-            case "30s" -> Duration.ofSeconds(30);
-            case "1m" -> Duration.ofMinutes(1);
-            case "5m" -> Duration.ofMinutes(5);
-            case "15m" -> Duration.ofMinutes(15);
-            case "30m" -> Duration.ofMinutes(30);
-            case "1h" -> Duration.ofHours(1);
-            case "6h" -> Duration.ofHours(6);
-            case "12h" -> Duration.ofHours(12);
-            case "1d" -> Duration.ofDays(1);
-            default -> throw new BadRequestException("Unsupported resolution: " + resolution);
+    @POST
+    @Path("/records")
+    @Consumes({MediaType.APPLICATION_JSON, APPLICATION_NDJSON})
+    @Operation(
+        summary = "Ingest telemetry records",
+        description = "Appends a batch of telemetry records, posted as a JSON array or as newline-delimited JSON, to the store"
+    )
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "Records ingested and visible to aggregations",
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = IngestionResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "400",
+            description = "Malformed records; nothing was ingested",
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ErrorResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "409",
+            description = "The configured storage format does not accept records",
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ErrorResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "500",
+            description = "Internal server error",
+            content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ErrorResponse.class))
+        )
+    })
+    public Response ingestRecords(InputStream body) {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            // Step 1: Read the whole batch, so a malformed record rejects it before anything is stored
+            List<DeviceSeries> readings = TelemetryRecordReader.read(parser);
+
+            // Step 2: Append it to the store
+            long recordCount = telemetryService.ingest(readings);
+            return Response.ok(new IngestionResponse(recordCount, readings.size())).build();
+
+        } catch (JsonProcessingException e) {
+            // Handle malformed JSON
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(new ErrorResponse("Malformed JSON: " + e.getOriginalMessage(), "INVALID_RECORDS"))
+                .build();
+        } catch (BadRequestException e) {
+            // Handle records with missing or invalid fields
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(new ErrorResponse(e.getMessage(), "INVALID_RECORDS"))
+                .build();
+        } catch (IllegalStateException e) {
+            // Handle a store that cannot be appended to
+            return Response.status(Response.Status.CONFLICT)
+                .entity(new ErrorResponse(e.getMessage(), "INGESTION_UNSUPPORTED"))
+                .build();
+        } catch (Exception e) {
+            // Handle unexpected errors
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(new ErrorResponse("Internal server error", "INTERNAL_ERROR"))
+                .build();
+        }
+    }
+
+    /**
+     * Creates the mapper writing CBOR responses. Instants are written as epoch milliseconds,
+     * which CBOR encodes as integers, instead of the ISO-8601 strings of JSON responses.
+     *
+     * @return Mapper for CBOR output
+     */
+    static ObjectMapper createCborMapper() {
+        return CBORMapper.builder()
+            .addModule(new JavaTimeModule())
+            .enable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS)
+            .build();
+    }
+
+    /**
+     * Chooses the response encoding from the "Accept" header, in order of client preference.
+     * JSON wins for wildcards and when neither is listed.
+     *
+     * @param headers Request headers
+     * @return true if the client prefers CBOR over JSON
+     */
+    static boolean acceptsCbor(HttpHeaders headers) {
+        MediaType cbor = MediaType.valueOf(APPLICATION_CBOR);
+        for (MediaType accepted : headers.getAcceptableMediaTypes()) {
+            if (accepted.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+                return false;
+            }
+            if (accepted.isCompatible(cbor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes buckets that were already aggregated as an array, recording the time and bytes it takes.
+     *
+     * @param cbor Whether to write CBOR instead of JSON
+     * @param buckets Aggregated buckets
+     * @param tags Query tags of the metrics
+     * @return Response body writing the buckets
+     */
+    private StreamingOutput writeBuckets(boolean cbor, List<AggregatedTelemetry> buckets, Tags tags) {
+        ObjectMapper mapper = cbor ? cborMapper : objectMapper;
+        return output -> {
+            long started = System.nanoTime();
+            CountingOutputStream counted = new CountingOutputStream(output);
+            try (JsonGenerator generator = mapper.getFactory().createGenerator(counted)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                mapper.writeValue(generator, buckets);
+            }
+            telemetryMetrics.recordStage(TelemetryMetrics.STAGE_SERIALIZE, tags, System.nanoTime() - started);
+            telemetryMetrics.recordResponseBytes(tags, cbor ? "cbor" : "json", counted.count);
+        };
+    }
+
+    /**
+     * Writes aggregated telemetry data as an array while the buckets are produced,
+     * so only the bucket being serialized is held in memory and the first bytes go out
+     * before the aggregation is complete. The response status is committed at that point,
+     * so parameters must be validated and the aggregation admitted before.
+     *
+     * @param cbor Whether to write CBOR instead of JSON
+     * @param stream Buckets of the aggregation, possibly shared with other requests; closed once written
+     * @param tags Query tags of the metrics
+     * @param writing Set by whoever claims the stream first: the writer when it starts, or the caller when
+     *                the response ended without a body; the writer writes nothing if it lost the claim
+     * @return Response body writing the same array as the materialized list
+     */
+    private StreamingOutput streamAggregation(boolean cbor, AggregationCoalescer.StreamReader stream, Tags tags,
+                                              AtomicBoolean writing) {
+        ObjectMapper mapper = cbor ? cborMapper : objectMapper;
+        ObjectWriter writer = mapper.writerFor(AggregatedTelemetry.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return output -> {
+            if (!writing.compareAndSet(false, true)) {
+                // The response already ended and left the stream
+                return;
+            }
+            long started = System.nanoTime();
+            long[] buckets = new long[1];
+            CountingOutputStream counted = new CountingOutputStream(output);
+            try (stream; JsonGenerator generator = mapper.getFactory().createGenerator(counted)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.writeStartArray();
+                stream.forEach(bucket -> {
+                    try {
+                        writer.writeValue(generator, bucket);
+                        buckets[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            telemetryMetrics.recordStage(TelemetryMetrics.STAGE_STREAM, tags, System.nanoTime() - started);
+            telemetryMetrics.recordBuckets(tags, buckets[0]);
+            telemetryMetrics.recordResponseBytes(tags, cbor ? "cbor" : "json", counted.count);
         };
     }
+
+    /** Passes bytes on to the response while counting them */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream target) {
+            super(target);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,182 @@
+package org.acme.telemetry;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rollup pyramid: per device, one {@link RollupSeries} for each materialized base resolution.
+ * Every supported resolution is a whole multiple of a smaller one, so a coarse bucket can be
+ * merged from the buckets of the nearest finer rollup instead of from raw readings.
+ * Ingested readings are folded in incrementally by {@link #append}, which returns a new pyramid.
+ * A sketched pyramid keeps a quantile sketch per bucket, so it can answer percentile queries too.
+ */
+final class TelemetryRollups {
+
+    /** Materialized resolutions in milliseconds, ascending */
+    private final long[] resolutions;
+
+    /** Whether every bucket keeps a sketch of its device temperatures */
+    private final boolean sketched;
+
+    private final Map<String, RollupSeries[]> devices;
+
+    private TelemetryRollups(long[] resolutions, boolean sketched, Map<String, RollupSeries[]> devices) {
+        this.resolutions = resolutions;
+        this.sketched = sketched;
+        this.devices = devices;
+    }
+
+    /**
+     * Builds the rollups of in-memory device series.
+     *
+     * @param resolutions Resolutions to materialize in milliseconds, ascending
+     * @param sketched Whether every bucket keeps a sketch of its device temperatures
+     * @param series Time-sorted series of all devices
+     * @return The rollup pyramid
+     */
+    static TelemetryRollups fromSeries(long[] resolutions, boolean sketched, Collection<DeviceSeries> series) {
+        Map<String, RollupSeries[]> devices = new HashMap<>();
+        for (DeviceSeries device : series) {
+            devices.put(device.getDeviceId(), rollUp(resolutions, sketched, device));
+        }
+        return new TelemetryRollups(resolutions, sketched, devices);
+    }
+
+    /** @return Rollups of one device's series at every resolution */
+    private static RollupSeries[] rollUp(long[] resolutions, boolean sketched, DeviceSeries device) {
+        RollupSeries[] levels = new RollupSeries[resolutions.length];
+        for (int level = 0; level < resolutions.length; level++) {
+            RollupSeries.Builder builder = new RollupSeries.Builder(resolutions[level], sketched);
+            long[] timestamps = device.getTimestamps();
+            double[] ambientTemps = device.getAmbientTemperatures();
+            double[] deviceTemps = device.getDeviceTemperatures();
+            for (int i = 0; i < device.size(); i++) {
+                builder.add(timestamps[i], ambientTemps[i], deviceTemps[i]);
+            }
+            levels[level] = builder.build();
+        }
+        return levels;
+    }
+
+    /**
+     * Returns the pyramid after readings were appended to the store.
+     * Readings behind a device's last reading update its open buckets and seal the buckets they
+     * leave behind, O(1) per reading and level. A device that received late readings, or whose
+     * rollups already missed readings, is rolled up again from its whole series.
+     *
+     * @param previous Series of all devices before the append
+     * @param current Series of all devices after the append
+     * @param readings Time-sorted readings appended per device
+     * @return The updated pyramid; this one is left unchanged
+     */
+    TelemetryRollups append(Map<String, DeviceSeries> previous, Map<String, DeviceSeries> current,
+                            List<DeviceSeries> readings) {
+        Map<String, RollupSeries[]> updated = new HashMap<>(devices);
+        for (DeviceSeries appended : readings) {
+            String deviceId = appended.getDeviceId();
+            DeviceSeries before = previous.get(deviceId);
+            DeviceSeries after = current.get(deviceId);
+            RollupSeries[] levels = devices.get(deviceId);
+            boolean extendable = levels != null && before != null
+                && before.getGeneration() == after.getGeneration()
+                && levels[0].getReadingCount() == before.size();
+            if (!extendable) {
+                updated.put(deviceId, rollUp(resolutions, sketched, after));
+                continue;
+            }
+            RollupSeries[] extended = new RollupSeries[levels.length];
+            for (int level = 0; level < levels.length; level++) {
+                extended[level] = levels[level].append(appended);
+            }
+            updated.put(deviceId, extended);
+        }
+        return new TelemetryRollups(resolutions, sketched, updated);
+    }
+
+    /**
+     * Builds the rollups of a segment in one sequential scan.
+     *
+     * @param resolutions Resolutions to materialize in milliseconds, ascending
+     * @param sketched Whether every bucket keeps a sketch of its device temperatures
+     * @param segment Segment holding the readings of all devices
+     * @return The rollup pyramid
+     */
+    static TelemetryRollups fromSegment(long[] resolutions, boolean sketched, TelemetryRows segment) {
+        RollupSeries.Builder[][] builders = new RollupSeries.Builder[segment.getDeviceCount()][resolutions.length];
+        for (RollupSeries.Builder[] levels : builders) {
+            for (int level = 0; level < resolutions.length; level++) {
+                levels[level] = new RollupSeries.Builder(resolutions[level], sketched);
+            }
+        }
+        segment.scan(Long.MIN_VALUE, Long.MAX_VALUE, (deviceIndex, epochMillis, ambientTemperature, deviceTemperature) -> {
+            for (RollupSeries.Builder builder : builders[deviceIndex]) {
+                builder.add(epochMillis, ambientTemperature, deviceTemperature);
+            }
+        });
+
+        Map<String, RollupSeries[]> devices = new HashMap<>();
+        for (int deviceIndex = 0; deviceIndex < builders.length; deviceIndex++) {
+            RollupSeries[] levels = new RollupSeries[resolutions.length];
+            for (int level = 0; level < resolutions.length; level++) {
+                levels[level] = builders[deviceIndex][level].build();
+            }
+            devices.put(segment.getDeviceId(deviceIndex), levels);
+        }
+        return new TelemetryRollups(resolutions, sketched, devices);
+    }
+
+    /** @return Whether every bucket keeps a sketch, so percentile queries can be merged from the rollups */
+    boolean isSketched() {
+        return sketched;
+    }
+
+    /**
+     * Picks the coarsest materialized resolution a query can be answered from.
+     * It must divide the requested resolution, so coarse buckets consist of whole rollup buckets,
+     * and the query must start on one of its bucket boundaries.
+     *
+     * @param fromMillis Start of the queried range in epoch milliseconds
+     * @param resolutionMillis Requested bucket size in milliseconds
+     * @return Level to use with {@link #get}, or -1 if no rollup fits
+     */
+    int chooseLevel(long fromMillis, long resolutionMillis) {
+        for (int level = resolutions.length - 1; level >= 0; level--) {
+            long resolution = resolutions[level];
+            if (resolution <= resolutionMillis && resolutionMillis % resolution == 0
+                    && Math.floorMod(fromMillis, resolution) == 0) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    /** @return Bucket size of the given level in milliseconds */
+    long getResolution(int level) {
+        return resolutions[level];
+    }
+
+    /**
+     * @param deviceId Device identifier
+     * @param level Level returned by {@link #chooseLevel}
+     * @return The device's rollup at that level, or null for an unknown device
+     */
+    RollupSeries get(String deviceId, int level) {
+        RollupSeries[] levels = devices.get(deviceId);
+        return levels == null ? null : levels[level];
+    }
+
+    /**
+     * Looks up the rollup of an in-memory series, which may have received readings after the
+     * rollups were built; its rollup only stands for the series while it covers every reading.
+     *
+     * @param series Current series of the device
+     * @param level Level returned by {@link #chooseLevel}
+     * @return The device's rollup at that level, or null for an unknown device or a rollup missing readings
+     */
+    RollupSeries get(DeviceSeries series, int level) {
+        RollupSeries rollup = get(series.getDeviceId(), level);
+        return rollup != null && rollup.getReadingCount() == series.size() ? rollup : null;
+    }
+}
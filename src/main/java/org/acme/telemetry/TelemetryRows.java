@@ -0,0 +1,73 @@
+package org.acme.telemetry;
+
+import java.util.function.IntFunction;
+
+/**
+ * Readings of all devices in time order, read from storage on demand instead of being held in memory.
+ * Devices are addressed by dense indexes into a dictionary, see {@link #getDeviceId(int)}.
+ * Implemented by a single {@link TelemetrySegment}, by a directory of {@link TelemetryPartitions}
+ * and by the in-memory blocks of {@link CompressedTelemetry}.
+ */
+interface TelemetryRows {
+
+    /** @return Number of devices in the dictionary */
+    int getDeviceCount();
+
+    /**
+     * @param deviceIndex Index handed to {@link TelemetryCsvParser.RowHandler#onRow}
+     * @return The device identifier for that index
+     */
+    String getDeviceId(int deviceIndex);
+
+    /** @return Total number of rows */
+    long getRowCount();
+
+    /**
+     * Counts the rows of all devices within a time range without visiting them.
+     *
+     * @param fromMillis Start of the range in epoch milliseconds (inclusive)
+     * @param toMillis End of the range in epoch milliseconds (exclusive)
+     * @return Number of rows within the range
+     */
+    long countRows(long fromMillis, long toMillis);
+
+    /**
+     * Visits the rows of some devices within a time range in timestamp order.
+     * Rows of different devices may be interleaved or visited device by device.
+     *
+     * @param fromMillis Start of the range in epoch milliseconds (inclusive)
+     * @param toMillis End of the range in epoch milliseconds (exclusive)
+     * @param devices Whether each device index is visited, or null to visit all devices
+     * @param handler Receives every row of a visited device within the range
+     * @return Number of rows handed to the handler
+     */
+    long scan(long fromMillis, long toMillis, boolean[] devices, TelemetryCsvParser.RowHandler handler);
+
+    /**
+     * Visits all rows within a time range in timestamp order.
+     *
+     * @param fromMillis Start of the range in epoch milliseconds (inclusive)
+     * @param toMillis End of the range in epoch milliseconds (exclusive)
+     * @param handler Receives every row within the range
+     * @return Number of rows handed to the handler
+     */
+    default long scan(long fromMillis, long toMillis, TelemetryCsvParser.RowHandler handler) {
+        return scan(fromMillis, toMillis, null, handler);
+    }
+
+    /**
+     * Adds the rows of some devices within a time range to one bucketer per device, in timestamp order.
+     * Storage that keeps statistics per block of rows may add a whole block at once where the
+     * bucketer accepts it, see {@link DeviceBucketer#acceptsGroup}; by default every row is added.
+     *
+     * @param fromMillis Start of the range in epoch milliseconds (inclusive)
+     * @param toMillis End of the range in epoch milliseconds (exclusive)
+     * @param devices Whether each device index is visited, or null to visit all devices
+     * @param bucketers Returns the bucketer of a device index; may also be called for devices without rows in the range
+     * @return Number of rows added
+     */
+    default long fold(long fromMillis, long toMillis, boolean[] devices, IntFunction<DeviceBucketer> bucketers) {
+        return scan(fromMillis, toMillis, devices, (deviceIndex, epochMillis, ambientTemperature, deviceTemperature) ->
+            bucketers.apply(deviceIndex).add(epochMillis, ambientTemperature, deviceTemperature));
+    }
+}
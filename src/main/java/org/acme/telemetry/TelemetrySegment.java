@@ -0,0 +1,312 @@
+package org.acme.telemetry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Memory-mapped binary segment of telemetry readings, sorted by time across all devices.
+ *
+ * Layout (big-endian):
+ * - Header: magic, version, device count, index interval (4 x int), row count, rows offset, index offset (3 x long)
+ * - Device dictionary: per device a short length followed by the UTF-8 bytes of its ID
+ * - Rows: fixed-width {@value #ROW_BYTES}-byte records of timestamp (long epoch millis),
+ *   device index (int), ambient temperature (double) and device temperature (double)
+ * - Sparse time index: the timestamp of every N-th row (long)
+ *
+ * The file is read through {@link FileChannel#map}, so a range query only touches the
+ * pages of the rows it returns and the OS page cache is shared by all requests.
+ */
+final class TelemetrySegment implements TelemetryRows {
+
+    static final int MAGIC = 0x54534547; // "TSEG"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4 * 4 + 3 * 8;
+    static final int ROW_BYTES = 8 + 4 + 8 + 8;
+
+    /** Rows mapped into a single buffer; keeps each mapping below 1 GiB */
+    private static final int ROWS_PER_WINDOW = (1 << 30) / ROW_BYTES;
+
+    private final String[] deviceIds;
+    private final long rowCount;
+    private final int indexInterval;
+    private final LongBuffer index;
+    private final MappedByteBuffer[] rowWindows;
+
+    private TelemetrySegment(String[] deviceIds, long rowCount, int indexInterval,
+                             LongBuffer index, MappedByteBuffer[] rowWindows) {
+        this.deviceIds = deviceIds;
+        this.rowCount = rowCount;
+        this.indexInterval = indexInterval;
+        this.index = index;
+        this.rowWindows = rowWindows;
+    }
+
+    /**
+     * Maps an existing segment file.
+     *
+     * @param path Segment file written by {@link #writeFile}
+     * @return The mapped segment
+     * @throws IOException if the file cannot be read or is not a segment
+     */
+    static TelemetrySegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException("Not a telemetry segment: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported telemetry segment version " + version + ": " + path);
+            }
+            int deviceCount = header.getInt();
+            int indexInterval = header.getInt();
+            long rowCount = header.getLong();
+            long rowsOffset = header.getLong();
+            long indexOffset = header.getLong();
+
+            ByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, rowsOffset - HEADER_BYTES);
+            String[] deviceIds = new String[deviceCount];
+            for (int i = 0; i < deviceCount; i++) {
+                byte[] id = new byte[dictionary.getShort() & 0xFFFF];
+                dictionary.get(id);
+                deviceIds[i] = new String(id, StandardCharsets.UTF_8);
+            }
+
+            long indexEntries = (rowCount + indexInterval - 1) / indexInterval;
+            LongBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexEntries * 8).asLongBuffer();
+
+            int windowCount = (int) ((rowCount + ROWS_PER_WINDOW - 1) / ROWS_PER_WINDOW);
+            MappedByteBuffer[] rowWindows = new MappedByteBuffer[windowCount];
+            for (int w = 0; w < windowCount; w++) {
+                long firstRow = (long) w * ROWS_PER_WINDOW;
+                long rows = Math.min(ROWS_PER_WINDOW, rowCount - firstRow);
+                rowWindows[w] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    rowsOffset + firstRow * ROW_BYTES, rows * ROW_BYTES);
+            }
+            return new TelemetrySegment(deviceIds, rowCount, indexInterval, index, rowWindows);
+        }
+    }
+
+    @Override
+    public int getDeviceCount() {
+        return deviceIds.length;
+    }
+
+    @Override
+    public String getDeviceId(int deviceIndex) {
+        return deviceIds[deviceIndex];
+    }
+
+    @Override
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Visits the rows of some devices within a time range in timestamp order.
+     * The sparse index locates the first block that may contain the range start, so only
+     * that block and the rows of the range itself are read. The device index of a row is
+     * checked before its temperatures are decoded, so rows of other devices cost only their
+     * timestamp and index reads.
+     *
+     * @param fromMillis Start of the range in epoch milliseconds (inclusive)
+     * @param toMillis End of the range in epoch milliseconds (exclusive)
+     * @param devices Whether each device index is visited, or null to visit all devices
+     * @param handler Receives every row of a visited device within the range
+     * @return Number of rows handed to the handler
+     */
+    @Override
+    public long scan(long fromMillis, long toMillis, boolean[] devices, TelemetryCsvParser.RowHandler handler) {
+        long visited = 0;
+        for (long row = firstCandidateRow(fromMillis); row < rowCount; row++) {
+            ByteBuffer window = rowWindows[(int) (row / ROWS_PER_WINDOW)];
+            int offset = (int) (row % ROWS_PER_WINDOW) * ROW_BYTES;
+            long timestamp = window.getLong(offset);
+            if (timestamp >= toMillis) {
+                break;
+            }
+            if (timestamp >= fromMillis) {
+                int deviceIndex = window.getInt(offset + 8);
+                if (devices != null && !devices[deviceIndex]) {
+                    continue;
+                }
+                handler.onRow(deviceIndex, timestamp, window.getDouble(offset + 12), window.getDouble(offset + 20));
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Counts the rows within a time range from the positions of its bounds, which the sparse
+     * index locates to within one block each.
+     */
+    @Override
+    public long countRows(long fromMillis, long toMillis) {
+        return toMillis <= fromMillis ? 0 : firstRowAtOrAfter(toMillis) - firstRowAtOrAfter(fromMillis);
+    }
+
+    /** @return First row with a timestamp at or after the given time, or the row count if there is none */
+    private long firstRowAtOrAfter(long epochMillis) {
+        long row = firstCandidateRow(epochMillis);
+        while (row < rowCount
+                && rowWindows[(int) (row / ROWS_PER_WINDOW)].getLong((int) (row % ROWS_PER_WINDOW) * ROW_BYTES) < epochMillis) {
+            row++;
+        }
+        return row;
+    }
+
+    /** @return First row of the last index block starting strictly before the given time */
+    private long firstCandidateRow(long fromMillis) {
+        int low = 0;
+        int high = index.limit();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index.get(mid) < fromMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low == 0 ? 0 : (long) (low - 1) * indexInterval;
+    }
+
+    /**
+     * Writes devices to a segment file.
+     * The segment is written to a temporary file first and moved into place when complete.
+     *
+     * @param devices Time-sorted series; their list position becomes the device index
+     * @param segmentPath Segment file to create or replace
+     * @param indexInterval Number of rows between two time index entries
+     * @return Number of rows written
+     * @throws IOException if the file cannot be written
+     */
+    static long writeFile(List<DeviceSeries> devices, Path segmentPath, int indexInterval) throws IOException {
+        Path parent = segmentPath.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(parent, segmentPath.getFileName().toString(), ".tmp");
+        try {
+            long rows;
+            try (OutputStream file = Files.newOutputStream(temporary)) {
+                rows = write(devices, indexInterval, file);
+            }
+            Files.move(temporary, segmentPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Writes devices as a segment, merging their sorted series into one time-ordered row stream.
+     *
+     * @param devices Time-sorted series; their list position becomes the device index
+     * @param indexInterval Number of rows between two time index entries
+     * @param target Stream the segment is written to
+     * @return Number of rows written
+     * @throws IOException if writing fails
+     */
+    static long write(List<DeviceSeries> devices, int indexInterval, OutputStream target) throws IOException {
+        long rowCount = 0;
+        int dictionaryBytes = 0;
+        List<byte[]> ids = new ArrayList<>();
+        for (DeviceSeries series : devices) {
+            byte[] id = series.getDeviceId().getBytes(StandardCharsets.UTF_8);
+            if (id.length > 0xFFFF) {
+                throw new IOException("Device ID too long for a segment: " + series.getDeviceId());
+            }
+            ids.add(id);
+            dictionaryBytes += 2 + id.length;
+            rowCount += series.size();
+        }
+        long rowsOffset = HEADER_BYTES + dictionaryBytes;
+        long indexOffset = rowsOffset + rowCount * ROW_BYTES;
+        long[] index = new long[(int) ((rowCount + indexInterval - 1) / indexInterval)];
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(target, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(devices.size());
+        out.writeInt(indexInterval);
+        out.writeLong(rowCount);
+        out.writeLong(rowsOffset);
+        out.writeLong(indexOffset);
+        for (byte[] id : ids) {
+            out.writeShort(id.length);
+            out.write(id);
+        }
+
+        // k-way merge of the per-device series; ties keep device order, each device keeps its own order
+        int[] positions = new int[devices.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<>((a, b) -> {
+            int byTime = Long.compare(devices.get(a).getTimestamps()[positions[a]],
+                devices.get(b).getTimestamps()[positions[b]]);
+            return byTime != 0 ? byTime : Integer.compare(a, b);
+        });
+        for (int d = 0; d < devices.size(); d++) {
+            if (devices.get(d).size() > 0) {
+                heads.add(d);
+            }
+        }
+        long row = 0;
+        while (!heads.isEmpty()) {
+            int d = heads.poll();
+            DeviceSeries series = devices.get(d);
+            int position = positions[d];
+            long timestamp = series.getTimestamps()[position];
+            if (row % indexInterval == 0) {
+                index[(int) (row / indexInterval)] = timestamp;
+            }
+            out.writeLong(timestamp);
+            out.writeInt(d);
+            out.writeDouble(series.getAmbientTemperatures()[position]);
+            out.writeDouble(series.getDeviceTemperatures()[position]);
+            row++;
+            if (++positions[d] < series.size()) {
+                heads.add(d);
+            }
+        }
+
+        for (long timestamp : index) {
+            out.writeLong(timestamp);
+        }
+        out.flush();
+        return rowCount;
+    }
+
+    /**
+     * Command line converter from CSV to segment format.
+     * Usage: TelemetrySegment &lt;telemetry.csv&gt; &lt;telemetry.seg&gt; [indexInterval]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: TelemetrySegment <telemetry.csv> <telemetry.seg> [indexInterval]");
+            System.exit(1);
+        }
+        int indexInterval = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        List<DeviceSeries> devices;
+        try (FileChannel channel = FileChannel.open(Path.of(args[0]), StandardOpenOption.READ)) {
+            devices = TelemetryStore.parseCsv(TelemetryStore.mapLineAlignedChunks(channel, TelemetryStore.MAX_CHUNK_BYTES),
+                Runtime.getRuntime().availableProcessors());
+        }
+        long rows = writeFile(devices, Path.of(args[1]), indexInterval);
+        System.out.println("Wrote " + rows + " rows to " + args[1]);
+    }
+}
@@ -1,98 +1,432 @@
 package org.acme.telemetry;
 
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
+import io.micrometer.core.instrument.Timer;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
-import java.io.InputStreamReader;
-import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Service responsible for processing and aggregating device telemetry data.
- * This service reads temperature data from a CSV file and provides methods to:
- * - Load telemetry data for a specific time range
+ * This service reads temperature data from the in-memory {@link TelemetryStore} and provides methods to:
+ * - Select telemetry data for a specific time range and set of devices
  * - Aggregate data into time buckets of specified duration
- * - Calculate statistical measures (min, max, average) for each time bucket
+ * - Calculate statistical measures (min, max, average, optionally percentiles) for each time bucket
+ * - Append ingested readings to the store
  */
 @ApplicationScoped
 public class TelemetryService {
-    
+
+    @Inject
+    TelemetryStore telemetryStore;
+
+    @Inject
+    AggregationCache aggregationCache;
+
+    @Inject
+    AggregationExecutor aggregationExecutor;
+
+    @Inject
+    TelemetryMetrics telemetryMetrics;
+
     /**
-     * Path to the CSV file containing telemetry data.
-     * Can be configured via application.properties using the key 'org.acme.telemetry.csv.path'
+     * Aggregation engine used to build time buckets.
+     * "single-pass" folds each record into running statistics in one sweep,
+     * "legacy" rescans the device's records for every bucket. On raw readings both produce identical results;
+     * only single-pass merges buckets from rollups, whose averages may differ from legacy in the last bits.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.aggregation.engine'
      */
-    @ConfigProperty(name = "org.acme.telemetry.csv.path", defaultValue = "telemetry.csv")
-    String csvFilePath;
+    @ConfigProperty(name = "org.acme.telemetry.aggregation.engine", defaultValue = ENGINE_SINGLE_PASS)
+    String aggregationEngine;
+
+    static final String ENGINE_SINGLE_PASS = "single-pass";
+    static final String ENGINE_LEGACY = "legacy";
 
     /**
      * Aggregates telemetry data for a specified time range and resolution.
      * 
      * @param fromTime Start of the time range (inclusive)
-     * @param toTime End of the time range (exclusive)
+     * @param toTime End of the time range (inclusive)
      * @param resolution Duration of each time bucket (e.g., 1 minute, 1 hour)
      * @return List of aggregated telemetry data for each time bucket
      */
     public List<AggregatedTelemetry> aggregateTelemetry(Instant fromTime, Instant toTime, Duration resolution) {
-        List<TelemetryRecord> records = loadTelemetryData(fromTime, toTime);
-        return aggregateRecords(records, resolution);
+        return aggregateTelemetry(fromTime, toTime, resolution, DeviceFilter.ALL);
     }
 
     /**
-     * Loads telemetry data from the CSV file for the specified time range.
-     * 
-     * @param fromTime Start time for data loading
-     * @param toTime End time for data loading
-     * @return List of individual telemetry records within the time range
-     * @throws RuntimeException if there's an error reading or parsing the CSV file
+     * Aggregates telemetry data of some devices for a specified time range and resolution.
+     *
+     * @param fromTime Start of the time range (inclusive)
+     * @param toTime End of the time range (inclusive)
+     * @param resolution Duration of each time bucket (e.g., 1 minute, 1 hour)
+     * @param devices Devices to aggregate; readings of other devices are not read
+     * @return List of aggregated telemetry data for each time bucket of the selected devices
      */
-    private List<TelemetryRecord> loadTelemetryData(Instant fromTime, Instant toTime) {
-        List<TelemetryRecord> records = new ArrayList<>();
+    List<AggregatedTelemetry> aggregateTelemetry(Instant fromTime, Instant toTime, Duration resolution,
+                                                 DeviceFilter devices) {
+        List<AggregatedTelemetry> aggregatedResults = new ArrayList<>();
+        aggregateTelemetry(fromTime, toTime, resolution, devices, aggregatedResults::add);
+        return aggregatedResults;
+    }
 
-        // Use ClassLoader to read file from resources directory
-        try (InputStreamReader isr = new InputStreamReader(
-                Thread.currentThread().getContextClassLoader().getResourceAsStream(csvFilePath));
-             CSVReader reader = new CSVReader(isr)) {
-                
-            // Skip the header row (DeviceId,Timestamp,AmbientTemperature,DeviceTemperature)
-            reader.readNext();
+    /**
+     * Aggregates telemetry data for a specified time range and resolution, handing every bucket
+     * to a sink as soon as it is complete instead of collecting them into a list.
+     * Buckets arrive in the same order as in the list returned by
+     * {@link #aggregateTelemetry(Instant, Instant, Duration)}.
+     *
+     * @param fromTime Start of the time range (inclusive)
+     * @param toTime End of the time range (inclusive)
+     * @param resolution Duration of each time bucket (e.g., 1 minute, 1 hour)
+     * @param sink Receives the aggregated telemetry data for each time bucket
+     */
+    public void aggregateTelemetry(Instant fromTime, Instant toTime, Duration resolution,
+                                   Consumer<AggregatedTelemetry> sink) {
+        aggregateTelemetry(fromTime, toTime, resolution, DeviceFilter.ALL, sink);
+    }
 
-            String[] line;
-            while ((line = reader.readNext()) != null) {
-                // Parse timestamp from ISO-8601 format
-                Instant timestamp = Instant.parse(line[1]);
-                
-                // Performance optimization: Skip records outside the requested time range
-                if (timestamp.isBefore(fromTime) || timestamp.isAfter(toTime)) {
-                    continue;
+    /**
+     * Aggregates telemetry data of some devices, handing every bucket to a sink as soon as it is complete.
+     * The filter is applied before any reading is read: in memory only the selected devices' series are
+     * visited, and a segment scan skips other devices' rows by their dense device index.
+     *
+     * @param fromTime Start of the time range (inclusive)
+     * @param toTime End of the time range (inclusive)
+     * @param resolution Duration of each time bucket (e.g., 1 minute, 1 hour)
+     * @param devices Devices to aggregate
+     * @param sink Receives the aggregated telemetry data for each time bucket of the selected devices
+     */
+    void aggregateTelemetry(Instant fromTime, Instant toTime, Duration resolution, DeviceFilter devices,
+                            Consumer<AggregatedTelemetry> sink) {
+        aggregateTelemetry(fromTime, toTime, resolution, devices, Percentiles.NONE, sink);
+    }
+
+    /**
+     * Aggregates telemetry data of some devices with percentiles of the device temperature in every bucket.
+     * The percentiles are read from a quantile sketch that each bucket builds in the same pass as its
+     * other statistics, or merges from the sketches of sketched rollups; unsketched rollups and the
+     * result cache are bypassed.
+     *
+     * @param fromTime Start of the time range (inclusive)
+     * @param toTime End of the time range (inclusive)
+     * @param resolution Duration of each time bucket (e.g., 1 minute, 1 hour)
+     * @param devices Devices to aggregate
+     * @param percentiles Percentiles to add to every bucket, or {@link Percentiles#NONE}
+     * @param sink Receives the aggregated telemetry data for each time bucket of the selected devices
+     */
+    void aggregateTelemetry(Instant fromTime, Instant toTime, Duration resolution, DeviceFilter devices,
+                            Percentiles percentiles, Consumer<AggregatedTelemetry> sink) {
+        // The store keeps millisecond timestamps, so [from, to] maps onto [ceil(from), floor(to) + 1) in millis
+        long fromMillis = ceilToMillis(fromTime);
+        long toMillis = endMillis(toTime);
+        TelemetryStore.Snapshot data = telemetryStore.getSnapshot();
+        recordTimeFilter(data, fromMillis, toMillis, resolution);
+
+        switch (aggregationEngine) {
+            case ENGINE_SINGLE_PASS -> {
+                long resolutionMillis = resolution.toMillis();
+                TelemetryRollups rollups = usableRollups(data, percentiles);
+                TelemetryRows segment = data.segment();
+                if (segment != null) {
+                    aggregateSegment(segment, devices, rollups, fromMillis, toMillis, resolutionMillis, percentiles, sink);
+                } else {
+                    aggregateInMemory(selectDevices(data, devices), rollups, fromMillis, toMillis, resolutionMillis,
+                        percentiles, sink);
+                }
+            }
+            case ENGINE_LEGACY ->
+                aggregateRecords(selectRecords(fromMillis, toMillis, devices), resolution, percentiles).forEach(sink);
+            default -> throw new IllegalStateException("Unknown aggregation engine: " + aggregationEngine);
+        }
+    }
+
+    /**
+     * Aggregates one page of telemetry data: at most {@code limit} buckets, in the order of
+     * {@link #aggregateTelemetry(Instant, Instant, Duration, DeviceFilter, Consumer)}.
+     * Aggregation stops at the first bucket that does not fit, and the returned cursor points at it.
+     * Resuming from a cursor skips the devices of earlier pages without reading them and continues
+     * the cursor's device on its bucket grid, so earlier pages are not computed again.
+     *
+     * @param fromTime Start of the time range (inclusive)
+     * @param toTime End of the time range (inclusive)
+     * @param resolution Duration of each time bucket (e.g., 1 minute, 1 hour)
+     * @param devices Devices to aggregate
+     * @param percentiles Percentiles to add to every bucket, or {@link Percentiles#NONE}
+     * @param cursor Cursor returned for the previous page, or null for the first page
+     * @param limit Maximum number of buckets of the page
+     * @param sink Receives the buckets of the page
+     * @return Cursor of the next page, or null if this is the last page
+     * @throws BadRequestException if the cursor was issued for another query
+     */
+    AggregationCursor aggregatePage(Instant fromTime, Instant toTime, Duration resolution, DeviceFilter devices,
+                                    Percentiles percentiles, AggregationCursor cursor, int limit,
+                                    Consumer<AggregatedTelemetry> sink) {
+        long fromMillis = ceilToMillis(fromTime);
+        long toMillis = endMillis(toTime);
+        long resolutionMillis = resolution.toMillis();
+        int queryHash = AggregationCursor.queryHash(fromMillis, toMillis, resolutionMillis, devices, percentiles);
+        if (cursor != null && cursor.getQueryHash() != queryHash) {
+            throw AggregationCursor.invalid();
+        }
+
+        PageSink page = new PageSink(limit, sink);
+        try {
+            if (cursor == null) {
+                aggregateTelemetry(fromTime, toTime, resolution, devices, percentiles, page);
+            } else {
+                resume(cursor, fromMillis, toMillis, resolution, devices, percentiles, page);
+            }
+        } catch (PageFull full) {
+            return new AggregationCursor(queryHash, page.next.getDeviceId(), page.next.getStartTime().toEpochMilli());
+        }
+        return null;
+    }
+
+    /**
+     * Aggregates the buckets from a cursor on: the rest of the cursor's device, then all later devices.
+     *
+     * @throws BadRequestException if the cursor's device is not selected by the query
+     */
+    private void resume(AggregationCursor cursor, long fromMillis, long toMillis, Duration resolution,
+                        DeviceFilter devices, Percentiles percentiles, Consumer<AggregatedTelemetry> sink) {
+        long resolutionMillis = resolution.toMillis();
+        long resumeMillis = cursor.getBucketStartMillis();
+        if (resumeMillis < fromMillis || resumeMillis >= toMillis) {
+            throw AggregationCursor.invalid();
+        }
+        TelemetryStore.Snapshot data = telemetryStore.getSnapshot();
+        recordTimeFilter(data, fromMillis, toMillis, resolution);
+
+        switch (aggregationEngine) {
+            case ENGINE_SINGLE_PASS -> {
+                TelemetryRollups rollups = usableRollups(data, percentiles);
+                TelemetryRows segment = data.segment();
+                if (segment != null) {
+                    boolean[] selected = devices.select(segment.getDeviceCount(), segment::getDeviceId);
+                    int position = 0;
+                    while (position < selected.length
+                            && !(selected[position] && segment.getDeviceId(position).equals(cursor.getDeviceId()))) {
+                        position++;
+                    }
+                    if (position == selected.length) {
+                        throw AggregationCursor.invalid();
+                    }
+                    boolean[] resumed = new boolean[selected.length];
+                    resumed[position] = true;
+                    DeviceBucketer bucketer = new DeviceBucketer(cursor.getDeviceId(), resolutionMillis, resumeMillis,
+                        percentiles, sink);
+                    segment.fold(resumeMillis, toMillis, resumed, deviceIndex -> bucketer);
+                    bucketer.finish();
+
+                    for (int i = 0; i <= position; i++) {
+                        selected[i] = false;
+                    }
+                    aggregateSegment(segment, selected, rollups, fromMillis, toMillis, resolutionMillis, percentiles, sink);
+                } else {
+                    List<DeviceSeries> selected = selectDevices(data, devices);
+                    int position = 0;
+                    while (position < selected.size() && !selected.get(position).getDeviceId().equals(cursor.getDeviceId())) {
+                        position++;
+                    }
+                    if (position == selected.size()) {
+                        throw AggregationCursor.invalid();
+                    }
+                    DeviceSeries series = selected.get(position);
+                    DeviceBucketer bucketer = new DeviceBucketer(series.getDeviceId(), resolutionMillis, resumeMillis,
+                        percentiles, sink);
+                    long[] timestamps = series.getTimestamps();
+                    double[] ambientTemps = series.getAmbientTemperatures();
+                    double[] deviceTemps = series.getDeviceTemperatures();
+                    for (int i = series.lowerBound(resumeMillis), end = series.lowerBound(toMillis); i < end; i++) {
+                        bucketer.add(timestamps[i], ambientTemps[i], deviceTemps[i]);
+                    }
+                    bucketer.finish();
+
+                    aggregateInMemory(selected.subList(position + 1, selected.size()), rollups,
+                        fromMillis, toMillis, resolutionMillis, percentiles, sink);
+                }
+            }
+            case ENGINE_LEGACY -> {
+                // The legacy engine is kept for comparison and simply skips the buckets of earlier pages
+                boolean resumed = false;
+                for (AggregatedTelemetry bucket
+                        : aggregateRecords(selectRecords(fromMillis, toMillis, devices), resolution, percentiles)) {
+                    resumed |= bucket.getDeviceId().equals(cursor.getDeviceId())
+                        && bucket.getStartTime().toEpochMilli() >= resumeMillis;
+                    if (resumed) {
+                        sink.accept(bucket);
+                    }
                 }
+            }
+            default -> throw new IllegalStateException("Unknown aggregation engine: " + aggregationEngine);
+        }
+    }
+
+    /** Passes on the buckets of one page and stops the aggregation at the first bucket after it */
+    private static final class PageSink implements Consumer<AggregatedTelemetry> {
+
+        private final int limit;
+        private final Consumer<AggregatedTelemetry> sink;
+        private int count;
+        private AggregatedTelemetry next;
+
+        PageSink(int limit, Consumer<AggregatedTelemetry> sink) {
+            this.limit = limit;
+            this.sink = sink;
+        }
 
-                // Create a record from the CSV line
-                TelemetryRecord record = new TelemetryRecord(
-                    line[0], // deviceId
-                    timestamp,
-                    Double.parseDouble(line[2]), // ambientTemperature
-                    Double.parseDouble(line[3])  // deviceTemperature
-                );
-                records.add(record);
+        @Override
+        public void accept(AggregatedTelemetry bucket) {
+            if (count == limit) {
+                next = bucket;
+                throw new PageFull();
             }
-        } catch (IOException | CsvValidationException e) {
-            throw new RuntimeException("Error reading telemetry data from " + csvFilePath, e);
+            count++;
+            sink.accept(bucket);
         }
+    }
+
+    /** Unwinds the aggregation once a page is full; carries no stack trace since it is not an error */
+    private static final class PageFull extends RuntimeException {
+
+        PageFull() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * @param data Store data the query reads
+     * @param percentiles Percentiles the query asks for
+     * @return The data's rollups, or null if there are none or they cannot answer percentiles
+     */
+    private static TelemetryRollups usableRollups(TelemetryStore.Snapshot data, Percentiles percentiles) {
+        TelemetryRollups rollups = data.rollups();
+        return rollups == null || (!percentiles.isEmpty() && !rollups.isSketched()) ? null : rollups;
+    }
+
+    /**
+     * Records how many of the stored rows the query's time range keeps, before any device filter.
+     * Counting takes a binary search per device in memory and two index lookups for segments.
+     */
+    private void recordTimeFilter(TelemetryStore.Snapshot data, long fromMillis, long toMillis, Duration resolution) {
+        telemetryMetrics.recordTimeFilter(TelemetryMetrics.queryTags(resolution.toMillis(), fromMillis, toMillis),
+            data.rowCount(), data.countRows(fromMillis, toMillis));
+    }
+
+    /**
+     * Wraps a per-device aggregation so the time spent on every device is recorded.
+     * On the request thread that includes handing the buckets to the sink.
+     */
+    private <T> BiConsumer<T, Consumer<AggregatedTelemetry>> timed(String engine, long resolutionMillis,
+                                                                   BiConsumer<T, Consumer<AggregatedTelemetry>> aggregation) {
+        Timer timer = telemetryMetrics.deviceTimer(engine, resolutionMillis);
+        return (item, deviceSink) -> {
+            long started = System.nanoTime();
+            aggregation.accept(item, deviceSink);
+            timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        };
+    }
+
+    /**
+     * Appends ingested readings to the store. They are included in every aggregation started afterwards;
+     * the rollups are updated incrementally and cached buckets are only bypassed for the devices and
+     * time spans the readings fall into.
+     *
+     * @param readings Time-sorted readings per device, as read by {@link TelemetryRecordReader}
+     * @return Number of readings appended
+     * @throws IllegalStateException if the store is not held in memory
+     */
+    long ingest(List<DeviceSeries> readings) {
+        return telemetryStore.append(readings);
+    }
 
+    /**
+     * Aggregates in-memory device series through the cache if it is enabled, and directly otherwise.
+     * Cached buckets carry no percentiles, so queries with percentiles are always aggregated directly.
+     */
+    private void aggregateInMemory(List<DeviceSeries> devices, TelemetryRollups rollups, long fromMillis, long toMillis,
+                                   long resolutionMillis, Percentiles percentiles, Consumer<AggregatedTelemetry> sink) {
+        if (aggregationCache.isEnabled() && percentiles.isEmpty()) {
+            aggregationExecutor.forEachOrdered(devices, timed(ENGINE_SINGLE_PASS, resolutionMillis, (series, deviceSink) ->
+                aggregationCache.aggregate(series, rollups, fromMillis, toMillis, resolutionMillis, deviceSink)), sink);
+        } else {
+            aggregateDevices(devices, rollups, fromMillis, toMillis, resolutionMillis, percentiles, sink);
+        }
+    }
+
+    /**
+     * @param data Store data the query reads
+     * @param devices Devices to select
+     * @return In-memory series of the selected devices, in store order
+     */
+    private static List<DeviceSeries> selectDevices(TelemetryStore.Snapshot data, DeviceFilter devices) {
+        if (devices.isAll()) {
+            return List.copyOf(data.devices().values());
+        }
+        List<DeviceSeries> selected = new ArrayList<>();
+        for (DeviceSeries series : data.devices().values()) {
+            if (devices.matches(series.getDeviceId())) {
+                selected.add(series);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Materializes the stored readings of some devices within a time range as individual records.
+     * Only the legacy engine needs per-row objects; the single-pass engine works on the columns directly.
+     * 
+     * @param fromMillis Start of the time range in epoch milliseconds (inclusive)
+     * @param toMillis End of the time range in epoch milliseconds (exclusive)
+     * @param devices Devices to select; no records are created for other devices
+     * @return List of individual telemetry records within the time range
+     */
+    private List<TelemetryRecord> selectRecords(long fromMillis, long toMillis, DeviceFilter devices) {
+        List<TelemetryRecord> records = new ArrayList<>();
+        TelemetryStore.Snapshot data = telemetryStore.getSnapshot();
+        TelemetryRows segment = data.segment();
+        if (segment != null) {
+            // Regroup the time-interleaved rows by device, in dictionary order like the single-pass engine
+            List<List<TelemetryRecord>> deviceRecords = new ArrayList<>();
+            for (int i = 0; i < segment.getDeviceCount(); i++) {
+                deviceRecords.add(new ArrayList<>());
+            }
+            segment.scan(fromMillis, toMillis, devices.select(segment.getDeviceCount(), segment::getDeviceId),
+                (deviceIndex, epochMillis, ambientTemperature, deviceTemperature) ->
+                    deviceRecords.get(deviceIndex).add(new TelemetryRecord(segment.getDeviceId(deviceIndex),
+                        Instant.ofEpochMilli(epochMillis), ambientTemperature, deviceTemperature)));
+            deviceRecords.forEach(records::addAll);
+            return records;
+        }
+        for (DeviceSeries series : selectDevices(data, devices)) {
+            long[] timestamps = series.getTimestamps();
+            double[] ambientTemps = series.getAmbientTemperatures();
+            double[] deviceTemps = series.getDeviceTemperatures();
+            for (int i = series.lowerBound(fromMillis), end = series.lowerBound(toMillis); i < end; i++) {
+                records.add(new TelemetryRecord(
+                    series.getDeviceId(), Instant.ofEpochMilli(timestamps[i]), ambientTemps[i], deviceTemps[i]));
+            }
+        }
         return records;
     }
 
     /**
      * Aggregates individual telemetry records into time buckets.
      * The process involves:
-     * 1. Grouping records by device ID
+     * 1. Grouping records by device ID, numbering devices densely in order of first appearance
      * 2. For each device, creating time buckets based on the resolution
      * 3. Calculating statistics for each bucket
      * 
@@ -100,26 +434,50 @@ public class TelemetryService {
      * @param resolution Duration of each time bucket
      * @return List of aggregated statistics for each time bucket
      */
-    private List<AggregatedTelemetry> aggregateRecords(List<TelemetryRecord> records, Duration resolution) {
-        // Step 1: Group records by device ID for separate processing of each device
-        Map<String, List<TelemetryRecord>> deviceGroups = new HashMap<>();
+    List<AggregatedTelemetry> aggregateRecords(List<TelemetryRecord> records, Duration resolution) {
+        return aggregateRecords(records, resolution, Percentiles.NONE);
+    }
+
+    /**
+     * Aggregates individual telemetry records into time buckets, with percentiles of the device temperature.
+     * The percentiles are read from a sketch of each bucket's records, so they match the single-pass engine.
+     *
+     * @param records List of individual telemetry records to aggregate
+     * @param resolution Duration of each time bucket
+     * @param percentiles Percentiles to add to every bucket, or {@link Percentiles#NONE}
+     * @return List of aggregated statistics for each time bucket
+     */
+    List<AggregatedTelemetry> aggregateRecords(List<TelemetryRecord> records, Duration resolution,
+                                               Percentiles percentiles) {
+        // Step 1: Group records by device for separate processing of each device. Records mostly arrive
+        // in runs of one device, so the device ID is only looked up in the dictionary when the run changes
+        Map<String, Integer> deviceIndexes = new HashMap<>();
+        List<List<TelemetryRecord>> deviceGroups = new ArrayList<>();
+        String runDeviceId = null;
+        List<TelemetryRecord> runGroup = null;
         for (TelemetryRecord record : records) {
-            deviceGroups.computeIfAbsent(record.getDeviceId(), k -> new ArrayList<>()).add(record);
+            if (!record.getDeviceId().equals(runDeviceId)) {
+                runDeviceId = record.getDeviceId();
+                int deviceIndex = deviceIndexes.computeIfAbsent(runDeviceId, k -> deviceGroups.size());
+                if (deviceIndex == deviceGroups.size()) {
+                    deviceGroups.add(new ArrayList<>());
+                }
+                runGroup = deviceGroups.get(deviceIndex);
+            }
+            runGroup.add(record);
         }
 
         List<AggregatedTelemetry> aggregatedResults = new ArrayList<>();
 
-        // Step 2: Process each device's records separately
-        for (Map.Entry<String, List<TelemetryRecord>> entry : deviceGroups.entrySet()) {
-            String deviceId = entry.getKey();
-            List<TelemetryRecord> deviceRecords = entry.getValue();
-
+        // Step 2: Process each device's records separately, in parallel, keeping the device order
+        aggregationExecutor.forEachOrdered(deviceGroups, timed(ENGINE_LEGACY, resolution.toMillis(), (deviceRecords, deviceResults) -> {
             // Sort records chronologically to ensure proper bucketing
             deviceRecords.sort((r1, r2) -> r1.getTimestamp().compareTo(r2.getTimestamp()));
 
             if (deviceRecords.isEmpty()) {
-                continue;
+                return;
             }
+            String deviceId = deviceRecords.get(0).getDeviceId();
 
             // Find the time range for this device's data
             Instant startTime = deviceRecords.get(0).getTimestamp();
@@ -151,64 +509,260 @@ public class TelemetryService {
                         .mapToDouble(TelemetryRecord::getDeviceTemperature)
                         .toArray();
 
-                    // Calculate statistics for both temperature types
-                    aggregated.setAvgAmbientTemperature(calculateAverage(ambientTemps));
-                    aggregated.setMinAmbientTemperature(calculateMin(ambientTemps));
-                    aggregated.setMaxAmbientTemperature(calculateMax(ambientTemps));
-                    aggregated.setAvgDeviceTemperature(calculateAverage(deviceTemps));
-                    aggregated.setMinDeviceTemperature(calculateMin(deviceTemps));
-                    aggregated.setMaxDeviceTemperature(calculateMax(deviceTemps));
+                    // Calculate statistics for both temperature types in one pass
+                    double[] statistics = StatisticsKernel.compute(ambientTemps, deviceTemps);
+                    aggregated.setAvgAmbientTemperature(statistics[StatisticsKernel.SUM_AMBIENT] / ambientTemps.length);
+                    aggregated.setMinAmbientTemperature(statistics[StatisticsKernel.MIN_AMBIENT]);
+                    aggregated.setMaxAmbientTemperature(statistics[StatisticsKernel.MAX_AMBIENT]);
+                    aggregated.setAvgDeviceTemperature(statistics[StatisticsKernel.SUM_DEVICE] / deviceTemps.length);
+                    aggregated.setMinDeviceTemperature(statistics[StatisticsKernel.MIN_DEVICE]);
+                    aggregated.setMaxDeviceTemperature(statistics[StatisticsKernel.MAX_DEVICE]);
+                    if (!percentiles.isEmpty()) {
+                        QuantileSketch sketch = new QuantileSketch();
+                        for (double deviceTemp : deviceTemps) {
+                            sketch.add(deviceTemp);
+                        }
+                        aggregated.setDeviceTemperaturePercentiles(percentiles.evaluate(sketch));
+                    }
 
-                    aggregatedResults.add(aggregated);
+                    deviceResults.accept(aggregated);
                 }
             }
+        }), aggregatedResults::add);
+
+        return aggregatedResults;
+    }
+
+    /**
+     * Aggregates individual telemetry records into time buckets in a single pass.
+     * Groups the records into per-device series (at millisecond precision) and runs
+     * {@link #aggregateSeries(DeviceSeries, int, int, long, Percentiles, Consumer)} on each of them.
+     * Produces exactly the same buckets as {@link #aggregateRecords(List, Duration)}.
+     *
+     * @param records List of individual telemetry records to aggregate
+     * @param resolution Duration of each time bucket
+     * @return List of aggregated statistics for each time bucket
+     */
+    List<AggregatedTelemetry> aggregateRecordsSinglePass(List<TelemetryRecord> records, Duration resolution) {
+        Map<String, DeviceSeries.Builder> builders = new LinkedHashMap<>();
+        for (TelemetryRecord record : records) {
+            builders.computeIfAbsent(record.getDeviceId(), DeviceSeries.Builder::new).add(
+                record.getTimestamp().toEpochMilli(), record.getAmbientTemperature(), record.getDeviceTemperature());
         }
 
+        List<AggregatedTelemetry> aggregatedResults = new ArrayList<>();
+        long resolutionMillis = resolution.toMillis();
+        for (DeviceSeries.Builder builder : builders.values()) {
+            DeviceSeries series = builder.build();
+            aggregateSeries(series, 0, series.size(), resolutionMillis, Percentiles.NONE, aggregatedResults::add);
+        }
         return aggregatedResults;
     }
 
     /**
-     * Calculates the average value from an array of temperatures.
-     * 
-     * @param values Array of temperature values
-     * @return Average temperature, or 0 if the array is empty
+     * Aggregates a slice of a device series into time buckets in a single pass.
+     *
+     * @param series Time-sorted readings of one device
+     * @param from Index of the first reading to aggregate (inclusive)
+     * @param to Index of the last reading to aggregate (exclusive)
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @param percentiles Percentiles to add to every bucket, or {@link Percentiles#NONE}
+     * @param sink Receives the non-empty buckets in time order
+     * @see DeviceBucketer
      */
-    private double calculateAverage(double[] values) {
-        if (values.length == 0) return 0;
-        double sum = 0;
-        for (double value : values) {
-            sum += value;
+    void aggregateSeries(DeviceSeries series, int from, int to, long resolutionMillis, Percentiles percentiles,
+                         Consumer<AggregatedTelemetry> sink) {
+        long[] timestamps = series.getTimestamps();
+        double[] ambientTemps = series.getAmbientTemperatures();
+        double[] deviceTemps = series.getDeviceTemperatures();
+
+        DeviceBucketer bucketer = new DeviceBucketer(series.getDeviceId(), resolutionMillis, percentiles, sink);
+        for (int i = from; i < to; i++) {
+            bucketer.add(timestamps[i], ambientTemps[i], deviceTemps[i]);
         }
-        return sum / values.length;
+        bucketer.finish();
     }
 
     /**
-     * Finds the minimum value in an array of temperatures.
-     * 
-     * @param values Array of temperature values
-     * @return Minimum temperature, or 0 if the array is empty
+     * Aggregates in-memory device series within a time range in a single pass, devices in parallel.
+     * Where the rollups allow it, a device's buckets are merged from its nearest finer rollup
+     * and only the readings after the last whole rollup bucket are read raw.
+     *
+     * @param devices Time-sorted series of all devices
+     * @param rollups Rollups of the same data, or null to always aggregate raw readings
+     * @param fromMillis Start of the time range in epoch milliseconds (inclusive)
+     * @param toMillis End of the time range in epoch milliseconds (exclusive)
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @param percentiles Percentiles to add to every bucket; requires sketched rollups unless empty
+     * @param sink Receives the aggregated statistics, device by device, as each bucket completes
      */
-    private double calculateMin(double[] values) {
-        if (values.length == 0) return 0;
-        double min = values[0];
-        for (double value : values) {
-            if (value < min) min = value;
+    void aggregateDevices(Collection<DeviceSeries> devices, TelemetryRollups rollups, long fromMillis, long toMillis,
+                          long resolutionMillis, Percentiles percentiles, Consumer<AggregatedTelemetry> sink) {
+        int level = rollups == null ? -1 : rollups.chooseLevel(fromMillis, resolutionMillis);
+        long splitMillis = level < 0 ? fromMillis : rollupSplit(fromMillis, toMillis, rollups.getResolution(level));
+
+        aggregationExecutor.forEachOrdered(List.copyOf(devices), timed(ENGINE_SINGLE_PASS, resolutionMillis, (series, deviceSink) -> {
+            if (level < 0 || !aggregateRollup(rollups.get(series, level), fromMillis, splitMillis,
+                    series, series.lowerBound(splitMillis), series.lowerBound(toMillis), resolutionMillis,
+                    percentiles, deviceSink)) {
+                aggregateSeries(series, series.lowerBound(fromMillis), series.lowerBound(toMillis),
+                    resolutionMillis, percentiles, deviceSink);
+            }
+        }), sink);
+    }
+
+    /**
+     * Aggregates the rows of a mapped segment, partitions or compressed blocks within a time range in
+     * a single pass. The rows may interleave devices in time order, so every device gets its own bucketer;
+     * results are buffered per device and handed to the sink grouped by device in dictionary order.
+     * With usable rollups only the rows after the last whole rollup bucket are scanned, plus
+     * the full range for devices whose buckets cannot be merged from their rollup.
+     *
+     * @param segment Segment to scan
+     * @param devices Devices to aggregate; rows of other devices are skipped by the scan
+     * @param rollups Rollups of the same segment, or null to always aggregate raw rows
+     * @param fromMillis Start of the time range in epoch milliseconds (inclusive)
+     * @param toMillis End of the time range in epoch milliseconds (exclusive)
+     * @param resolutionMillis Duration of each time bucket in milliseconds
+     * @param percentiles Percentiles to add to every bucket; requires sketched rollups unless empty
+     * @param sink Receives the aggregated statistics for each time bucket
+     */
+    void aggregateSegment(TelemetryRows segment, DeviceFilter devices, TelemetryRollups rollups, long fromMillis,
+                          long toMillis, long resolutionMillis, Percentiles percentiles, Consumer<AggregatedTelemetry> sink) {
+        aggregateSegment(segment, devices.select(segment.getDeviceCount(), segment::getDeviceId), rollups,
+            fromMillis, toMillis, resolutionMillis, percentiles, sink);
+    }
+
+    /** Aggregates the rows of the selected device indexes only, like the variant taking a {@link DeviceFilter} */
+    private void aggregateSegment(TelemetryRows segment, boolean[] selected, TelemetryRollups rollups, long fromMillis,
+                                  long toMillis, long resolutionMillis, Percentiles percentiles,
+                                  Consumer<AggregatedTelemetry> sink) {
+        int deviceCount = segment.getDeviceCount();
+        List<List<AggregatedTelemetry>> deviceResults = new ArrayList<>(deviceCount);
+        boolean[] scanRaw = new boolean[deviceCount];
+        boolean anyRaw = false;
+        int level = rollups == null ? -1 : rollups.chooseLevel(fromMillis, resolutionMillis);
+
+        if (level < 0) {
+            for (int i = 0; i < deviceCount; i++) {
+                deviceResults.add(null);
+                scanRaw[i] = selected[i];
+                anyRaw |= selected[i];
+            }
+        } else {
+            long splitMillis = rollupSplit(fromMillis, toMillis, rollups.getResolution(level));
+            DeviceSeries.Builder[] tails = new DeviceSeries.Builder[deviceCount];
+            for (int i = 0; i < deviceCount; i++) {
+                tails[i] = new DeviceSeries.Builder(segment.getDeviceId(i));
+            }
+            segment.scan(splitMillis, toMillis, selected, (deviceIndex, epochMillis, ambientTemperature, deviceTemperature) ->
+                tails[deviceIndex].add(epochMillis, ambientTemperature, deviceTemperature));
+
+            for (int i = 0; i < deviceCount; i++) {
+                if (!selected[i]) {
+                    deviceResults.add(null);
+                    continue;
+                }
+                DeviceSeries tail = tails[i].build();
+                List<AggregatedTelemetry> results = new ArrayList<>();
+                scanRaw[i] = !aggregateRollup(rollups.get(tail.getDeviceId(), level), fromMillis, splitMillis,
+                    tail, 0, tail.size(), resolutionMillis, percentiles, results::add);
+                deviceResults.add(scanRaw[i] ? null : results);
+                anyRaw |= scanRaw[i];
+            }
+        }
+
+        DeviceBucketer[] bucketers = new DeviceBucketer[deviceCount];
+        if (anyRaw) {
+            segment.fold(fromMillis, toMillis, scanRaw, deviceIndex -> {
+                DeviceBucketer bucketer = bucketers[deviceIndex];
+                if (bucketer == null) {
+                    List<AggregatedTelemetry> results = new ArrayList<>();
+                    deviceResults.set(deviceIndex, results);
+                    bucketer = new DeviceBucketer(segment.getDeviceId(deviceIndex), resolutionMillis, percentiles,
+                        results::add);
+                    bucketers[deviceIndex] = bucketer;
+                }
+                return bucketer;
+            });
+        }
+
+        for (int i = 0; i < deviceCount; i++) {
+            if (bucketers[i] != null) {
+                bucketers[i].finish();
+            }
+            if (deviceResults.get(i) != null) {
+                deviceResults.get(i).forEach(sink);
+            }
         }
-        return min;
     }
 
     /**
-     * Finds the maximum value in an array of temperatures.
-     * 
-     * @param values Array of temperature values
-     * @return Maximum temperature, or 0 if the array is empty
+     * Aggregates one device by merging whole rollup buckets and adding the raw readings after them.
+     * This only matches raw aggregation when the device's buckets, which are laid out from its first
+     * reading, start on rollup boundaries; otherwise nothing is emitted and false is returned.
+     *
+     * @param rollup The device's rollup, or null if it has none
+     * @param fromMillis Start of the time range, aligned to the rollup resolution
+     * @param splitMillis End of the last whole rollup bucket within the range
+     * @param tail Series holding the device's readings from splitMillis on
+     * @param tailFrom Index of the first tail reading to aggregate (inclusive)
+     * @param tailTo Index of the last tail reading to aggregate (exclusive)
+     * @param resolutionMillis Duration of each time bucket in milliseconds, a multiple of the rollup resolution
+     * @param percentiles Percentiles to add to every bucket; requires a sketched rollup unless empty
+     * @param sink Receives the non-empty buckets in time order
+     * @return true if the device was aggregated, false if it has to be aggregated from raw readings instead
      */
-    private double calculateMax(double[] values) {
-        if (values.length == 0) return 0;
-        double max = values[0];
-        for (double value : values) {
-            if (value > max) max = value;
+    private boolean aggregateRollup(RollupSeries rollup, long fromMillis, long splitMillis,
+                                    DeviceSeries tail, int tailFrom, int tailTo, long resolutionMillis,
+                                    Percentiles percentiles, Consumer<AggregatedTelemetry> sink) {
+        if (rollup == null) {
+            return false;
+        }
+        int first = rollup.lowerBound(fromMillis);
+        int end = rollup.lowerBound(splitMillis);
+        if (first == end || Math.floorMod(rollup.getFirstTime(first), rollup.getResolutionMillis()) != 0) {
+            return false;
+        }
+
+        DeviceBucketer bucketer = new DeviceBucketer(tail.getDeviceId(), resolutionMillis, percentiles, sink);
+        for (int i = first; i < end; i++) {
+            rollup.foldInto(i, bucketer);
+        }
+        long[] timestamps = tail.getTimestamps();
+        double[] ambientTemps = tail.getAmbientTemperatures();
+        double[] deviceTemps = tail.getDeviceTemperatures();
+        for (int i = tailFrom; i < tailTo; i++) {
+            bucketer.add(timestamps[i], ambientTemps[i], deviceTemps[i]);
         }
-        return max;
+        bucketer.finish();
+        return true;
+    }
+
+    /** @return End of the last whole rollup bucket within [fromMillis, toMillis), or fromMillis if there is none */
+    private static long rollupSplit(long fromMillis, long toMillis, long rollupMillis) {
+        return Math.max(fromMillis, Math.floorDiv(toMillis, rollupMillis) * rollupMillis);
+    }
+
+    /**
+     * Rounds an instant up to the next whole millisecond.
+     *
+     * @param instant Instant to round
+     * @return Epoch milliseconds of the smallest millisecond not before the instant
+     */
+    static long ceilToMillis(Instant instant) {
+        long millis = instant.toEpochMilli();
+        return instant.getNano() % 1_000_000 == 0 ? millis : millis + 1;
+    }
+
+    /**
+     * Converts the inclusive end of a query range to the exclusive bound used on stored milliseconds:
+     * a reading is within the range if it is not after the end, i.e. before the next whole millisecond.
+     *
+     * @param toTime End of the time range (inclusive)
+     * @return Epoch milliseconds of the first millisecond after the range
+     */
+    static long endMillis(Instant toTime) {
+        return toTime.toEpochMilli() + 1;
     }
 }
\ No newline at end of file
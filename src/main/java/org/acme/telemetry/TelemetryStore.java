@@ -0,0 +1,828 @@
+package org.acme.telemetry;
+
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Store of all telemetry readings, opened once at startup.
+ * In "csv" format the CSV file is parsed into one in-memory, time-sorted {@link DeviceSeries}
+ * per device, so aggregation requests only binary-search the requested time range instead of
+ * re-reading and re-parsing the file. In "segment" format a {@link TelemetrySegment} is
+ * memory-mapped instead and range queries read only the pages they need. In "partitioned" format
+ * the data is split into one segment per time window, see {@link TelemetryPartitions}; range queries
+ * then only map the partitions that overlap the range. In "compressed" format the CSV file is parsed
+ * and kept in memory as compressed blocks per device, see {@link CompressedTelemetry}.
+ * Readings ingested at runtime are appended to the in-memory series; queries started after
+ * an append see all of its readings, queries already running keep the series they started with.
+ * All data a query reads is published as one {@link Snapshot}, which {@link #reload()} replaces
+ * when the data file changes.
+ */
+@ApplicationScoped
+public class TelemetryStore {
+
+    private static final Logger LOG = Logger.getLogger(TelemetryStore.class);
+
+    /** Largest part of the data file mapped into a single buffer */
+    static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    /** Smallest slice of the data file worth parsing on its own thread */
+    static final int MIN_PARALLEL_SLICE_BYTES = 1 << 20;
+
+    /** Number of bytes at the end of the read part of a CSV file compared before reading only what was added */
+    static final int CSV_TAIL_BYTES = 64;
+
+    /**
+     * Path to the CSV file containing telemetry data.
+     * Resolved against the file system first and the classpath second.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.csv.path'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.csv.path", defaultValue = "telemetry.csv")
+    String csvFilePath;
+
+    /**
+     * Storage format queries are answered from.
+     * "csv" loads the CSV file into memory, "segment" memory-maps a binary segment file,
+     * "partitioned" memory-maps time-partitioned segment files on demand,
+     * "compressed" loads the CSV file into compressed in-memory blocks.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.storage.format'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.storage.format", defaultValue = FORMAT_CSV)
+    String storageFormat;
+
+    /**
+     * Path to the binary segment file used by the "segment" format.
+     * Created from the CSV file on startup if it does not exist.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.segment.path'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.segment.path", defaultValue = "telemetry.seg")
+    String segmentPath;
+
+    /**
+     * Number of rows between two entries of a new segment's time index.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.segment.index-interval'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.segment.index-interval", defaultValue = "1024")
+    int segmentIndexInterval;
+
+    /**
+     * Directory of the time-partitioned segment files used by the "partitioned" format.
+     * Created from the CSV file on startup if it has no catalog yet.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.partition.path'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.partition.path", defaultValue = "telemetry-partitions")
+    String partitionPath;
+
+    /**
+     * Time window covered by each partition (e.g. "1h", "1d") when partitions are created.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.partition.duration'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.partition.duration", defaultValue = "1d")
+    String partitionDuration;
+
+    /**
+     * Number of readings per block of the "compressed" format. Larger blocks compress slightly
+     * better, smaller ones are folded from their headers by more queries.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.compression.block-size'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.compression.block-size", defaultValue = "1024")
+    int compressionBlockSize;
+
+    /**
+     * Base resolutions (e.g. "10s,1m,1h") pre-aggregated per device after loading.
+     * Queries at a multiple of one of them merge its buckets instead of scanning raw readings.
+     * Rollups are disabled when the key is not set.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.rollup.resolutions'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.rollup.resolutions")
+    Optional<List<String>> rollupResolutions;
+
+    /**
+     * Whether every rollup bucket keeps a quantile sketch of its device temperatures, so percentile
+     * queries are merged from the rollups as well. Costs a small array per bucket; without it,
+     * percentile queries aggregate raw readings.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.rollup.sketches'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.rollup.sketches", defaultValue = "false")
+    boolean rollupSketches;
+
+    /**
+     * Number of threads parsing the CSV file in parallel; defaults to the number of available processors.
+     * Can be configured via application.properties using the key 'org.acme.telemetry.load.threads'
+     */
+    @ConfigProperty(name = "org.acme.telemetry.load.threads")
+    Optional<Integer> loadThreads;
+
+    static final String FORMAT_CSV = "csv";
+    static final String FORMAT_SEGMENT = "segment";
+    static final String FORMAT_PARTITIONED = "partitioned";
+    static final String FORMAT_COMPRESSED = "compressed";
+
+    /**
+     * Everything a query reads from the store, published as a whole: a query that takes the
+     * snapshot once never sees series of one load combined with rollups of another.
+     *
+     * @param devices Series of every device, in order of first appearance in the data file; empty for mapped formats
+     * @param segment Mapped segment, partitions or compressed blocks unless the "csv" format is configured, else null
+     * @param rollups Rollup pyramid of the data, or null when rollups are disabled or not built yet
+     * @param version Incremented whenever the data or its rollups are replaced, but not when readings are appended
+     */
+    record Snapshot(Map<String, DeviceSeries> devices, TelemetryRows segment, TelemetryRollups rollups, long version) {
+
+        /** @return Number of stored rows of all devices */
+        long rowCount() {
+            if (segment != null) {
+                return segment.getRowCount();
+            }
+            long rows = 0;
+            for (DeviceSeries series : devices.values()) {
+                rows += series.size();
+            }
+            return rows;
+        }
+
+        /**
+         * Counts the stored rows of all devices within a time range, by binary search in memory.
+         *
+         * @param fromMillis Start of the range in epoch milliseconds (inclusive)
+         * @param toMillis End of the range in epoch milliseconds (exclusive)
+         * @return Number of rows within the range
+         */
+        long countRows(long fromMillis, long toMillis) {
+            if (segment != null) {
+                return segment.countRows(fromMillis, toMillis);
+            }
+            long rows = 0;
+            for (DeviceSeries series : devices.values()) {
+                rows += series.lowerBound(toMillis) - series.lowerBound(fromMillis);
+            }
+            return rows;
+        }
+    }
+
+    /** Data published to queries; replaced, never modified */
+    private volatile Snapshot snapshot = new Snapshot(Map.of(), null, null, 0);
+
+    /** Parsing throughput of the last CSV load */
+    private volatile double loadRowsPerSecond;
+
+    /** Time the last CSV load took to open or map the file, and in total */
+    private volatile long loadOpenNanos;
+    private volatile long loadNanos;
+
+    /** Serializes reloads; appends only lock the store itself, so they are not held up by a reload */
+    private final Object reloadLock = new Object();
+
+    /** Part of the CSV file on disk read so far, see {@link #appendTail()}; guarded by reloadLock */
+    private CsvPosition csvPosition;
+
+    /** Notified of every append, in order */
+    private final List<AppendListener> appendListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Receives readings appended to the store. Called while appends are locked, in append order,
+     * so implementations must be quick and must not append themselves.
+     */
+    interface AppendListener {
+
+        /**
+         * @param previous Series of all devices before the append
+         * @param current Series of all devices after the append
+         * @param readings Time-sorted readings appended per device
+         */
+        void appended(Map<String, DeviceSeries> previous, Map<String, DeviceSeries> current,
+                      List<DeviceSeries> readings);
+    }
+
+    /**
+     * How far the CSV file on disk has been read.
+     *
+     * @param fileKey File system identity of the file, or null if the file system has none
+     * @param bytes Number of bytes read from the start of the file
+     * @param tail Last bytes read, used to tell a file that only grew from a rewritten one
+     */
+    private record CsvPosition(Object fileKey, long bytes, byte[] tail) {
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        switch (storageFormat) {
+            case FORMAT_CSV -> loadTelemetryData();
+            case FORMAT_SEGMENT -> openSegment();
+            case FORMAT_PARTITIONED -> openPartitions();
+            case FORMAT_COMPRESSED -> loadCompressedData();
+            default -> throw new IllegalStateException("Unknown storage format: " + storageFormat);
+        }
+        buildRollups();
+    }
+
+    /** @return The data currently published to queries */
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /** @return Series of all devices, in order of first appearance in the data file; empty in segment format */
+    Collection<DeviceSeries> getDevices() {
+        return snapshot.devices().values();
+    }
+
+    /** @return The mapped segment or partitions, or null when the data is held in memory */
+    TelemetryRows getSegment() {
+        return snapshot.segment();
+    }
+
+    /** @return Rollups of the loaded data, or null when rollups are disabled */
+    TelemetryRollups getRollups() {
+        return snapshot.rollups();
+    }
+
+    /** @return Rows parsed per second by the last CSV load, or 0 if the CSV file was not loaded */
+    double getLoadRowsPerSecond() {
+        return loadRowsPerSecond;
+    }
+
+    /** @return Nanoseconds the last CSV load spent opening or mapping the file, or 0 if the CSV file was not loaded */
+    long getLoadOpenNanos() {
+        return loadOpenNanos;
+    }
+
+    /** @return Nanoseconds the last CSV load took in total, or 0 if the CSV file was not loaded */
+    long getLoadNanos() {
+        return loadNanos;
+    }
+
+    /**
+     * @return Version of the loaded data; changes whenever results computed from it may be stale,
+     *         except through appended readings, which only change the series of their devices
+     */
+    long getVersion() {
+        return snapshot.version();
+    }
+
+    /**
+     * @return The file or catalog whose changes {@link #reload()} picks up, or null if the data
+     *         is not read from a file on disk (e.g. a CSV file on the classpath)
+     */
+    Path getDataPath() {
+        Path path = switch (storageFormat) {
+            case FORMAT_SEGMENT -> Path.of(segmentPath);
+            case FORMAT_PARTITIONED -> Path.of(partitionPath).resolve(TelemetryPartitions.CATALOG_FILE);
+            default -> Path.of(csvFilePath);
+        };
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    /** @param listener Notified of every later append */
+    void addAppendListener(AppendListener listener) {
+        appendListeners.add(listener);
+    }
+
+    /**
+     * Appends ingested readings to the in-memory series of their devices and publishes all of them
+     * at once. Appends are serialized, while queries keep reading the previously published series
+     * without locking; devices seen for the first time are added after the known ones.
+     * The rollups are updated with the same readings, so queries keep merging pre-aggregated
+     * buckets instead of falling back to raw readings for the devices that received data.
+     *
+     * @param readings Time-sorted readings per device, at most one series per device
+     * @return Number of readings appended
+     * @throws IllegalStateException if the data is served from segments, which cannot be appended to
+     */
+    synchronized long append(List<DeviceSeries> readings) {
+        Snapshot current = snapshot;
+        if (current.segment() != null) {
+            throw new IllegalStateException("Telemetry records can only be ingested with storage format '"
+                + FORMAT_CSV + "'");
+        }
+        Map<String, DeviceSeries> previous = current.devices();
+        Map<String, DeviceSeries> appended = new LinkedHashMap<>(previous);
+        long rowCount = 0;
+        for (DeviceSeries series : readings) {
+            appended.merge(series.getDeviceId(), series, DeviceSeries::append);
+            rowCount += series.size();
+        }
+        Map<String, DeviceSeries> published = Collections.unmodifiableMap(appended);
+        TelemetryRollups rollups = current.rollups() == null ? null : current.rollups().append(previous, published, readings);
+        snapshot = new Snapshot(published, null, rollups, current.version());
+        for (AppendListener listener : appendListeners) {
+            listener.appended(previous, published, readings);
+        }
+        return rowCount;
+    }
+
+    /**
+     * Loads all telemetry data from the CSV file into per-device columns.
+     * The rollups of the previous data are dropped; see {@link #buildRollups()}.
+     *
+     * @throws RuntimeException if the file cannot be found, read or parsed
+     */
+    void loadTelemetryData() {
+        synchronized (reloadLock) {
+            publish(readCsvFile(), null, null);
+        }
+    }
+
+    /**
+     * Maps the configured segment file, converting the CSV file into it first if it does not exist yet.
+     *
+     * @throws RuntimeException if either file cannot be read or written
+     */
+    void openSegment() {
+        synchronized (reloadLock) {
+            publish(Map.of(), mapSegment(), null);
+        }
+    }
+
+    /**
+     * Opens the catalog of the configured partition directory, converting the CSV file into
+     * partitions first if the directory has no catalog yet. Partitions are mapped when first queried.
+     *
+     * @throws RuntimeException if the files cannot be read or written
+     * @throws jakarta.ws.rs.BadRequestException if the configured partition duration is not supported
+     */
+    void openPartitions() {
+        synchronized (reloadLock) {
+            publish(Map.of(), mapPartitions(), null);
+        }
+    }
+
+    /**
+     * Loads all telemetry data from the CSV file into compressed blocks per device.
+     *
+     * @throws RuntimeException if the file cannot be found, read or parsed
+     */
+    void loadCompressedData() {
+        synchronized (reloadLock) {
+            publish(Map.of(), compressCsvFile(), null);
+        }
+    }
+
+    /**
+     * Pre-aggregates the loaded data at the configured rollup resolutions.
+     *
+     * @throws jakarta.ws.rs.BadRequestException if a configured resolution is not supported
+     */
+    void buildRollups() {
+        synchronized (reloadLock) {
+            Snapshot current = snapshot;
+            TelemetryRollups rollups = rollUp(current.devices().values(), current.segment());
+            synchronized (this) {
+                // Devices appended to meanwhile are aggregated from raw readings, see TelemetryRollups#get
+                Snapshot latest = snapshot;
+                snapshot = new Snapshot(latest.devices(), latest.segment(), rollups, latest.version() + 1);
+            }
+        }
+    }
+
+    /**
+     * Picks up a changed data file without a restart. A CSV file that only grew since it was last
+     * read has its new, complete lines appended like ingested readings. Otherwise the data is read,
+     * mapped and rolled up again on the calling thread and published as one new snapshot: queries
+     * keep using the previous snapshot until then and are never blocked by the reload.
+     * A full reload replaces readings ingested through the API with the file's content.
+     *
+     * @throws RuntimeException if the data cannot be read; the previous snapshot stays published
+     */
+    void reload() {
+        synchronized (reloadLock) {
+            long started = System.nanoTime();
+            if (FORMAT_CSV.equals(storageFormat)) {
+                long appended = appendTail();
+                if (appended >= 0) {
+                    if (appended > 0) {
+                        LOG.infof("Appended %d telemetry readings from the end of %s", appended, csvFilePath);
+                    }
+                    return;
+                }
+            }
+            Map<String, DeviceSeries> devices = Map.of();
+            TelemetryRows rows = null;
+            switch (storageFormat) {
+                case FORMAT_CSV -> devices = readCsvFile();
+                case FORMAT_SEGMENT -> rows = mapSegment();
+                case FORMAT_PARTITIONED -> rows = mapPartitions();
+                case FORMAT_COMPRESSED -> rows = compressCsvFile();
+                default -> throw new IllegalStateException("Unknown storage format: " + storageFormat);
+            }
+            publish(devices, rows, rollUp(devices.values(), rows));
+            LOG.infof("Reloaded telemetry data in %d ms", (System.nanoTime() - started) / 1_000_000);
+        }
+    }
+
+    /**
+     * Publishes new data in place of the current one. Series of devices that were already known
+     * are marked as replacing the previous ones, so buckets cached for those are not reused.
+     */
+    private synchronized void publish(Map<String, DeviceSeries> devices, TelemetryRows segment,
+                                      TelemetryRollups rollups) {
+        Snapshot current = snapshot;
+        Map<String, DeviceSeries> published = devices;
+        if (devices != current.devices() && !current.devices().isEmpty()) {
+            Map<String, DeviceSeries> replacing = new LinkedHashMap<>();
+            for (DeviceSeries series : devices.values()) {
+                DeviceSeries previous = current.devices().get(series.getDeviceId());
+                replacing.put(series.getDeviceId(), previous == null ? series : series.replacing(previous));
+            }
+            published = Collections.unmodifiableMap(replacing);
+        }
+        snapshot = new Snapshot(published, segment, rollups, current.version() + 1);
+    }
+
+    /**
+     * Reads the new lines of a CSV file on disk that only grew since it was last read and appends them.
+     * A trailing line without its newline yet is left for the next call.
+     *
+     * @return Number of readings appended, or -1 if the file was replaced or rewritten and must be read again
+     * @throws RuntimeException if the file cannot be read or a new line cannot be parsed
+     */
+    private long appendTail() {
+        CsvPosition position = csvPosition;
+        Path path = Path.of(csvFilePath);
+        if (position == null || position.tail().length == 0 || position.tail()[position.tail().length - 1] != '\n') {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            long size = channel.size();
+            if (!Objects.equals(fileKey, position.fileKey()) || size < position.bytes()
+                    || size - position.bytes() > MAX_CHUNK_BYTES) {
+                return -1;
+            }
+            ByteBuffer tail = readFully(channel, position.bytes() - position.tail().length, position.tail().length);
+            if (!Arrays.equals(tail.array(), position.tail())) {
+                return -1;
+            }
+            ByteBuffer added = readFully(channel, position.bytes(), (int) (size - position.bytes()));
+            int end = added.limit();
+            while (end > 0 && added.get(end - 1) != '\n') {
+                end--;
+            }
+            if (end == 0) {
+                return 0;
+            }
+            List<DeviceSeries> readings = parseCsvLines(added.slice(0, end));
+            long appended = readings.isEmpty() ? 0 : append(readings);
+            csvPosition = new CsvPosition(fileKey, position.bytes() + end, lastBytes(added.slice(0, end)));
+            return appended;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new RuntimeException("Error reading telemetry data from " + csvFilePath, e);
+        }
+    }
+
+    /**
+     * Parses CSV lines that do not start with the header.
+     *
+     * @param lines Complete lines
+     * @return Time-sorted readings per device, in order of first appearance
+     * @throws IllegalArgumentException if a row does not have the expected layout
+     */
+    private static List<DeviceSeries> parseCsvLines(ByteBuffer lines) {
+        ParsedSlice parsed = ParsedSlice.parse(lines, false);
+        List<DeviceSeries> readings = new ArrayList<>(parsed.builders.size());
+        for (DeviceSeries.Builder builder : parsed.builders) {
+            readings.add(builder.build());
+        }
+        return readings;
+    }
+
+    /** @return Copy of the last {@link #CSV_TAIL_BYTES} bytes of the buffer, or all of them if it is shorter */
+    private static byte[] lastBytes(ByteBuffer buffer) {
+        int length = Math.min(CSV_TAIL_BYTES, buffer.remaining());
+        byte[] tail = new byte[length];
+        buffer.get(buffer.limit() - length, tail);
+        return tail;
+    }
+
+    /** @return Heap buffer holding the given range of the file */
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("File ended at offset " + (position + buffer.position()));
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Parses the CSV file into per-device series and remembers how much of it was read.
+     *
+     * @return Series of every device, in order of first appearance
+     * @throws RuntimeException if the file cannot be found, read or parsed
+     */
+    private Map<String, DeviceSeries> readCsvFile() {
+        long started = System.nanoTime();
+        int threads = loadThreadCount();
+        List<DeviceSeries> parsed;
+        try {
+            Path path = Path.of(csvFilePath);
+            Object fileKey = Files.isRegularFile(path) ? Files.readAttributes(path, BasicFileAttributes.class).fileKey() : null;
+            List<ByteBuffer> chunks = readDataFile();
+            loadOpenNanos = System.nanoTime() - started;
+            long bytes = 0;
+            for (ByteBuffer chunk : chunks) {
+                bytes += chunk.remaining();
+            }
+            byte[] tail = chunks.isEmpty() ? new byte[0] : lastBytes(chunks.get(chunks.size() - 1));
+            parsed = parseCsv(chunks, threads);
+            csvPosition = Files.isRegularFile(path) ? new CsvPosition(fileKey, bytes, tail) : null;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new RuntimeException("Error reading telemetry data from " + csvFilePath, e);
+        }
+
+        long rowCount = 0;
+        Map<String, DeviceSeries> loaded = new LinkedHashMap<>();
+        for (DeviceSeries series : parsed) {
+            loaded.put(series.getDeviceId(), series);
+            rowCount += series.size();
+        }
+
+        long elapsedNanos = Math.max(1, System.nanoTime() - started);
+        loadNanos = elapsedNanos;
+        loadRowsPerSecond = rowCount * 1e9 / elapsedNanos;
+        LOG.infof("Loaded %d telemetry readings for %d devices from %s in %d ms (%.0f rows/s on %d threads)",
+            rowCount, loaded.size(), csvFilePath, elapsedNanos / 1_000_000, loadRowsPerSecond, threads);
+        return Collections.unmodifiableMap(loaded);
+    }
+
+    /** @return The configured segment, converted from the CSV file first if it does not exist */
+    private TelemetrySegment mapSegment() {
+        Path path = Path.of(segmentPath);
+        TelemetrySegment mapped;
+        try {
+            if (!Files.isRegularFile(path)) {
+                long started = System.nanoTime();
+                long rows = TelemetrySegment.writeFile(parseCsv(readDataFile(), loadThreadCount()), path, segmentIndexInterval);
+                LOG.infof("Converted %d telemetry readings from %s to segment %s in %d ms",
+                    rows, csvFilePath, segmentPath, (System.nanoTime() - started) / 1_000_000);
+            }
+            mapped = TelemetrySegment.open(path);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new RuntimeException("Error opening telemetry segment " + segmentPath, e);
+        }
+        LOG.infof("Mapped telemetry segment %s with %d readings for %d devices",
+            segmentPath, mapped.getRowCount(), mapped.getDeviceCount());
+        return mapped;
+    }
+
+    /** @return The readings of the CSV file in compressed blocks */
+    private CompressedTelemetry compressCsvFile() {
+        long started = System.nanoTime();
+        CompressedTelemetry compressed;
+        try {
+            compressed = CompressedTelemetry.encode(parseCsv(readDataFile(), loadThreadCount()), compressionBlockSize);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new RuntimeException("Error reading telemetry data from " + csvFilePath, e);
+        }
+        long bytes = compressed.getEncodedBytes();
+        LOG.infof("Compressed %d telemetry readings for %d devices from %s into %d bytes (%.1f bytes per reading) in %d ms",
+            compressed.getRowCount(), compressed.getDeviceCount(), csvFilePath, bytes,
+            bytes / (double) Math.max(1, compressed.getRowCount()), (System.nanoTime() - started) / 1_000_000);
+        return compressed;
+    }
+
+    /** @return The configured partitions, converted from the CSV file first if there is no catalog */
+    private TelemetryPartitions mapPartitions() {
+        Path directory = Path.of(partitionPath);
+        TelemetryPartitions partitions;
+        try {
+            if (!Files.isRegularFile(directory.resolve(TelemetryPartitions.CATALOG_FILE))) {
+                long started = System.nanoTime();
+                long partitionMillis = TelemetryValidator.parseResolution(partitionDuration.trim()).toMillis();
+                long rows = TelemetryPartitions.writeDirectory(parseCsv(readDataFile(), loadThreadCount()), directory,
+                    partitionMillis, segmentIndexInterval);
+                LOG.infof("Converted %d telemetry readings from %s to %s partitions in %s in %d ms",
+                    rows, csvFilePath, partitionDuration, partitionPath, (System.nanoTime() - started) / 1_000_000);
+            }
+            partitions = TelemetryPartitions.open(directory);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new RuntimeException("Error opening telemetry partitions " + partitionPath, e);
+        }
+        LOG.infof("Opened %d telemetry partitions in %s with %d readings for %d devices",
+            partitions.getPartitionCount(), partitionPath, partitions.getRowCount(), partitions.getDeviceCount());
+        return partitions;
+    }
+
+    /**
+     * @return Rollups of the given data at the configured resolutions, or null when rollups are disabled
+     * @throws jakarta.ws.rs.BadRequestException if a configured resolution is not supported
+     */
+    private TelemetryRollups rollUp(Collection<DeviceSeries> devices, TelemetryRows segment) {
+        if (rollupResolutions.isEmpty()) {
+            return null;
+        }
+        long[] resolutions = rollupResolutions.get().stream()
+            .mapToLong(resolution -> TelemetryValidator.parseResolution(resolution.trim()).toMillis())
+            .sorted()
+            .distinct()
+            .toArray();
+
+        long started = System.nanoTime();
+        TelemetryRollups built = segment != null
+            ? TelemetryRollups.fromSegment(resolutions, rollupSketches, segment)
+            : TelemetryRollups.fromSeries(resolutions, rollupSketches, devices);
+        LOG.infof("Built telemetry rollups for %s in %d ms",
+            rollupResolutions.get(), (System.nanoTime() - started) / 1_000_000);
+        return built;
+    }
+
+    /** @return Configured number of CSV parsing threads */
+    private int loadThreadCount() {
+        return Math.max(1, loadThreads.orElse(Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Parses CSV data into time-sorted per-device series.
+     *
+     * @param chunks Line-aligned buffers covering the whole file in order, the first one starting with the header
+     * @return One series per device, in order of first appearance
+     * @throws IllegalArgumentException if a row does not have the expected layout
+     */
+    static List<DeviceSeries> parseCsv(List<ByteBuffer> chunks) {
+        return parseCsv(chunks, 1);
+    }
+
+    /**
+     * Parses CSV data into time-sorted per-device series, splitting it into line-aligned slices
+     * that are parsed in parallel. Every slice gets its own parser and per-device buffers; the
+     * buffers are then concatenated in file order, so the result is the same as a sequential parse.
+     *
+     * @param chunks Line-aligned buffers covering the whole file in order, the first one starting with the header
+     * @param threads Number of slices parsed at the same time
+     * @return One series per device, in order of first appearance
+     * @throws IllegalArgumentException if a row does not have the expected layout
+     */
+    static List<DeviceSeries> parseCsv(List<ByteBuffer> chunks, int threads) {
+        List<ByteBuffer> slices = new ArrayList<>();
+        for (ByteBuffer chunk : chunks) {
+            slices.addAll(splitLineAligned(chunk, threads, MIN_PARALLEL_SLICE_BYTES));
+        }
+
+        List<ParsedSlice> parsed = new ArrayList<>(slices.size());
+        if (threads <= 1 || slices.size() <= 1) {
+            for (int i = 0; i < slices.size(); i++) {
+                parsed.add(ParsedSlice.parse(slices.get(i), i == 0));
+            }
+        } else {
+            try (ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, slices.size()))) {
+                List<Future<ParsedSlice>> futures = new ArrayList<>(slices.size());
+                for (int i = 0; i < slices.size(); i++) {
+                    ByteBuffer slice = slices.get(i);
+                    boolean header = i == 0;
+                    futures.add(pool.submit(() -> ParsedSlice.parse(slice, header)));
+                }
+                for (Future<ParsedSlice> future : futures) {
+                    parsed.add(future.get());
+                }
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while parsing telemetry data", e);
+            }
+        }
+
+        // Concatenating the slices in file order keeps every device's arrival order
+        Map<String, DeviceSeries.Builder> merged = new LinkedHashMap<>();
+        for (ParsedSlice slice : parsed) {
+            for (int i = 0; i < slice.builders.size(); i++) {
+                DeviceSeries.Builder builder = slice.builders.get(i);
+                DeviceSeries.Builder target = merged.putIfAbsent(slice.parser.getDeviceId(i), builder);
+                if (target != null) {
+                    target.addAll(builder);
+                }
+            }
+        }
+
+        List<DeviceSeries> series = new ArrayList<>(merged.size());
+        for (DeviceSeries.Builder builder : merged.values()) {
+            series.add(builder.build());
+        }
+        return series;
+    }
+
+    /**
+     * Splits a buffer into about the given number of slices, each ending right after a newline
+     * (except the last one) so every slice can be parsed on its own.
+     *
+     * @param buffer Buffer to split
+     * @param parts Desired number of slices
+     * @param minSliceBytes Smallest slice size worth splitting off
+     * @return Line-aligned slices covering the whole buffer in order
+     */
+    static List<ByteBuffer> splitLineAligned(ByteBuffer buffer, int parts, int minSliceBytes) {
+        int length = buffer.remaining();
+        int base = buffer.position();
+        int sliceBytes = Math.max(minSliceBytes, (int) Math.min(Integer.MAX_VALUE, ((long) length + parts - 1) / parts));
+        List<ByteBuffer> slices = new ArrayList<>();
+        int start = 0;
+        while (start < length) {
+            int end = (int) Math.min(length, (long) start + sliceBytes);
+            while (end < length && buffer.get(base + end - 1) != '\n') {
+                end++;
+            }
+            slices.add(buffer.slice(base + start, end - start));
+            start = end;
+        }
+        return slices;
+    }
+
+    /** Readings of one slice of the CSV file, grouped by the slice parser's device index */
+    private static final class ParsedSlice {
+
+        private final TelemetryCsvParser parser = new TelemetryCsvParser();
+        private final List<DeviceSeries.Builder> builders = new ArrayList<>();
+
+        static ParsedSlice parse(ByteBuffer slice, boolean header) {
+            ParsedSlice parsed = new ParsedSlice();
+            parsed.parser.parse(slice, header, (deviceIndex, epochMillis, ambientTemperature, deviceTemperature) -> {
+                if (deviceIndex == parsed.builders.size()) {
+                    parsed.builders.add(new DeviceSeries.Builder(parsed.parser.getDeviceId(deviceIndex)));
+                }
+                parsed.builders.get(deviceIndex).add(epochMillis, ambientTemperature, deviceTemperature);
+            });
+            return parsed;
+        }
+    }
+
+    /**
+     * Reads the configured data file, preferring a file on disk over a classpath resource.
+     * Files on disk are memory-mapped in line-aligned chunks of at most {@link #MAX_CHUNK_BYTES},
+     * classpath resources are read into a single heap buffer.
+     *
+     * @return Buffers covering the whole file in order, each ending on a line boundary
+     * @throws IOException if the file cannot be read
+     */
+    private List<ByteBuffer> readDataFile() throws IOException {
+        Path path = Path.of(csvFilePath);
+        if (Files.isRegularFile(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return mapLineAlignedChunks(channel, MAX_CHUNK_BYTES);
+            }
+        }
+        try (InputStream resource = Thread.currentThread().getContextClassLoader().getResourceAsStream(csvFilePath)) {
+            if (resource == null) {
+                throw new RuntimeException("Telemetry data file not found: " + csvFilePath);
+            }
+            return List.of(ByteBuffer.wrap(resource.readAllBytes()));
+        }
+    }
+
+    /**
+     * Maps a file as consecutive read-only buffers that each end right after a newline
+     * (except the last one), so every buffer can be parsed on its own.
+     *
+     * @param channel Open channel of the file
+     * @param maxChunkBytes Upper bound for the size of a single buffer
+     * @return Line-aligned buffers covering the whole file in order
+     * @throws IOException if the file cannot be mapped or contains a line longer than maxChunkBytes
+     */
+    static List<ByteBuffer> mapLineAlignedChunks(FileChannel channel, long maxChunkBytes) throws IOException {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        long size = channel.size();
+        long start = 0;
+        while (start < size) {
+            long length = Math.min(maxChunkBytes, size - start);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            int end = (int) length;
+            if (start + length < size) {
+                // Cut after the last complete line; the rest is mapped again with the next chunk
+                while (end > 0 && window.get(end - 1) != '\n') {
+                    end--;
+                }
+                if (end == 0) {
+                    throw new IOException("Line longer than " + maxChunkBytes + " bytes at offset " + start);
+                }
+            }
+            chunks.add(window.slice(0, end));
+            start += end;
+        }
+        return chunks;
+    }
+}
@@ -2,6 +2,7 @@ package org.acme.telemetry;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.ws.rs.BadRequestException;
+import java.time.Duration;
 import java.time.Instant;
 
 /**
@@ -86,4 +87,91 @@ public class TelemetryValidator {
                 "Invalid resolution. Supported values: 10s, 30s, 1m, 5m, 15m, 30m, 1h, 6h, 12h, 1d");
         }
     }
+
+    /**
+     * Determines the number of buckets returned in one response.
+     * 
+     * @param limit Requested number of buckets per page, or null for the server maximum
+     * @param maxBuckets Server maximum of buckets per response, or 0 for no maximum
+     * @return Number of buckets per page, never above the server maximum, or 0 if responses are not limited
+     * @throws BadRequestException if the limit is not a positive integer
+     */
+    public static int parsePageSize(String limit, int maxBuckets) {
+        if (limit == null) {
+            return maxBuckets;
+        }
+        int requested;
+        try {
+            requested = Integer.parseInt(limit.trim());
+        } catch (NumberFormatException e) {
+            requested = 0;
+        }
+        if (requested <= 0) {
+            throw new BadRequestException("'limit' must be a positive integer");
+        }
+        return maxBuckets > 0 ? Math.min(requested, maxBuckets) : requested;
+    }
+
+    /**
+     * Determines the number of devices returned by a top query.
+     * 
+     * @param k Requested number of devices, or null for the default of 10
+     * @return Number of devices to return
+     * @throws BadRequestException if k is not an integer between 1 and {@link FleetAggregator#MAX_TOP}
+     */
+    public static int parseTopCount(String k) {
+        if (k == null) {
+            return 10;
+        }
+        int requested;
+        try {
+            requested = Integer.parseInt(k.trim());
+        } catch (NumberFormatException e) {
+            requested = 0;
+        }
+        if (requested <= 0 || requested > FleetAggregator.MAX_TOP) {
+            throw new BadRequestException("'k' must be an integer between 1 and " + FleetAggregator.MAX_TOP);
+        }
+        return requested;
+    }
+
+    /**
+     * Parses the sort order of a top query.
+     * 
+     * @param order "desc" for the highest values first, "asc" for the lowest, or null for "desc"
+     * @return true if the highest values rank first
+     * @throws BadRequestException if the order is neither "asc" nor "desc"
+     */
+    public static boolean parseDescending(String order) {
+        if (order == null || order.equalsIgnoreCase("desc")) {
+            return true;
+        }
+        if (order.equalsIgnoreCase("asc")) {
+            return false;
+        }
+        throw new BadRequestException("Invalid order '" + order + "'. Use 'asc' or 'desc'");
+    }
+
+    /**
+     * Converts a string resolution value to a Duration object.
+     * 
+     * @param resolution String value like "10s", "1m", "1h", "1d"
+     * @return Corresponding Duration object
+     * @throws BadRequestException if resolution format is invalid
+     */
+    public static Duration parseResolution(String resolution) {
+        return switch (resolution.toLowerCase()) {
+            case "10s" -> Duration.ofSeconds(10);
+            case "30s" -> Duration.ofSeconds(30);
+            case "1m" -> Duration.ofMinutes(1);
+            case "5m" -> Duration.ofMinutes(5);
+            case "15m" -> Duration.ofMinutes(15);
+            case "30m" -> Duration.ofMinutes(30);
+            case "1h" -> Duration.ofHours(1);
+            case "6h" -> Duration.ofHours(6);
+            case "12h" -> Duration.ofHours(12);
+            case "1d" -> Duration.ofDays(1);
+            default -> throw new BadRequestException("Unsupported resolution: " + resolution);
+        };
+    }
 }
\ No newline at end of file
@@ -0,0 +1,96 @@
+package org.acme.telemetry;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vectorized variant of {@link StatisticsKernel#computeScalar}: every lane keeps its own
+ * min and max of both columns, and the lanes are reduced once at the end. Sums are added up
+ * in reading order within the same loop, since adding lane by lane would round differently
+ * from the single-pass engine and change the averages in the last bits.
+ *
+ * Lanes are updated by comparison and blend like the scalar {@code if (v < min)}, so a NaN reading
+ * is skipped and of equal readings the first is kept, unlike {@code min}/{@code max} lane operations.
+ * Which of 0.0 and -0.0 came first is lost across lanes, and a NaN first reading is kept by the
+ * scalar loop, so in these cases the range is computed by the scalar loop instead.
+ * Only loaded by {@link StatisticsKernel} after it checked that jdk.incubator.vector is available.
+ */
+final class VectorStatisticsKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorStatisticsKernel() {
+    }
+
+    /** @return Number of readings processed per instruction */
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    /**
+     * Computes the statistics of a range of readings, one vector of readings at a time.
+     * Readings after the last whole vector are folded in one by one.
+     *
+     * @param ambientTemperatures Ambient temperatures of the readings
+     * @param deviceTemperatures Device temperatures of the readings
+     * @param from Index of the first reading (inclusive)
+     * @param to Index of the last reading (exclusive), after from
+     * @param statistics Receives the statistics, indexed by the constants of {@link StatisticsKernel}
+     */
+    static void compute(double[] ambientTemperatures, double[] deviceTemperatures, int from, int to,
+                        double[] statistics) {
+        if (Double.isNaN(ambientTemperatures[from]) || Double.isNaN(deviceTemperatures[from])) {
+            StatisticsKernel.computeScalar(ambientTemperatures, deviceTemperatures, from, to, statistics);
+            return;
+        }
+        DoubleVector minAmbient = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        DoubleVector maxAmbient = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        DoubleVector minDevice = minAmbient;
+        DoubleVector maxDevice = maxAmbient;
+        double sumAmbientValue = 0;
+        double sumDeviceValue = 0;
+
+        int lanes = SPECIES.length();
+        int upper = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < upper; i += lanes) {
+            DoubleVector ambient = DoubleVector.fromArray(SPECIES, ambientTemperatures, i);
+            DoubleVector device = DoubleVector.fromArray(SPECIES, deviceTemperatures, i);
+            minAmbient = minAmbient.blend(ambient, ambient.compare(VectorOperators.LT, minAmbient));
+            maxAmbient = maxAmbient.blend(ambient, ambient.compare(VectorOperators.GT, maxAmbient));
+            minDevice = minDevice.blend(device, device.compare(VectorOperators.LT, minDevice));
+            maxDevice = maxDevice.blend(device, device.compare(VectorOperators.GT, maxDevice));
+            for (int j = i; j < i + lanes; j++) {
+                sumAmbientValue += ambientTemperatures[j];
+                sumDeviceValue += deviceTemperatures[j];
+            }
+        }
+
+        double minAmbientValue = minAmbient.reduceLanes(VectorOperators.MIN);
+        double maxAmbientValue = maxAmbient.reduceLanes(VectorOperators.MAX);
+        double minDeviceValue = minDevice.reduceLanes(VectorOperators.MIN);
+        double maxDeviceValue = maxDevice.reduceLanes(VectorOperators.MAX);
+        if (minAmbientValue == 0 || maxAmbientValue == 0 || minDeviceValue == 0 || maxDeviceValue == 0) {
+            StatisticsKernel.computeScalar(ambientTemperatures, deviceTemperatures, from, to, statistics);
+            return;
+        }
+        for (; i < to; i++) {
+            double ambient = ambientTemperatures[i];
+            double device = deviceTemperatures[i];
+            if (ambient < minAmbientValue) minAmbientValue = ambient;
+            if (ambient > maxAmbientValue) maxAmbientValue = ambient;
+            sumAmbientValue += ambient;
+            if (device < minDeviceValue) minDeviceValue = device;
+            if (device > maxDeviceValue) maxDeviceValue = device;
+            sumDeviceValue += device;
+        }
+
+        statistics[StatisticsKernel.MIN_AMBIENT] = minAmbientValue;
+        statistics[StatisticsKernel.MAX_AMBIENT] = maxAmbientValue;
+        statistics[StatisticsKernel.SUM_AMBIENT] = sumAmbientValue;
+        statistics[StatisticsKernel.MIN_DEVICE] = minDeviceValue;
+        statistics[StatisticsKernel.MAX_DEVICE] = maxDeviceValue;
+        statistics[StatisticsKernel.SUM_DEVICE] = sumDeviceValue;
+    }
+}
@@ -0,0 +1,79 @@
+package org.acme.telemetry;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TelemetryCsvParserTest {
+
+    private record Row(String deviceId, long epochMillis, double ambient, double device) {}
+
+    private List<Row> parse(String csv) {
+        TelemetryCsvParser parser = new TelemetryCsvParser();
+        List<Row> rows = new ArrayList<>();
+        parser.parse(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)), true,
+            (deviceIndex, epochMillis, ambient, device) ->
+                rows.add(new Row(parser.getDeviceId(deviceIndex), epochMillis, ambient, device)));
+        return rows;
+    }
+
+    @Test
+    void parse_GeneratorOutput_MatchesJdkParsers() {
+        List<Row> rows = parse("DeviceId,Timestamp,AmbientTemperature,DeviceTemperature\r\n"
+            + "DEVICE_001,2024-02-02T00:00:00Z,18.37,47.6\r\n"
+            + "DEVICE_002,2024-02-29T23:59:59Z,-0.5,0.30000000000000004\r\n"
+            + "DEVICE_001,2024-02-02T00:00:01Z,22,51.25\r\n");
+
+        assertThat(rows).containsExactly(
+            new Row("DEVICE_001", Instant.parse("2024-02-02T00:00:00Z").toEpochMilli(), 18.37, 47.6),
+            new Row("DEVICE_002", Instant.parse("2024-02-29T23:59:59Z").toEpochMilli(), -0.5, 0.30000000000000004),
+            new Row("DEVICE_001", Instant.parse("2024-02-02T00:00:01Z").toEpochMilli(), 22.0, 51.25));
+    }
+
+    @Test
+    void parse_FractionalSecondsAndOffsets_MatchesInstantParse() {
+        List<Row> rows = parse("header\n"
+            + "D,2024-02-02T00:00:00.5Z,1,2\n"
+            + "D,2024-02-02T00:00:00.123456789Z,1,2\n"
+            + "D,2024-02-02T01:00:00+01:00,1e1, 2.5\n");
+
+        assertThat(rows).extracting(Row::epochMillis).containsExactly(
+            Instant.parse("2024-02-02T00:00:00.5Z").toEpochMilli(),
+            Instant.parse("2024-02-02T00:00:00.123Z").toEpochMilli(),
+            Instant.parse("2024-02-02T00:00:00Z").toEpochMilli());
+        assertThat(rows.get(2).ambient()).isEqualTo(10.0);
+        assertThat(rows.get(2).device()).isEqualTo(2.5);
+    }
+
+    @Test
+    void parse_RepeatedDevices_AssignsDenseIndexesInOrderOfAppearance() {
+        TelemetryCsvParser parser = new TelemetryCsvParser();
+        StringBuilder csv = new StringBuilder("DeviceId,Timestamp,AmbientTemperature,DeviceTemperature\n");
+        for (int i = 0; i < 1000; i++) {
+            csv.append("DEVICE_").append(i % 100).append(",2024-02-02T00:00:00Z,1.0,2.0\n");
+        }
+        List<Integer> indexes = new ArrayList<>();
+        long rows = parser.parse(ByteBuffer.wrap(csv.toString().getBytes(StandardCharsets.UTF_8)), true,
+            (deviceIndex, epochMillis, ambient, device) -> indexes.add(deviceIndex));
+
+        assertThat(rows).isEqualTo(1000);
+        assertThat(parser.getDeviceCount()).isEqualTo(100);
+        assertThat(indexes.subList(0, 100)).isSorted();
+        assertThat(indexes.get(100)).isZero();
+        assertThat(parser.getDeviceId(42)).isEqualTo("DEVICE_42");
+    }
+
+    @Test
+    void parse_MissingColumn_ThrowsWithOffset() {
+        assertThatThrownBy(() -> parse("header\nDEVICE_001,2024-02-02T00:00:00Z,18.37\n"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("byte offset 7");
+    }
+}
@@ -0,0 +1,169 @@
+package org.acme.telemetry;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.RestAssured;
+import io.restassured.config.EncoderConfig;
+import io.restassured.http.ContentType;
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+
+/**
+ * Ingestion changes the store, so these tests run against an application of their own
+ * and the records they post are not seen by the other tests.
+ */
+@QuarkusTest
+@TestProfile(TelemetryIngestionTest.IngestionProfile.class)
+public class TelemetryIngestionTest {
+
+    public static class IngestionProfile implements QuarkusTestProfile {
+    }
+
+    @Inject
+    TelemetryService telemetryService;
+
+    @Inject
+    AggregationBroadcaster aggregationBroadcaster;
+
+    @Test
+    void testIngestEndpoint_JsonArray_VisibleToAggregation() {
+        // Out of time order on purpose
+        given()
+            .contentType(ContentType.JSON)
+            .body("""
+                [{"deviceId":"DEVICE_002","timestamp":"2024-02-02T00:00:20Z","ambientTemperature":21.0,"deviceTemperature":52.0},
+                 {"deviceId":"DEVICE_002","timestamp":"2024-02-02T00:00:00Z","ambientTemperature":19.0,"deviceTemperature":48.0},
+                 {"deviceId":"DEVICE_002","timestamp":"2024-02-02T00:00:10Z","ambientTemperature":20.0,"deviceTemperature":50.0}]
+                """)
+        .when()
+            .post("/telemetry/records")
+        .then()
+            .statusCode(200)
+            .body("recordCount", is(3))
+            .body("deviceCount", is(1));
+
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "1m")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .body("findAll { it.deviceId == 'DEVICE_002' }.size()", is(1))
+            .body("find { it.deviceId == 'DEVICE_002' }.startTime", equalTo("2024-02-02T00:00:00Z"))
+            .body("find { it.deviceId == 'DEVICE_002' }.recordCount", is(3))
+            .body("find { it.deviceId == 'DEVICE_002' }.minAmbientTemperature", is(19.0f))
+            .body("find { it.deviceId == 'DEVICE_002' }.avgDeviceTemperature", is(50.0f));
+    }
+
+    @Test
+    void testIngestEndpoint_Ndjson_AppendedToLoadedDevice() {
+        given()
+            .config(RestAssured.config().encoderConfig(EncoderConfig.encoderConfig()
+                .encodeContentTypeAs(TelemetryResource.APPLICATION_NDJSON, ContentType.TEXT)))
+            .contentType(TelemetryResource.APPLICATION_NDJSON)
+            .body("""
+                {"deviceId":"DEVICE_001","timestamp":"2024-02-02T00:01:00Z","ambientTemperature":21.0,"deviceTemperature":52.0}
+                {"deviceId":"DEVICE_001","timestamp":"2024-02-02T00:01:10Z","ambientTemperature":21.2,"deviceTemperature":52.5}
+                """)
+        .when()
+            .post("/telemetry/records")
+        .then()
+            .statusCode(200)
+            .body("recordCount", is(2));
+
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:02:00Z")
+            .queryParam("resolution", "1m")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .body("findAll { it.deviceId == 'DEVICE_001' }.recordCount", equalTo(List.of(6, 2)));
+    }
+
+    @Test
+    void testIngestEndpoint_InvalidRecord_Returns400AndIngestsNothing() {
+        given()
+            .contentType(ContentType.JSON)
+            .body("""
+                [{"deviceId":"DEVICE_004","timestamp":"2024-02-02T00:00:00Z","ambientTemperature":21.0,"deviceTemperature":52.0},
+                 {"deviceId":"DEVICE_004","timestamp":"yesterday","ambientTemperature":21.0,"deviceTemperature":52.0}]
+                """)
+        .when()
+            .post("/telemetry/records")
+        .then()
+            .statusCode(400)
+            .body("code", equalTo("INVALID_RECORDS"));
+
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "1m")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .body("findAll { it.deviceId == 'DEVICE_004' }.size()", is(0));
+    }
+
+    @Test
+    void testIngestEndpoint_MalformedJson_Returns400() {
+        given()
+            .contentType(ContentType.JSON)
+            .body("[{\"deviceId\":")
+        .when()
+            .post("/telemetry/records")
+        .then()
+            .statusCode(400)
+            .body("code", equalTo("INVALID_RECORDS"));
+    }
+
+    @Test
+    void broadcaster_IngestedReadings_PushesClosedBucketsToSubscribers() {
+        AssertSubscriber<AggregatedTelemetry> all = aggregationBroadcaster
+            .subscribe(Duration.ofSeconds(10), DeviceFilter.ALL)
+            .subscribe().withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        AssertSubscriber<AggregatedTelemetry> filtered = aggregationBroadcaster
+            .subscribe(Duration.ofSeconds(10), DeviceFilter.parse(List.of("DEVICE_006")))
+            .subscribe().withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+
+        long start = Instant.parse("2024-02-03T00:00:00Z").toEpochMilli();
+        for (String deviceId : List.of("DEVICE_005", "DEVICE_006")) {
+            DeviceSeries.Builder readings = new DeviceSeries.Builder(deviceId);
+            readings.add(start + 1_000, 20.0, 50.0);
+            readings.add(start + 9_000, 22.0, 52.0);
+            // Closes the first bucket and stays open itself
+            readings.add(start + 12_000, 24.0, 54.0);
+            telemetryService.ingest(List.of(readings.build()));
+        }
+
+        assertThat(all.getItems()).extracting(AggregatedTelemetry::getDeviceId)
+            .containsExactly("DEVICE_005", "DEVICE_006");
+        AggregatedTelemetry bucket = filtered.getItems().get(0);
+        assertThat(filtered.getItems()).hasSize(1);
+        assertThat(bucket.getDeviceId()).isEqualTo("DEVICE_006");
+        assertThat(bucket.getStartTime()).isEqualTo(Instant.ofEpochMilli(start));
+        assertThat(bucket.getEndTime()).isEqualTo(Instant.ofEpochMilli(start + 10_000));
+        assertThat(bucket.getRecordCount()).isEqualTo(2);
+        assertThat(bucket.getAvgAmbientTemperature()).isEqualTo(21.0);
+        assertThat(bucket.getMaxDeviceTemperature()).isEqualTo(52.0);
+
+        all.cancel();
+        filtered.cancel();
+        assertThat(aggregationBroadcaster.getSubscriberCount()).isZero();
+    }
+}
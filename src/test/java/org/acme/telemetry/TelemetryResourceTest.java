@@ -1,19 +1,43 @@
 package org.acme.telemetry;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import io.restassured.response.Response;
+import jakarta.inject.Inject;
 import org.junit.jupiter.api.Test;
 import org.hamcrest.Matchers;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
 import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 
 @QuarkusTest
 public class TelemetryResourceTest {
 
+    @Inject
+    AggregationAdmission aggregationAdmission;
+
+    @Inject
+    AggregationCoalescer aggregationCoalescer;
+
     @Test
     void testAggregateEndpoint_ValidRequest_Returns200() {
         given()
@@ -33,6 +57,443 @@ public class TelemetryResourceTest {
             .body("[0].avgDeviceTemperature", notNullValue());
     }
 
+    @Test
+    void testAggregateEndpoint_NoDataInRange_ReturnsEmptyArray() {
+        given()
+            .contentType(ContentType.JSON)
+            .queryParam("from", "2024-03-02T00:00:00Z")
+            .queryParam("to", "2024-03-02T00:01:00Z")
+            .queryParam("resolution", "30s")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .contentType(ContentType.JSON)
+            .body(equalTo("[]"));
+    }
+
+    @Test
+    void testAggregateEndpoint_DeviceFilter_ReturnsSelectedDevicesOnly() {
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "30s")
+            .queryParam("device", "DEVICE_00*")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .body("size()", is(2))
+            .body("deviceId", Matchers.everyItem(equalTo("DEVICE_001")));
+
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "30s")
+            .queryParam("device", "DEVICE_002", "DEVICE_003")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .body(equalTo("[]"));
+    }
+
+    @Test
+    void testAggregateEndpoint_InvalidDeviceFilter_Returns400() {
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "30s")
+            .queryParam("device", "DEVICE_*01")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(400)
+            .body("code", equalTo("INVALID_PARAMETERS"));
+    }
+
+    @Test
+    void testAggregateEndpoint_Percentiles_AddedToEveryBucketOnRequestOnly() {
+        JsonPath buckets = given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "30s")
+            .queryParam("percentile", "0,50", "p100")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .body("size()", is(2))
+            .extract().jsonPath();
+
+        // Readings 50.50, 50.75 and 51.00: the extremes are exact, the median within 1%
+        assertThat(buckets.getMap("[0].deviceTemperaturePercentiles")).containsOnlyKeys("p0", "p50", "p100");
+        assertThat(buckets.getDouble("[0].deviceTemperaturePercentiles.p0")).isEqualTo(50.5);
+        assertThat(buckets.getDouble("[0].deviceTemperaturePercentiles.p50")).isCloseTo(50.75, within(0.5075));
+        assertThat(buckets.getDouble("[0].deviceTemperaturePercentiles.p100")).isEqualTo(51.0);
+
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "30s")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .body("[0]", Matchers.not(Matchers.hasKey("deviceTemperaturePercentiles")));
+
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "30s")
+            .queryParam("percentile", "101")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(400)
+            .body("code", equalTo("INVALID_PARAMETERS"));
+    }
+
+    @Test
+    void testAggregateEndpoint_Limit_PagesFollowNextLinks() {
+        List<Object> unpaged = given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "10s")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .header("Link", nullValue())
+            .extract().jsonPath().getList("$");
+        assertThat(unpaged).hasSize(5);
+
+        Response firstPage = given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "10s")
+            .queryParam("limit", 2)
+        .when()
+            .get("/telemetry/aggregate");
+        firstPage.then().statusCode(200).body("size()", is(2));
+
+        List<Object> paged = new ArrayList<>(firstPage.jsonPath().getList("$"));
+        String link = firstPage.getHeader("Link");
+        int pages = 1;
+        while (link != null) {
+            assertThat(link).endsWith("rel=\"next\"").contains("cursor=").contains("limit=2");
+            Response page = given()
+                .urlEncodingEnabled(false)
+                .get(link.substring(link.indexOf('<') + 1, link.indexOf('>')));
+            page.then().statusCode(200);
+            paged.addAll(page.jsonPath().getList("$"));
+            link = page.getHeader("Link");
+            pages++;
+        }
+        assertThat(pages).isEqualTo(3);
+        assertThat(paged).isEqualTo(unpaged);
+    }
+
+    @Test
+    void testAggregateEndpoint_CursorResumedWithOtherPercentiles_Returns400() {
+        String link = given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "10s")
+            .queryParam("percentile", "50")
+            .queryParam("limit", 2)
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .extract().header("Link");
+        String next = link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+        assertThat(next).contains("percentile=50");
+
+        // The cursor was issued for other percentiles; resuming it would mix percentiles across pages
+        given()
+            .urlEncodingEnabled(false)
+            .get(next.replace("percentile=50", "percentile=95"))
+        .then()
+            .statusCode(400)
+            .body("code", equalTo("INVALID_PARAMETERS"));
+    }
+
+    @Test
+    void testAggregateEndpoint_InvalidLimitOrCursor_Returns400() {
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "10s")
+            .queryParam("limit", 0)
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(400)
+            .body("code", equalTo("INVALID_PARAMETERS"));
+
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "10s")
+            .queryParam("cursor", "not-a-cursor")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(400)
+            .body("code", equalTo("INVALID_PARAMETERS"));
+    }
+
+    @Test
+    void testAggregateEndpoint_AcceptCbor_ReturnsSameBucketsAsCbor() throws Exception {
+        List<Map<String, Object>> json = given()
+            .accept(ContentType.JSON)
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "30s")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .extract().jsonPath().getList("$");
+
+        byte[] cbor = given()
+            .accept(TelemetryResource.APPLICATION_CBOR)
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "30s")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .contentType(TelemetryResource.APPLICATION_CBOR)
+            .extract().asByteArray();
+
+        List<Map<String, Object>> decoded = new CBORMapper().readValue(cbor, new TypeReference<>() { });
+        assertThat(decoded).hasSameSizeAs(json);
+        assertThat(decoded.get(0).get("deviceId")).isEqualTo("DEVICE_001");
+        assertThat(decoded.get(0).get("startTime"))
+            .isEqualTo(Instant.parse((String) json.get(0).get("startTime")).toEpochMilli());
+        assertThat(((Number) decoded.get(0).get("avgDeviceTemperature")).doubleValue())
+            .isEqualTo(((Number) json.get(0).get("avgDeviceTemperature")).doubleValue(), within(1e-6));
+        assertThat(cbor.length).isLessThan(given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "30s")
+            .get("/telemetry/aggregate").asByteArray().length);
+    }
+
+    @Test
+    void testAggregateEndpoint_AcceptCbor_ErrorsStayJson() {
+        given()
+            .accept(TelemetryResource.APPLICATION_CBOR)
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "2h")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(400)
+            .contentType(ContentType.JSON)
+            .body("code", equalTo("INVALID_PARAMETERS"));
+    }
+
+    @Test
+    void testTopEndpoint_MaxDeviceTemperature_ReturnsDeviceOverWholeRange() {
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T01:00:00Z")
+            .queryParam("metric", "maxDeviceTemperature")
+            .queryParam("k", "5")
+        .when()
+            .get("/telemetry/top")
+        .then()
+            .statusCode(200)
+            .body("size()", is(1))
+            .body("[0].deviceId", equalTo("DEVICE_001"))
+            .body("[0].startTime", equalTo("2024-02-02T00:00:00Z"))
+            .body("[0].endTime", equalTo("2024-02-02T01:00:00Z"))
+            .body("[0].recordCount", is(6))
+            .body("[0].maxDeviceTemperature", is(51.75f));
+
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T01:00:00Z")
+            .queryParam("metric", "temperature")
+        .when()
+            .get("/telemetry/top")
+        .then()
+            .statusCode(400)
+            .contentType(ContentType.JSON)
+            .body("code", equalTo("INVALID_PARAMETERS"))
+            .body("message", containsString("maxDeviceTemperature"));
+    }
+
+    @Test
+    void testFleetEndpoint_30SecondResolution_CombinesDevicesPerBucket() {
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "30s")
+            .queryParam("percentile", "50")
+        .when()
+            .get("/telemetry/fleet")
+        .then()
+            .statusCode(200)
+            .body("size()", is(2))
+            .body("[0].deviceId", nullValue())
+            .body("[0].startTime", equalTo("2024-02-02T00:00:00Z"))
+            .body("[0].recordCount", is(3))
+            .body("[1].startTime", equalTo("2024-02-02T00:00:30Z"))
+            .body("[1].recordCount", is(3))
+            .body("[1].maxDeviceTemperature", is(51.75f))
+            .body("[1].deviceTemperaturePercentiles.p50", notNullValue());
+
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+        .when()
+            .get("/telemetry/fleet")
+        .then()
+            .statusCode(400)
+            .contentType(ContentType.JSON)
+            .body("code", equalTo("MISSING_PARAMETERS"));
+    }
+
+    @Test
+    void testAggregateEndpoint_WithoutLimit_StreamsResponse() {
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:01:00Z")
+            .queryParam("resolution", "15m")
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200)
+            .header("Link", nullValue())
+            .body("size()", is(1))
+            .body("[0].recordCount", is(6));
+
+        // Computed and written interleaved, without building a page first
+        String metrics = given().when().get("/q/metrics").then().statusCode(200).extract().asString();
+        assertThat(metrics)
+            .contains("telemetry_aggregate_stage_seconds_count{range=\"1h\",resolution=\"15m\",stage=\"stream\"} 1.0")
+            .doesNotContain("resolution=\"15m\",stage=\"aggregate\"")
+            .doesNotContain("resolution=\"15m\",stage=\"serialize\"");
+    }
+
+    @Test
+    void testAggregateEndpoint_ConcurrentIdenticalStreams_ShareOneComputation() throws Exception {
+        // All slots are taken, so the first request waits for admission while the others arrive
+        List<AggregationAdmission.Permit> held = new ArrayList<>();
+        for (int i = 0; i < aggregationAdmission.getLimit(); i++) {
+            held.add(aggregationAdmission.admit());
+        }
+        long coalescedBefore = aggregationCoalescer.getCoalesced();
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                responses.add(clients.submit(() -> given()
+                    .queryParam("from", "2024-02-02T00:00:00Z")
+                    .queryParam("to", "2024-02-02T01:00:00Z")
+                    .queryParam("resolution", "12h")
+                .when()
+                    .get("/telemetry/aggregate")
+                .then()
+                    .statusCode(200)
+                    .header("Link", nullValue())
+                    .extract().asString()));
+                if (i == 0) {
+                    awaitUntil(() -> aggregationAdmission.getQueued() == 1);
+                }
+            }
+            awaitUntil(() -> aggregationCoalescer.getCoalesced() == coalescedBefore + 3);
+            assertThat(aggregationAdmission.getQueued()).isEqualTo(1);
+            held.forEach(AggregationAdmission.Permit::close);
+
+            String first = responses.get(0).get(10, TimeUnit.SECONDS);
+            assertThat(JsonPath.from(first).getList("$")).hasSize(1);
+            for (Future<String> response : responses) {
+                assertThat(response.get(10, TimeUnit.SECONDS)).isEqualTo(first);
+            }
+        } finally {
+            held.forEach(AggregationAdmission.Permit::close);
+            clients.shutdownNow();
+        }
+
+        given()
+        .when()
+            .get("/q/metrics")
+        .then()
+            .statusCode(200)
+            .body(containsString("telemetry_aggregate_requests_total{execution=\"executed\",range=\"1h\",resolution=\"12h\"} 1.0"))
+            .body(containsString("telemetry_aggregate_requests_total{execution=\"coalesced\",range=\"1h\",resolution=\"12h\"} 3.0"));
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition reached in time").isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void testAggregateEndpoint_StreamedResponseNotWritten_ReleasesAdmission() throws InterruptedException {
+        // A HEAD request is admitted like a GET but its body is never written
+        for (int i = 0; i < 8; i++) {
+            given()
+                .queryParam("from", "2024-02-02T00:00:00Z")
+                .queryParam("to", "2024-02-02T00:01:00Z")
+                .queryParam("resolution", "30s")
+            .when()
+                .head("/telemetry/aggregate")
+            .then()
+                .statusCode(200);
+        }
+
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (aggregationAdmission.getRunning() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(aggregationAdmission.getRunning()).isZero();
+    }
+
+    @Test
+    void testMetricsEndpoint_AfterAggregate_ExposesStagesAndTimeFilterSelectivity() {
+        // Four of the six stored readings fall into the range, the one at the end included; a limit pages the response
+        given()
+            .queryParam("from", "2024-02-02T00:00:00Z")
+            .queryParam("to", "2024-02-02T00:00:30Z")
+            .queryParam("resolution", "5m")
+            .queryParam("limit", 10)
+        .when()
+            .get("/telemetry/aggregate")
+        .then()
+            .statusCode(200);
+
+        given()
+        .when()
+            .get("/q/metrics")
+        .then()
+            .statusCode(200)
+            .body(containsString("telemetry_aggregate_stage_seconds_count{range=\"1h\",resolution=\"5m\",stage=\"validate\"} 1.0"))
+            .body(containsString("telemetry_aggregate_stage_seconds_count{range=\"1h\",resolution=\"5m\",stage=\"serialize\"} 1.0"))
+            .body(containsString("telemetry_aggregate_rows_stored_total{range=\"1h\",resolution=\"5m\"} 6.0"))
+            .body(containsString("telemetry_aggregate_rows_in_range_total{range=\"1h\",resolution=\"5m\"} 4.0"))
+            .body(containsString("telemetry_aggregate_time_selectivity_sum{range=\"1h\",resolution=\"5m\"} 0.666"))
+            .body(containsString("telemetry_aggregate_buckets_sum{range=\"1h\",resolution=\"5m\"} 1.0"))
+            .body(containsString("telemetry_aggregate_requests_total{execution=\"executed\",range=\"1h\",resolution=\"5m\"} 1.0"))
+            .body(containsString("telemetry_aggregate_response_size_bytes_count{format=\"json\",range=\"1h\",resolution=\"5m\"} 1.0"))
+            .body(containsString("telemetry_aggregate_running 0.0"))
+            .body(containsString("telemetry_aggregate_rejected_total 0.0"))
+            .body(containsString("telemetry_aggregate_cache_hits_total "))
+            .body(containsString("telemetry_aggregate_cache_misses_total "))
+            .body(containsString("telemetry_load_rows_per_second "))
+            .body(containsString("telemetry_store_rows 6.0"));
+    }
+
     @Test
     void testAggregateEndpoint_InvalidTimeRange_Returns400() {
         given()
@@ -63,6 +524,18 @@ public class TelemetryResourceTest {
             .body("message", containsString("Invalid resolution"));
     }
 
+    @Test
+    void testStreamEndpoint_InvalidResolution_Returns400() {
+        given()
+            .queryParam("resolution", "2h")
+        .when()
+            .get("/telemetry/aggregate/stream")
+        .then()
+            .statusCode(400)
+            .contentType(ContentType.JSON)
+            .body("code", equalTo("INVALID_PARAMETERS"));
+    }
+
     @Test
     void testAggregateEndpoint_MissingParameters_Returns400() {
         given()
@@ -1,15 +1,35 @@
 package org.acme.telemetry;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
 
 @QuarkusTest
 public class TelemetryServiceTest {
@@ -17,6 +37,11 @@ public class TelemetryServiceTest {
     @Inject
     TelemetryService telemetryService;
 
+    @Inject
+    TelemetryStore telemetryStore;
+
+    @Inject
+    ObjectMapper objectMapper;
     private Instant startTime;
     private Instant endTime;
 
@@ -42,6 +67,22 @@ public class TelemetryServiceTest {
         assertThat(firstBucket.getAvgDeviceTemperature()).isBetween(50.0, 52.0);
     }
 
+    @Test
+    void aggregateTelemetry_ReadingAtEndTime_IsIncluded() {
+        // The last reading is stamped 00:00:50; the range ends on it, so it is aggregated
+        Instant lastReading = Instant.parse("2024-02-02T00:00:50Z");
+        List<AggregatedTelemetry> result = telemetryService.aggregateTelemetry(
+            startTime, lastReading, Duration.ofMinutes(1));
+
+        assertThat(result).hasSize(1);
+        assertThat(result.get(0).getRecordCount()).isEqualTo(6);
+        assertThat(result.get(0).getMaxDeviceTemperature()).isEqualTo(51.75);
+
+        // A millisecond earlier it is not
+        assertThat(telemetryService.aggregateTelemetry(startTime, lastReading.minusMillis(1), Duration.ofMinutes(1))
+            .get(0).getRecordCount()).isEqualTo(5);
+    }
+
     @Test
     void aggregateTelemetry_FullMinute_CorrectAggregation() {
         List<AggregatedTelemetry> result = telemetryService.aggregateTelemetry(
@@ -60,4 +101,653 @@ public class TelemetryServiceTest {
         assertThat(bucket.getMinDeviceTemperature()).isEqualTo(50.5);
         assertThat(bucket.getMaxDeviceTemperature()).isEqualTo(51.75);
     }
-}
\ No newline at end of file
+
+    @Test
+    void aggregateRecordsSinglePass_MatchesLegacyEngineByteForByte() throws Exception {
+        // Unsorted records for several devices, with gaps and duplicate timestamps
+        Random random = new Random(42);
+        List<TelemetryRecord> records = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            records.add(new TelemetryRecord(
+                "DEVICE_00" + random.nextInt(4),
+                startTime.plusSeconds(random.nextInt(7200)),
+                18 + random.nextDouble() * 8,
+                45 + random.nextDouble() * 15));
+        }
+
+        for (Duration resolution : List.of(Duration.ofSeconds(10), Duration.ofMinutes(1), Duration.ofMinutes(15), Duration.ofHours(1))) {
+            String legacy = objectMapper.writeValueAsString(
+                telemetryService.aggregateRecords(new ArrayList<>(records), resolution));
+            String singlePass = objectMapper.writeValueAsString(
+                telemetryService.aggregateRecordsSinglePass(new ArrayList<>(records), resolution));
+
+            assertThat(singlePass).isEqualTo(legacy);
+        }
+    }
+
+    @Test
+    void aggregateDevicesWithRollups_MatchesLegacyEngineUpToLastBits() {
+        // The legacy engine never reads rollups, so it only agrees with merged buckets up to the last bits
+        Random random = new Random(42);
+        List<TelemetryRecord> records = new ArrayList<>();
+        List<DeviceSeries> devices = new ArrayList<>();
+        for (String deviceId : List.of("DEVICE_001", "DEVICE_002")) {
+            DeviceSeries.Builder builder = new DeviceSeries.Builder(deviceId);
+            for (int second = 0; second < 2 * 3600; second++) {
+                if (random.nextInt(10) > 0) {
+                    Instant timestamp = startTime.plusSeconds(second);
+                    double ambientTemperature = 18 + random.nextDouble() * 8;
+                    double deviceTemperature = 45 + random.nextDouble() * 15;
+                    records.add(new TelemetryRecord(deviceId, timestamp, ambientTemperature, deviceTemperature));
+                    builder.add(timestamp.toEpochMilli(), ambientTemperature, deviceTemperature);
+                }
+            }
+            devices.add(builder.build());
+        }
+        TelemetryRollups rollups = TelemetryRollups.fromSeries(new long[] {10_000, 60_000, 3_600_000}, false, devices);
+
+        long from = startTime.toEpochMilli();
+        long to = from + 2 * 3_600_000L;
+        for (Duration resolution : List.of(Duration.ofMinutes(1), Duration.ofMinutes(15), Duration.ofHours(1))) {
+            List<AggregatedTelemetry> legacy = telemetryService.aggregateRecords(new ArrayList<>(records), resolution);
+            List<AggregatedTelemetry> merged = new ArrayList<>();
+            telemetryService.aggregateDevices(devices, rollups, from, to, resolution.toMillis(), Percentiles.NONE, merged::add);
+
+            assertSameUpToLastBits(merged, legacy);
+        }
+    }
+
+    @Test
+    void aggregateSegment_MatchesInMemoryStore() throws Exception {
+        Path file = Files.createTempFile("telemetry", ".seg");
+        TelemetrySegment.writeFile(List.copyOf(telemetryStore.getDevices()), file, 4);
+        TelemetrySegment segment = TelemetrySegment.open(file);
+
+        for (Duration resolution : List.of(Duration.ofSeconds(10), Duration.ofSeconds(30), Duration.ofMinutes(1))) {
+            List<AggregatedTelemetry> fromSegment = new ArrayList<>();
+            telemetryService.aggregateSegment(segment, DeviceFilter.ALL, null,
+                startTime.toEpochMilli(), endTime.toEpochMilli(), resolution.toMillis(), Percentiles.NONE,
+                fromSegment::add);
+
+            assertThat(objectMapper.writeValueAsString(fromSegment)).isEqualTo(
+                objectMapper.writeValueAsString(telemetryService.aggregateTelemetry(startTime, endTime, resolution)));
+        }
+        Files.delete(file);
+    }
+
+    @Test
+    void aggregatePartitions_MatchesInMemoryStore() throws Exception {
+        Path directory = Files.createTempDirectory("telemetry-partitions");
+        TelemetryPartitions.writeDirectory(List.copyOf(telemetryStore.getDevices()), directory, 30_000, 4);
+        TelemetryPartitions partitions = TelemetryPartitions.open(directory);
+
+        for (Duration resolution : List.of(Duration.ofSeconds(10), Duration.ofSeconds(30), Duration.ofMinutes(1))) {
+            List<AggregatedTelemetry> fromPartitions = new ArrayList<>();
+            telemetryService.aggregateSegment(partitions, DeviceFilter.ALL, null,
+                startTime.toEpochMilli(), endTime.toEpochMilli(), resolution.toMillis(), Percentiles.NONE,
+                fromPartitions::add);
+
+            assertThat(objectMapper.writeValueAsString(fromPartitions)).isEqualTo(
+                objectMapper.writeValueAsString(telemetryService.aggregateTelemetry(startTime, endTime, resolution)));
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void aggregateCompressed_FoldedBlocks_MatchRawAggregation() throws Exception {
+        // One device at one reading per second with two-decimal values and gaps,
+        // one with irregular timestamps and full-precision values that are XOR-encoded
+        Random random = new Random(11);
+        List<DeviceSeries> devices = new ArrayList<>();
+        DeviceSeries.Builder decimals = new DeviceSeries.Builder("DEVICE_001");
+        DeviceSeries.Builder irregular = new DeviceSeries.Builder("DEVICE_002");
+        long time = startTime.toEpochMilli();
+        for (int i = 0; i < 7200; i++) {
+            if (random.nextInt(100) != 0) {
+                decimals.add(time + i * 1000L, Math.round((22 + random.nextDouble()) * 100) / 100.0,
+                    Math.round((50 + random.nextDouble()) * 100) / 100.0);
+            }
+            irregular.add(time + i * 1000L + random.nextInt(1000), 20 + random.nextDouble() * 4, 50 + random.nextDouble() * 6);
+        }
+        devices.add(decimals.build());
+        devices.add(irregular.build());
+        CompressedTelemetry compressed = CompressedTelemetry.encode(devices, 64);
+
+        // Decoded readings are the original ones
+        List<Double> decoded = new ArrayList<>();
+        compressed.scan(Long.MIN_VALUE, Long.MAX_VALUE, (deviceIndex, epochMillis, ambient, device) -> decoded.add(device));
+        List<Double> original = new ArrayList<>();
+        devices.forEach(series -> Arrays.stream(series.getDeviceTemperatures()).forEach(original::add));
+        assertThat(decoded).isEqualTo(original);
+        assertThat(compressed.countRows(time + 1500, time + 3_600_500))
+            .isEqualTo(devices.stream().mapToLong(series -> series.lowerBound(time + 3_600_500) - series.lowerBound(time + 1500)).sum());
+        // Evenly spaced two-decimal readings, shaped like generate_telemetry.py output, take under 4 bytes each
+        CompressedTelemetry decimalsOnly = CompressedTelemetry.encode(devices.subList(0, 1), CompressedSeries.DEFAULT_BLOCK_SIZE);
+        assertThat(decimalsOnly.getEncodedBytes()).isLessThan(decimalsOnly.getRowCount() * 4);
+
+        long from = time + 90_000;
+        long to = time + 7_000_000;
+        for (Duration resolution : List.of(Duration.ofSeconds(10), Duration.ofMinutes(1), Duration.ofMinutes(15), Duration.ofHours(1))) {
+            List<AggregatedTelemetry> raw = new ArrayList<>();
+            telemetryService.aggregateDevices(devices, null, from, to, resolution.toMillis(), Percentiles.NONE, raw::add);
+            List<AggregatedTelemetry> folded = new ArrayList<>();
+            telemetryService.aggregateSegment(compressed, DeviceFilter.ALL, null, from, to, resolution.toMillis(),
+                Percentiles.NONE, folded::add);
+
+            assertThat(folded).hasSameSizeAs(raw);
+            for (int i = 0; i < raw.size(); i++) {
+                AggregatedTelemetry expected = raw.get(i);
+                AggregatedTelemetry actual = folded.get(i);
+                assertThat(actual.getDeviceId()).isEqualTo(expected.getDeviceId());
+                assertThat(actual.getStartTime()).isEqualTo(expected.getStartTime());
+                assertThat(actual.getRecordCount()).isEqualTo(expected.getRecordCount());
+                assertThat(actual.getMinAmbientTemperature()).isEqualTo(expected.getMinAmbientTemperature());
+                assertThat(actual.getMaxDeviceTemperature()).isEqualTo(expected.getMaxDeviceTemperature());
+                // Folded blocks add their sums at once
+                assertThat(actual.getAvgAmbientTemperature()).isCloseTo(expected.getAvgAmbientTemperature(), within(1e-9));
+                assertThat(actual.getAvgDeviceTemperature()).isCloseTo(expected.getAvgDeviceTemperature(), within(1e-9));
+            }
+        }
+
+        // Blocks of 64 readings never fit into a 10 second bucket, so every reading is decoded and added
+        List<AggregatedTelemetry> raw = new ArrayList<>();
+        telemetryService.aggregateDevices(devices, null, from, to, 10_000, Percentiles.NONE, raw::add);
+        List<AggregatedTelemetry> decodedBuckets = new ArrayList<>();
+        telemetryService.aggregateSegment(compressed, DeviceFilter.ALL, null, from, to, 10_000, Percentiles.NONE,
+            decodedBuckets::add);
+        assertThat(objectMapper.writeValueAsString(decodedBuckets)).isEqualTo(objectMapper.writeValueAsString(raw));
+    }
+
+    @Test
+    void aggregateDevices_WithRollups_MatchesRawAggregation() {
+        // One device on the rollup grid, one starting off-grid, both with gaps
+        Random random = new Random(7);
+        List<DeviceSeries> devices = new ArrayList<>();
+        for (String deviceId : List.of("DEVICE_001", "DEVICE_002")) {
+            DeviceSeries.Builder builder = new DeviceSeries.Builder(deviceId);
+            long offset = deviceId.equals("DEVICE_001") ? 0 : 3_000;
+            for (int second = 0; second < 6 * 3600; second++) {
+                if (random.nextInt(10) > 0) {
+                    builder.add(startTime.toEpochMilli() + offset + second * 1000L,
+                        18 + random.nextDouble() * 8, 45 + random.nextDouble() * 15);
+                }
+            }
+            devices.add(builder.build());
+        }
+        long[] rollupResolutions = {10_000, 60_000, 3_600_000};
+        TelemetryRollups rollups = TelemetryRollups.fromSeries(rollupResolutions, false, devices);
+
+        long from = startTime.toEpochMilli();
+        for (Duration resolution : List.of(Duration.ofSeconds(30), Duration.ofMinutes(15), Duration.ofHours(1), Duration.ofDays(1))) {
+            for (long to : List.of(from + 5 * 3_600_000L + 1_234, from + 6 * 3_600_000L)) {
+                List<AggregatedTelemetry> raw = new ArrayList<>();
+                telemetryService.aggregateDevices(devices, null, from, to, resolution.toMillis(), Percentiles.NONE, raw::add);
+                List<AggregatedTelemetry> merged = new ArrayList<>();
+                telemetryService.aggregateDevices(devices, rollups, from, to, resolution.toMillis(), Percentiles.NONE, merged::add);
+
+                assertSameUpToLastBits(merged, raw);
+            }
+        }
+    }
+
+    @Test
+    void aggregateDevices_Percentiles_MergedFromSketchedRollupsMatchRawAndExactValues() {
+        Random random = new Random(13);
+        DeviceSeries.Builder builder = new DeviceSeries.Builder("DEVICE_001");
+        for (int second = 0; second < 2 * 3600; second++) {
+            builder.add(startTime.toEpochMilli() + second * 1000L,
+                18 + random.nextDouble() * 8, 45 + random.nextGaussian() * 5);
+        }
+        List<DeviceSeries> devices = List.of(builder.build());
+        TelemetryRollups rollups = TelemetryRollups.fromSeries(new long[] {10_000, 60_000}, true, devices);
+        Percentiles percentiles = Percentiles.parse(List.of("50,95", "p99"));
+
+        long from = startTime.toEpochMilli();
+        long to = from + 2 * 3_600_000L;
+        long resolution = Duration.ofMinutes(15).toMillis();
+        List<AggregatedTelemetry> raw = new ArrayList<>();
+        telemetryService.aggregateDevices(devices, null, from, to, resolution, percentiles, raw::add);
+        List<AggregatedTelemetry> merged = new ArrayList<>();
+        telemetryService.aggregateDevices(devices, rollups, from, to, resolution, percentiles, merged::add);
+
+        // Sketch bins are counts, so merging rollup sketches gives exactly the sketch of the raw readings
+        assertThat(merged).hasSameSizeAs(raw);
+        for (int i = 0; i < raw.size(); i++) {
+            assertThat(merged.get(i).getDeviceTemperaturePercentiles())
+                .isEqualTo(raw.get(i).getDeviceTemperaturePercentiles())
+                .containsOnlyKeys("p50", "p95", "p99");
+        }
+
+        // Every estimate is within the sketch's relative accuracy of the exact value
+        DeviceSeries series = devices.get(0);
+        for (AggregatedTelemetry bucket : raw) {
+            double[] values = Arrays.copyOfRange(series.getDeviceTemperatures(),
+                series.lowerBound(bucket.getStartTime().toEpochMilli()),
+                series.lowerBound(bucket.getEndTime().toEpochMilli()));
+            Arrays.sort(values);
+            for (double q : new double[] {0.50, 0.95, 0.99}) {
+                double exact = values[(int) Math.floor(q * (values.length - 1))];
+                String name = "p" + Math.round(q * 100);
+                assertThat(bucket.getDeviceTemperaturePercentiles().get(name))
+                    .isCloseTo(exact, within(exact * QuantileSketch.RELATIVE_ACCURACY + 1e-9));
+            }
+        }
+    }
+
+    @Test
+    void statisticsKernel_DayBucket_MatchesScalarLoop() {
+        // One day of readings at one per second, plus a tail that does not fill a whole vector
+        Random random = new Random(17);
+        int readings = 86_400 + 3;
+        double[] ambientTemps = new double[readings];
+        double[] deviceTemps = new double[readings];
+        for (int i = 0; i < readings; i++) {
+            ambientTemps[i] = 18 + random.nextDouble() * 8;
+            deviceTemps[i] = 45 + random.nextDouble() * 15;
+        }
+        ambientTemps[readings - 1] = 30.5;
+        deviceTemps[readings - 2] = 40.25;
+
+        double[] expected = new double[6];
+        StatisticsKernel.computeScalar(ambientTemps, deviceTemps, 0, readings, expected);
+        double[] actual = StatisticsKernel.compute(ambientTemps, deviceTemps);
+
+        assertThat(actual[StatisticsKernel.MAX_AMBIENT]).isEqualTo(30.5);
+        assertThat(actual[StatisticsKernel.MIN_DEVICE]).isEqualTo(40.25);
+        assertThat(actual).containsExactly(expected);
+
+        // Signed zeros, where only the order of the readings decides, and NaN readings, which are skipped
+        // unless they come first; compared bit by bit, since NaN and -0.0 are equal to nothing or to 0.0
+        double[][] specials = {
+            {0.0, -0.0}, {-0.0, 0.0}, {Double.NaN}, {1.5, Double.NaN}, {Double.NaN, 1.5}, {-0.0, Double.NaN, 0.0}
+        };
+        for (double[] special : specials) {
+            // Positive readings make the zeros the minimum, negated ones the maximum
+            for (double sign : new double[] {1, -1}) {
+                for (int position : new int[] {0, 1, 100, readings - special.length}) {
+                    double[] ambient = new double[readings];
+                    double[] device = new double[readings];
+                    for (int i = 0; i < readings; i++) {
+                        ambient[i] = sign * ambientTemps[i];
+                        device[i] = sign * deviceTemps[i];
+                    }
+                    for (int i = 0; i < special.length; i++) {
+                        ambient[position + i] = special[i];
+                        device[position + i] = special[i] * 100;
+                    }
+                    StatisticsKernel.computeScalar(ambient, device, 0, readings, expected);
+                    actual = StatisticsKernel.compute(ambient, device);
+                    for (int statistic = 0; statistic < expected.length; statistic++) {
+                        assertThat(Double.doubleToRawLongBits(actual[statistic]))
+                            .as("statistic %d with %s at %d, sign %s", statistic, Arrays.toString(special), position, sign)
+                            .isEqualTo(Double.doubleToRawLongBits(expected[statistic]));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void aggregationCache_SlidingWindows_MatchesUncachedAggregation() throws Exception {
+        Random random = new Random(11);
+        DeviceSeries.Builder builder = new DeviceSeries.Builder("DEVICE_001");
+        for (int second = 0; second < 4 * 3600; second++) {
+            // A reading at every full minute keeps the bucket grid of all windows below the same
+            if (second % 60 == 0 || random.nextInt(4) > 0) {
+                builder.add(startTime.toEpochMilli() + second * 1000L, 18 + random.nextDouble() * 8, 45 + random.nextDouble() * 15);
+            }
+        }
+        List<DeviceSeries> devices = List.of(builder.build());
+
+        AggregationCache cache = new AggregationCache();
+        cache.telemetryStore = telemetryStore;
+        cache.maxBuckets = 10_000;
+
+        long resolution = Duration.ofMinutes(1).toMillis();
+        for (int poll = 0; poll < 20; poll++) {
+            // A one-hour window moving forward by one bucket, with an end that cuts a bucket in half
+            long from = startTime.toEpochMilli() + poll * resolution;
+            long to = from + Duration.ofHours(1).toMillis() + 30_000;
+
+            List<AggregatedTelemetry> expected = new ArrayList<>();
+            telemetryService.aggregateDevices(devices, null, from, to, resolution, Percentiles.NONE, expected::add);
+            List<AggregatedTelemetry> cached = new ArrayList<>();
+            cache.aggregate(devices.get(0), null, from, to, resolution, cached::add);
+
+            assertThat(objectMapper.writeValueAsString(cached)).isEqualTo(objectMapper.writeValueAsString(expected));
+        }
+        assertThat(cache.getHits()).isGreaterThan(cache.getMisses());
+        assertThat(cache.size()).isLessThanOrEqualTo(10_000);
+    }
+
+    @Test
+    void fleetAggregator_TopDevicesAndFleetRollup_MatchPerDeviceReadings() {
+        // Twenty devices at one reading per second, each a little hotter than the previous one,
+        // with a spike in DEVICE_007 and the last device starting late
+        Random random = new Random(5);
+        Map<String, DeviceSeries> series = new LinkedHashMap<>();
+        long time = startTime.toEpochMilli();
+        for (int d = 0; d < 20; d++) {
+            DeviceSeries.Builder builder = new DeviceSeries.Builder(String.format("DEVICE_%03d", d));
+            for (int i = d == 19 ? 1800 : 0; i < 3600; i++) {
+                double device = 50 + d * 0.1 + Math.round(random.nextDouble() * 100) / 100.0;
+                builder.add(time + i * 1000L, Math.round((22 + random.nextDouble()) * 100) / 100.0,
+                    d == 7 && i == 1234 ? 95.5 : device);
+            }
+            DeviceSeries device = builder.build();
+            series.put(device.getDeviceId(), device);
+        }
+        TelemetryStore.Snapshot inMemory = new TelemetryStore.Snapshot(series, null, null, 0);
+        TelemetryStore.Snapshot compressed = new TelemetryStore.Snapshot(Map.of(),
+            CompressedTelemetry.encode(series.values(), 256), null, 0);
+        FleetAggregator fleetAggregator = new FleetAggregator();
+        long from = time + 600_000;
+        long to = time + 3_000_000;
+
+        // Expected: every device's maximum within the range, highest first
+        List<AggregatedTelemetry> expected = new ArrayList<>();
+        for (DeviceSeries device : series.values()) {
+            BucketAccumulator accumulator = new BucketAccumulator();
+            for (int i = device.lowerBound(from); i < device.lowerBound(to); i++) {
+                accumulator.add(device.getAmbientTemperatures()[i], device.getDeviceTemperatures()[i]);
+            }
+            expected.add(accumulator.toAggregated(device.getDeviceId(), Instant.ofEpochMilli(from), Instant.ofEpochMilli(to)));
+        }
+        expected.sort(RankingMetric.MAX_DEVICE_TEMPERATURE.ranking(true));
+
+        for (TelemetryStore.Snapshot data : List.of(inMemory, compressed)) {
+            List<AggregatedTelemetry> top = fleetAggregator.topDevices(data, from, to, DeviceFilter.ALL,
+                RankingMetric.MAX_DEVICE_TEMPERATURE, true, 5);
+            assertThat(top).extracting(AggregatedTelemetry::getDeviceId)
+                .containsExactlyElementsOf(expected.subList(0, 5).stream().map(AggregatedTelemetry::getDeviceId).toList());
+            assertThat(top.get(0).getDeviceId()).isEqualTo("DEVICE_007");
+            assertThat(top.get(0).getMaxDeviceTemperature()).isEqualTo(95.5);
+            assertThat(top.get(0).getRecordCount()).isEqualTo(2400);
+            assertThat(top.get(0).getEndTime()).isEqualTo(Instant.ofEpochMilli(to - 1));
+
+            // The late device has the fewest readings; the filter restricts the ranking
+            assertThat(fleetAggregator.topDevices(data, from, to, DeviceFilter.ALL, RankingMetric.RECORD_COUNT, false, 1))
+                .extracting(AggregatedTelemetry::getDeviceId).containsExactly("DEVICE_019");
+            assertThat(fleetAggregator.topDevices(data, from, to, DeviceFilter.parse(List.of("DEVICE_01*")),
+                    RankingMetric.AVG_DEVICE_TEMPERATURE, true, 100))
+                .hasSize(10).allSatisfy(device -> assertThat(device.getDeviceId()).startsWith("DEVICE_01"));
+
+            // One bucket per minute across all devices, aligned to the start of the range
+            List<AggregatedTelemetry> fleet = new ArrayList<>();
+            fleetAggregator.aggregateFleet(data, from, to, 60_000, DeviceFilter.ALL, Percentiles.parse(List.of("50")), fleet::add);
+            assertThat(fleet).hasSize(40);
+            assertThat(fleet.get(0).getDeviceId()).isNull();
+            assertThat(fleet.get(0).getStartTime()).isEqualTo(Instant.ofEpochMilli(from));
+            assertThat(fleet.get(0).getRecordCount()).isEqualTo(19 * 60);
+            assertThat(fleet.get(30).getRecordCount()).isEqualTo(20 * 60);
+            assertThat(fleet.stream().mapToLong(AggregatedTelemetry::getRecordCount).sum())
+                .isEqualTo(expected.stream().mapToLong(AggregatedTelemetry::getRecordCount).sum());
+            assertThat(fleet.stream().mapToDouble(AggregatedTelemetry::getMaxDeviceTemperature).max().getAsDouble())
+                .isEqualTo(95.5);
+            assertThat(fleet.get(0).getDeviceTemperaturePercentiles().get("p50")).isBetween(50.5, 52.5);
+        }
+    }
+
+    @Test
+    void aggregationCoalescer_ConcurrentEquivalentPages_ShareOneComputation() throws Exception {
+        // Every computation is held until released, so the requests below are concurrent for sure
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger computations = new AtomicInteger();
+        AggregationCoalescer coalescer = new AggregationCoalescer();
+        coalescer.enabled = true;
+        coalescer.telemetryStore = telemetryStore;
+        coalescer.admission = admission(4, 0);
+        coalescer.telemetryService = new TelemetryService() {
+            @Override
+            AggregationCursor aggregatePage(Instant fromTime, Instant toTime, Duration resolution, DeviceFilter devices,
+                                            Percentiles percentiles, AggregationCursor cursor, int limit,
+                                            Consumer<AggregatedTelemetry> sink) {
+                computations.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return telemetryService.aggregatePage(fromTime, toTime, resolution, devices, percentiles, cursor, limit, sink);
+            }
+        };
+
+        ExecutorService requests = Executors.newFixedThreadPool(4);
+        try {
+            Duration resolution = Duration.ofSeconds(10);
+            Future<AggregationCoalescer.Page> first = requests.submit(() ->
+                coalescer.aggregatePage(startTime, endTime, resolution, DeviceFilter.ALL, Percentiles.NONE, null, 100));
+            awaitUntil(() -> computations.get() == 1);
+            // The same query, and one spelled differently: a start rounding up to the same millisecond, a "*" filter
+            Future<AggregationCoalescer.Page> same = requests.submit(() ->
+                coalescer.aggregatePage(startTime, endTime, resolution, DeviceFilter.ALL, Percentiles.NONE, null, 100));
+            Future<AggregationCoalescer.Page> equivalent = requests.submit(() ->
+                coalescer.aggregatePage(startTime.minusNanos(999_999), endTime, resolution,
+                    DeviceFilter.parse(List.of("*")), Percentiles.parse(List.of()), null, 100));
+            Future<AggregationCoalescer.Page> other = requests.submit(() ->
+                coalescer.aggregatePage(startTime, endTime, Duration.ofSeconds(30), DeviceFilter.ALL, Percentiles.NONE, null, 100));
+            awaitUntil(() -> coalescer.getCoalesced() == 2 && computations.get() == 2);
+            release.countDown();
+
+            AggregationCoalescer.Page computed = first.get(10, TimeUnit.SECONDS);
+            assertThat(computed.coalesced()).isFalse();
+            assertThat(computed.buckets()).hasSize(5);
+            assertThat(same.get(10, TimeUnit.SECONDS).coalesced()).isTrue();
+            assertThat(same.get().buckets()).isSameAs(computed.buckets());
+            assertThat(equivalent.get(10, TimeUnit.SECONDS).buckets()).isSameAs(computed.buckets());
+            assertThat(other.get(10, TimeUnit.SECONDS).coalesced()).isFalse();
+            assertThat(other.get().buckets()).hasSize(2);
+            assertThat(coalescer.getExecuted()).isEqualTo(2);
+
+            // Completed computations are not reused
+            coalescer.aggregatePage(startTime, endTime, resolution, DeviceFilter.ALL, Percentiles.NONE, null, 100);
+            assertThat(computations.get()).isEqualTo(3);
+            assertThat(coalescer.getCoalesced()).isEqualTo(2);
+        } finally {
+            requests.shutdownNow();
+        }
+    }
+
+    @Test
+    void aggregationCoalescer_ConcurrentEquivalentStreams_ShareOneComputationThroughSmallBuffer() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger computations = new AtomicInteger();
+        AggregationCoalescer coalescer = new AggregationCoalescer();
+        coalescer.enabled = true;
+        coalescer.streamBuffer = 2;
+        coalescer.telemetryStore = telemetryStore;
+        AggregationAdmission admission = admission(4, 0);
+        coalescer.admission = admission;
+        coalescer.telemetryService = new TelemetryService() {
+            @Override
+            void aggregateTelemetry(Instant fromTime, Instant toTime, Duration resolution, DeviceFilter devices,
+                                    Percentiles percentiles, Consumer<AggregatedTelemetry> sink) {
+                computations.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                telemetryService.aggregateTelemetry(fromTime, toTime, resolution, devices, percentiles, sink);
+            }
+        };
+
+        Duration resolution = Duration.ofSeconds(10);
+        List<AggregatedTelemetry> expected = telemetryService.aggregateTelemetry(startTime, endTime, resolution);
+        ExecutorService readers = Executors.newSingleThreadExecutor();
+        try (AggregationCoalescer.StreamReader first = coalescer.stream(startTime, endTime, resolution, DeviceFilter.ALL, Percentiles.NONE);
+             AggregationCoalescer.StreamReader joined = coalescer.stream(startTime, endTime, resolution, DeviceFilter.ALL, Percentiles.NONE)) {
+            assertThat(first.coalesced()).isFalse();
+            assertThat(joined.coalesced()).isTrue();
+            release.countDown();
+
+            // Five buckets through a buffer of two: the computation waits for both readers
+            Future<List<AggregatedTelemetry>> firstBuckets = readers.submit(() -> {
+                List<AggregatedTelemetry> buckets = new ArrayList<>();
+                first.forEach(buckets::add);
+                return buckets;
+            });
+            List<AggregatedTelemetry> joinedBuckets = new ArrayList<>();
+            joined.forEach(joinedBuckets::add);
+
+            assertThat(objectMapper.writeValueAsString(joinedBuckets)).isEqualTo(objectMapper.writeValueAsString(expected));
+            assertThat(firstBuckets.get(10, TimeUnit.SECONDS)).isEqualTo(joinedBuckets);
+            assertThat(computations.get()).isEqualTo(1);
+            assertThat(coalescer.getExecuted()).isEqualTo(1);
+            assertThat(coalescer.getCoalesced()).isEqualTo(1);
+        } finally {
+            readers.shutdownNow();
+        }
+
+        // A stream nobody reads stops at its next bucket and frees its slot
+        coalescer.stream(startTime, endTime, resolution, DeviceFilter.ALL, Percentiles.NONE).close();
+        awaitUntil(() -> admission.getRunning() == 0);
+        assertThat(computations.get()).isEqualTo(2);
+    }
+
+    /**
+     * Asserts that two aggregations have the same buckets with the same counts, minima and maxima,
+     * allowing the averages to differ in the last bits, as when sums are added up per rollup bucket.
+     */
+    private static void assertSameUpToLastBits(List<AggregatedTelemetry> actualBuckets,
+                                               List<AggregatedTelemetry> expectedBuckets) {
+        assertThat(actualBuckets).hasSameSizeAs(expectedBuckets);
+        for (int i = 0; i < expectedBuckets.size(); i++) {
+            AggregatedTelemetry expected = expectedBuckets.get(i);
+            AggregatedTelemetry actual = actualBuckets.get(i);
+            assertThat(actual.getDeviceId()).isEqualTo(expected.getDeviceId());
+            assertThat(actual.getStartTime()).isEqualTo(expected.getStartTime());
+            assertThat(actual.getEndTime()).isEqualTo(expected.getEndTime());
+            assertThat(actual.getRecordCount()).isEqualTo(expected.getRecordCount());
+            assertThat(actual.getMinAmbientTemperature()).isEqualTo(expected.getMinAmbientTemperature());
+            assertThat(actual.getMaxAmbientTemperature()).isEqualTo(expected.getMaxAmbientTemperature());
+            assertThat(actual.getMinDeviceTemperature()).isEqualTo(expected.getMinDeviceTemperature());
+            assertThat(actual.getMaxDeviceTemperature()).isEqualTo(expected.getMaxDeviceTemperature());
+            assertThat(actual.getAvgAmbientTemperature()).isCloseTo(expected.getAvgAmbientTemperature(), within(1e-9));
+            assertThat(actual.getAvgDeviceTemperature()).isCloseTo(expected.getAvgDeviceTemperature(), within(1e-9));
+        }
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition reached in time").isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static AggregationAdmission admission(int maxConcurrent, int maxQueued) {
+        AggregationAdmission admission = new AggregationAdmission();
+        admission.maxConcurrent = Optional.of(maxConcurrent);
+        admission.maxQueued = maxQueued;
+        admission.retryAfterSeconds = 2;
+        admission.start();
+        return admission;
+    }
+
+    @Test
+    void aggregationAdmission_FullQueue_RejectsUntilSlotFrees() throws Exception {
+        AggregationAdmission admission = admission(1, 1);
+        ExecutorService requests = Executors.newSingleThreadExecutor();
+        try {
+            AggregationAdmission.Permit first = admission.admit();
+            assertThat(admission.getRunning()).isEqualTo(1);
+
+            // The second request waits for the slot, the third finds the queue full
+            Future<AggregationAdmission.Permit> second = requests.submit(admission::admit);
+            awaitUntil(() -> admission.getQueued() == 1);
+            assertThatThrownBy(admission::admit)
+                .isInstanceOfSatisfying(AggregationAdmission.RejectedException.class,
+                    e -> assertThat(e.getRetryAfterSeconds()).isEqualTo(2));
+            assertThat(admission.getRejected()).isEqualTo(1);
+            assertThat(second.isDone()).isFalse();
+
+            // Closing twice frees one slot only
+            first.close();
+            first.close();
+            AggregationAdmission.Permit admitted = second.get(10, TimeUnit.SECONDS);
+            assertThat(admission.getQueued()).isZero();
+            assertThat(admission.getRunning()).isEqualTo(1);
+            admitted.close();
+            assertThat(admission.getRunning()).isZero();
+        } finally {
+            requests.shutdownNow();
+        }
+    }
+
+    @Test
+    void aggregationExecutor_ParallelDevices_KeepDeviceOrder() {
+        List<String> devices = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            devices.add(String.format("DEVICE_%03d", i));
+        }
+        AggregationExecutor executor = new AggregationExecutor();
+        executor.poolSize = Optional.of(4);
+        executor.maxParallelism = 3;
+        executor.start();
+        try {
+            List<String> emitted = new ArrayList<>();
+            executor.forEachOrdered(devices, (deviceId, sink) -> {
+                // Later devices finish first, so results arrive out of order
+                try {
+                    Thread.sleep((50 - Integer.parseInt(deviceId.substring(7))) % 5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int bucket = 0; bucket < 3; bucket++) {
+                    AggregatedTelemetry aggregated = new AggregatedTelemetry();
+                    aggregated.setDeviceId(deviceId);
+                    sink.accept(aggregated);
+                }
+            }, aggregated -> emitted.add(aggregated.getDeviceId()));
+
+            List<String> expected = new ArrayList<>();
+            devices.forEach(deviceId -> expected.addAll(List.of(deviceId, deviceId, deviceId)));
+            assertThat(emitted).isEqualTo(expected);
+        } finally {
+            executor.stop();
+        }
+    }
+
+    @Test
+    void aggregationExecutor_SlowSink_BoundsDevicesAheadOfEmitter() {
+        List<Integer> devices = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            devices.add(i);
+        }
+        AggregationExecutor executor = new AggregationExecutor();
+        executor.poolSize = Optional.of(4);
+        executor.maxParallelism = 3;
+        executor.start();
+        try {
+            AtomicInteger started = new AtomicInteger();
+            AtomicInteger maxAhead = new AtomicInteger();
+            List<Integer> emitted = new ArrayList<>();
+            executor.forEachOrdered(devices, (device, sink) -> {
+                started.incrementAndGet();
+                AggregatedTelemetry aggregated = new AggregatedTelemetry();
+                aggregated.setRecordCount(device);
+                sink.accept(aggregated);
+            }, aggregated -> {
+                // Devices are fast and the sink is slow: without a bound every device would be started at once
+                maxAhead.accumulateAndGet((int) (started.get() - aggregated.getRecordCount() - 1), Math::max);
+                emitted.add((int) aggregated.getRecordCount());
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            assertThat(emitted).isEqualTo(devices);
+            assertThat(maxAhead.get()).isLessThanOrEqualTo(3);
+        } finally {
+            executor.stop();
+        }
+    }
+}
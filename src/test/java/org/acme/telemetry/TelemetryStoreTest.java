@@ -0,0 +1,302 @@
+package org.acme.telemetry;
+
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@QuarkusTest
+public class TelemetryStoreTest {
+
+    @Inject
+    TelemetryStore telemetryStore;
+
+    @Test
+    void getDevices_LoadedAtStartup_ContainsSortedColumns() {
+        List<DeviceSeries> devices = List.copyOf(telemetryStore.getDevices());
+
+        assertThat(devices).hasSize(1);
+        DeviceSeries series = devices.get(0);
+        assertThat(series.getDeviceId()).isEqualTo("DEVICE_001");
+        assertThat(series.size()).isEqualTo(6);
+        assertThat(series.getTimestamps()).isSorted();
+        assertThat(series.getTimestamps()[0]).isEqualTo(Instant.parse("2024-02-02T00:00:00Z").toEpochMilli());
+        assertThat(series.getAmbientTemperatures()[0]).isEqualTo(20.5);
+        assertThat(series.getDeviceTemperatures()[0]).isEqualTo(50.75);
+    }
+
+    @Test
+    void lowerBound_ReturnsFirstReadingAtOrAfterTime() {
+        DeviceSeries series = telemetryStore.getDevices().iterator().next();
+        long start = Instant.parse("2024-02-02T00:00:00Z").toEpochMilli();
+
+        assertThat(series.lowerBound(start - 1)).isEqualTo(0);
+        assertThat(series.lowerBound(start)).isEqualTo(0);
+        assertThat(series.lowerBound(start + 10_000)).isEqualTo(1);
+        assertThat(series.lowerBound(start + 15_000)).isEqualTo(2);
+        assertThat(series.lowerBound(start + 3_600_000)).isEqualTo(series.size());
+    }
+
+    @Test
+    void build_UnsortedReadings_SortedStably() {
+        DeviceSeries.Builder builder = new DeviceSeries.Builder("DEVICE_X");
+        builder.add(3_000, 3.0, 30.0);
+        builder.add(1_000, 1.0, 10.0);
+        builder.add(3_000, 4.0, 40.0);
+        builder.add(2_000, 2.0, 20.0);
+
+        DeviceSeries series = builder.build();
+
+        assertThat(series.getTimestamps()).containsExactly(1_000, 2_000, 3_000, 3_000);
+        assertThat(series.getAmbientTemperatures()).containsExactly(1.0, 2.0, 3.0, 4.0);
+        assertThat(series.getDeviceTemperatures()).containsExactly(10.0, 20.0, 30.0, 40.0);
+    }
+
+    @Test
+    void append_InOrderAndLateReadings_LeavesEarlierSeriesUnchanged() {
+        DeviceSeries.Builder loaded = new DeviceSeries.Builder("DEVICE_X");
+        loaded.add(1_000, 1.0, 10.0);
+        loaded.add(2_000, 2.0, 20.0);
+        DeviceSeries original = loaded.build();
+
+        DeviceSeries.Builder next = new DeviceSeries.Builder("DEVICE_X");
+        next.add(2_000, 3.0, 30.0);
+        next.add(4_000, 4.0, 40.0);
+        DeviceSeries appended = original.append(next.build());
+
+        DeviceSeries.Builder late = new DeviceSeries.Builder("DEVICE_X");
+        late.add(3_000, 5.0, 50.0);
+        DeviceSeries merged = appended.append(late.build());
+
+        assertThat(original.size()).isEqualTo(2);
+        assertThat(original.getAmbientTemperatures()).startsWith(1.0, 2.0);
+        assertThat(appended.size()).isEqualTo(4);
+        assertThat(appended.getGeneration()).isEqualTo(original.getGeneration());
+        assertThat(merged.size()).isEqualTo(5);
+        assertThat(merged.getGeneration()).isGreaterThan(appended.getGeneration());
+        assertThat(merged.getTimestamps()).startsWith(1_000, 2_000, 2_000, 3_000, 4_000);
+        assertThat(merged.getAmbientTemperatures()).startsWith(1.0, 2.0, 3.0, 5.0, 4.0);
+        assertThat(merged.lowerBound(3_000)).isEqualTo(3);
+        assertThat(appended.lowerBound(3_000)).isEqualTo(3);
+        assertThat(appended.getTimestamps()[3]).isEqualTo(4_000);
+    }
+
+    @Test
+    void append_WithRollups_MatchesRollupsBuiltFromScratch() {
+        TelemetryStore store = new TelemetryStore();
+        store.csvFilePath = "test-telemetry.csv";
+        store.loadThreads = Optional.of(1);
+        store.rollupResolutions = Optional.of(List.of("10s", "1m"));
+        store.loadTelemetryData();
+        store.buildRollups();
+
+        Random random = new Random(5);
+        long start = Instant.parse("2024-02-02T00:01:00Z").toEpochMilli();
+        for (int batch = 0; batch < 50; batch++) {
+            DeviceSeries.Builder readings = new DeviceSeries.Builder("DEVICE_00" + (1 + batch % 2));
+            for (int i = 0; i < 10; i++) {
+                // Mostly in order, with an occasional late reading
+                long time = start + batch * 20_000L + random.nextInt(20_000) - (random.nextInt(20) == 0 ? 120_000 : 0);
+                readings.add(time, random.nextInt(3000) / 100.0, random.nextInt(6000) / 100.0);
+            }
+            store.append(List.of(readings.build()));
+        }
+
+        long[] resolutions = {10_000, 60_000};
+        TelemetryRollups rebuilt = TelemetryRollups.fromSeries(resolutions, false, store.getDevices());
+        for (DeviceSeries series : store.getDevices()) {
+            for (int level = 0; level < resolutions.length; level++) {
+                RollupSeries incremental = store.getRollups().get(series, level);
+                RollupSeries expected = rebuilt.get(series.getDeviceId(), level);
+                assertThat(incremental).isNotNull();
+                assertThat(incremental.size()).isEqualTo(expected.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertThat(incremental.getBucketStart(i)).isEqualTo(expected.getBucketStart(i));
+                    assertThat(incremental.getFirstTime(i)).isEqualTo(expected.getFirstTime(i));
+                    List<AggregatedTelemetry> actual = new ArrayList<>();
+                    List<AggregatedTelemetry> reference = new ArrayList<>();
+                    fold(incremental, i, actual);
+                    fold(expected, i, reference);
+                    assertThat(actual).usingRecursiveFieldByFieldElementComparator().isEqualTo(reference);
+                }
+            }
+        }
+    }
+
+    private static void fold(RollupSeries rollup, int index, List<AggregatedTelemetry> results) {
+        DeviceBucketer bucketer = new DeviceBucketer("DEVICE", rollup.getResolutionMillis(),
+            rollup.getBucketStart(index), results::add);
+        rollup.foldInto(index, bucketer);
+        bucketer.flush();
+    }
+
+    @Test
+    void reload_GrownFileAppendsTail_RewrittenFileReplacesSnapshot() throws IOException {
+        Path file = Files.createTempFile("telemetry", ".csv");
+        Files.writeString(file, """
+            DeviceId,Timestamp,AmbientTemperature,DeviceTemperature
+            DEVICE_001,2024-02-02T00:00:00Z,20.5,50.75
+            """);
+        TelemetryStore store = new TelemetryStore();
+        store.csvFilePath = file.toString();
+        store.storageFormat = TelemetryStore.FORMAT_CSV;
+        store.loadThreads = Optional.of(1);
+        store.rollupResolutions = Optional.empty();
+        store.loadTelemetryData();
+        TelemetryStore.Snapshot loaded = store.getSnapshot();
+
+        // A partly written last line is left for the next reload
+        Files.writeString(file, """
+            DEVICE_001,2024-02-02T00:00:10Z,20.6,51.00
+            DEVICE_002,2024-02-02T00:00:10Z,19.0,48.00
+            DEVICE_002,2024-02-02T00:00:20Z,19.5""", StandardOpenOption.APPEND);
+        store.reload();
+
+        assertThat(store.getVersion()).isEqualTo(loaded.version());
+        assertThat(store.getDevices()).extracting(DeviceSeries::size).containsExactly(2, 1);
+        assertThat(loaded.devices().get("DEVICE_001").size()).isEqualTo(1);
+
+        Files.writeString(file, ",49.00\n", StandardOpenOption.APPEND);
+        store.reload();
+
+        assertThat(store.getDevices()).extracting(DeviceSeries::size).containsExactly(2, 2);
+
+        Files.writeString(file, """
+            DeviceId,Timestamp,AmbientTemperature,DeviceTemperature
+            DEVICE_003,2024-02-03T00:00:00Z,25.0,55.00
+            """);
+        store.reload();
+
+        assertThat(store.getVersion()).isGreaterThan(loaded.version());
+        assertThat(store.getDevices()).extracting(DeviceSeries::getDeviceId).containsExactly("DEVICE_003");
+        Files.delete(file);
+    }
+
+    @Test
+    void segment_WrittenFromStore_ScansRowsOfTimeRange() throws IOException {
+        Path file = Files.createTempFile("telemetry", ".seg");
+        long start = Instant.parse("2024-02-02T00:00:00Z").toEpochMilli();
+
+        TelemetrySegment.writeFile(List.copyOf(telemetryStore.getDevices()), file, 2);
+        TelemetrySegment segment = TelemetrySegment.open(file);
+
+        assertThat(segment.getRowCount()).isEqualTo(6);
+        assertThat(segment.getDeviceCount()).isEqualTo(1);
+        assertThat(segment.getDeviceId(0)).isEqualTo("DEVICE_001");
+
+        List<Long> timestamps = new ArrayList<>();
+        long visited = segment.scan(start + 10_000, start + 40_000,
+            (deviceIndex, epochMillis, ambient, device) -> timestamps.add(epochMillis));
+
+        assertThat(visited).isEqualTo(3);
+        assertThat(timestamps).containsExactly(start + 10_000, start + 20_000, start + 30_000);
+        Files.delete(file);
+    }
+
+    @Test
+    void compressed_EncodedFromStore_ScansRowsOfTimeRange() {
+        long start = Instant.parse("2024-02-02T00:00:00Z").toEpochMilli();
+
+        // The six readings fall into three blocks of two
+        CompressedTelemetry compressed = CompressedTelemetry.encode(telemetryStore.getDevices(), 2);
+
+        assertThat(compressed.getRowCount()).isEqualTo(6);
+        assertThat(compressed.getDeviceCount()).isEqualTo(1);
+        assertThat(compressed.getDeviceId(0)).isEqualTo("DEVICE_001");
+        assertThat(compressed.countRows(start + 10_000, start + 40_000)).isEqualTo(3);
+
+        List<Long> timestamps = new ArrayList<>();
+        List<Double> deviceTemperatures = new ArrayList<>();
+        long visited = compressed.scan(start + 10_000, start + 40_000, (deviceIndex, epochMillis, ambient, device) -> {
+            timestamps.add(epochMillis);
+            deviceTemperatures.add(device);
+        });
+
+        assertThat(visited).isEqualTo(3);
+        assertThat(timestamps).containsExactly(start + 10_000, start + 20_000, start + 30_000);
+        assertThat(deviceTemperatures).containsExactly(51.00, 50.50, 51.25);
+    }
+
+    @Test
+    void partitions_ScanOfTimeRange_OpensOverlappingPartitionsOnly() throws IOException {
+        Path directory = Files.createTempDirectory("telemetry-partitions");
+        long start = Instant.parse("2024-02-02T00:00:00Z").toEpochMilli();
+
+        // The six readings, 10 seconds apart, fall into three 20 second partitions
+        TelemetryPartitions.writeDirectory(List.copyOf(telemetryStore.getDevices()), directory, 20_000, 2);
+        TelemetryPartitions partitions = TelemetryPartitions.open(directory);
+
+        assertThat(partitions.getPartitionCount()).isEqualTo(3);
+        assertThat(partitions.getRowCount()).isEqualTo(6);
+        assertThat(partitions.getDeviceId(0)).isEqualTo("DEVICE_001");
+        assertThat(partitions.getOpenedPartitionCount()).isZero();
+
+        List<Long> timestamps = new ArrayList<>();
+        long visited = partitions.scan(start + 10_000, start + 40_000,
+            (deviceIndex, epochMillis, ambient, device) -> timestamps.add(epochMillis));
+
+        assertThat(visited).isEqualTo(3);
+        assertThat(timestamps).containsExactly(start + 10_000, start + 20_000, start + 30_000);
+        assertThat(partitions.getOpenedPartitionCount()).isEqualTo(2);
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void splitLineAligned_SlicesEndOnNewlines() {
+        ByteBuffer buffer = ByteBuffer.wrap("a,1\nbb,22\nccc,333\nd,4".getBytes(StandardCharsets.UTF_8));
+
+        List<ByteBuffer> slices = TelemetryStore.splitLineAligned(buffer, 3, 1);
+
+        List<String> lines = new ArrayList<>();
+        for (ByteBuffer slice : slices) {
+            lines.add(StandardCharsets.UTF_8.decode(slice).toString());
+        }
+        assertThat(lines).containsExactly("a,1\nbb,22\n", "ccc,333\n", "d,4");
+    }
+
+    @Test
+    void parseCsv_ParallelSlices_MatchesSequentialParse() {
+        // Large enough to be split into several slices, with devices interleaved and out of order
+        Random random = new Random(3);
+        StringBuilder csv = new StringBuilder("DeviceId,Timestamp,AmbientTemperature,DeviceTemperature\n");
+        Instant start = Instant.parse("2024-02-02T00:00:00Z");
+        for (int i = 0; i < 60_000; i++) {
+            csv.append("DEVICE_").append(random.nextInt(i < 100 ? 2 : 25)).append(',')
+                .append(start.plusSeconds(i - random.nextInt(3) * 100)).append(',')
+                .append(random.nextInt(3000) / 100.0).append(',')
+                .append(random.nextInt(6000) / 100.0).append('\n');
+        }
+        List<ByteBuffer> chunks = List.of(ByteBuffer.wrap(csv.toString().getBytes(StandardCharsets.UTF_8)));
+
+        List<DeviceSeries> sequential = TelemetryStore.parseCsv(chunks, 1);
+        List<DeviceSeries> parallel = TelemetryStore.parseCsv(chunks, 4);
+
+        assertThat(parallel).hasSameSizeAs(sequential);
+        for (int i = 0; i < sequential.size(); i++) {
+            assertThat(parallel.get(i).getDeviceId()).isEqualTo(sequential.get(i).getDeviceId());
+            assertThat(parallel.get(i).getTimestamps()).isEqualTo(sequential.get(i).getTimestamps());
+            assertThat(parallel.get(i).getAmbientTemperatures()).isEqualTo(sequential.get(i).getAmbientTemperatures());
+            assertThat(parallel.get(i).getDeviceTemperatures()).isEqualTo(sequential.get(i).getDeviceTemperatures());
+        }
+    }
+}
\ No newline at end of file